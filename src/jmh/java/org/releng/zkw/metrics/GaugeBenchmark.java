@@ -0,0 +1,128 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.metrics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GaugeBenchmark {
+
+    @Param({"100", "1000"})
+    private int gauges;
+
+    private MetricsCollection metrics;
+    private MetricGroup group;
+    private String[] names;
+    private NumericGauge[] numericGauges;
+    private CounterGauge[] counterGauges;
+    private CollectorDefinition memoryPools;
+    private Map<String, Object> memoryPoolBean;
+    private long value = 0;
+    private int lookups = 0;
+    private int registrations = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        metrics = MetricsCollection.create();
+        group = metrics.metricGroup("bench.group.");
+        names = new String[gauges];
+        numericGauges = new NumericGauge[gauges];
+        counterGauges = new CounterGauge[gauges];
+        for (int i = 0; i < gauges; i++) {
+            names[i] = "bench.gauges.numeric" + i;
+            numericGauges[i] = metrics.numericGauge(names[i]);
+            counterGauges[i] = metrics.counterGauge("bench.gauges.counter" + i);
+            group.numericGauge("numeric" + i);
+        }
+        memoryPools = CollectorDefinitions.loadBuiltIn("jvm.collectors").get(0);
+        memoryPoolBean = Collections.singletonMap("Name", "PS Eden Space");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        metrics.close();
+    }
+
+    @Benchmark
+    public NumericGauge lookupByName() {
+        return metrics.numericGauge(names[lookups++ % gauges]);
+    }
+
+    @Benchmark
+    public NumericGauge lookupInGroup() {
+        return group.numericGauge("numeric7");
+    }
+
+    @Benchmark
+    public String buildMetricName() {
+        return "bench." + memoryPools.resolveGroup(memoryPoolBean) + ".usage.used";
+    }
+
+    @Benchmark
+    public void updateNumericGauges() {
+        metrics.beginUpdate();
+        try {
+            for (int i = 0; i < gauges; i++) {
+                numericGauges[i].setValue(value++);
+            }
+        } finally {
+            metrics.endUpdate();
+        }
+    }
+
+    @Benchmark
+    public void updateCounterGauges() {
+        metrics.beginUpdate();
+        try {
+            for (int i = 0; i < gauges; i++) {
+                counterGauges[i].setValue(value++);
+            }
+        } finally {
+            metrics.endUpdate();
+        }
+    }
+
+    @Benchmark
+    public void registerAndRemove() {
+        String prefix = "bench.churn." + registrations++ + ".";
+        for (int i = 0; i < 10; i++) {
+            metrics.numericGauge(prefix + i);
+        }
+        metrics.removeGauges(prefix);
+    }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.report;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.releng.zkw.metrics.MetricsCollection;
+import org.releng.zkw.metrics.MetricsRegistryHolder;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReporterBenchmark {
+
+    @Param({"PLAINTEXT", "PICKLE"})
+    private GraphiteFormat format;
+
+    @Param({"1000"})
+    private int gauges;
+
+    private MetricsCollection metrics;
+    private Map<String, String> samples;
+    private ServerSocket sink;
+    private GraphiteReporter reporter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        metrics = MetricsCollection.create();
+        samples = new LinkedHashMap<>();
+        metrics.beginUpdate();
+        for (int i = 0; i < gauges; i++) {
+            String name = "one_min.bench.zookeeper.2181.gauge" + i;
+            metrics.numericGauge(name).setValue(i * 31L);
+            samples.put(name, Long.toString(i * 31L));
+        }
+        metrics.endUpdate();
+        sink = new ServerSocket(0);
+        reporter = new GraphiteReporter(MetricsRegistryHolder.getRegistry(), "127.0.0.1", sink.getLocalPort(),
+                format, 1024 * 1024, 0, Optional.empty());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        reporter.stop();
+        sink.close();
+        metrics.close();
+    }
+
+    @Benchmark
+    public ByteBuffer encode() {
+        return format.encode(samples, 1400000000L);
+    }
+
+    @Benchmark
+    public void report() {
+        reporter.report();
+    }
+
+}
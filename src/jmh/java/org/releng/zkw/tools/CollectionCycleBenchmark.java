@@ -0,0 +1,119 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.tools;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.releng.zkw.metrics.JvmMetricsCollector;
+import org.releng.zkw.metrics.MetricsCollection;
+import org.releng.zkw.metrics.ZkMetricsCollector;
+import org.releng.zkw.sim.SyntheticZooKeeper;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXServiceURL;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CollectionCycleBenchmark {
+
+    @Param({"local", "rmi"})
+    private String transport;
+
+    @Param({"10", "500"})
+    private int connections;
+
+    private MBeanServer server;
+    private ObjectName zooKeeper;
+    private JMXConnectorServer connectorServer;
+    private JMXConnector connector;
+    private DiscoveryCache discoveryCache;
+    private CollectionPlan plan;
+    private JvmMetricsCollector jvmMetricsCollector;
+    private ZkMetricsCollector zkMetricsCollector;
+    private MetricsCollection metrics;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = ManagementFactory.getPlatformMBeanServer();
+        zooKeeper = SyntheticZooKeeper.registerStandalone(server, 2181, connections);
+        connectorServer = JMXConnectorServerFactory.newJMXConnectorServer(new JMXServiceURL("service:jmx:rmi://"),
+                null, server);
+        connectorServer.start();
+        connector = JMXConnectorFactory.connect(connectorServer.getAddress());
+        MBeanServerConnection connection = "rmi".equals(transport) ? connector.getMBeanServerConnection() : server;
+        discoveryCache = DiscoveryCache.open(connector, connection);
+        plan = new CollectionPlan(discoveryCache);
+        jvmMetricsCollector = new JvmMetricsCollector(plan);
+        zkMetricsCollector = new ZkMetricsCollector(plan);
+        metrics = MetricsCollection.create();
+        cycle();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        metrics.close();
+        discoveryCache.close();
+        connector.close();
+        connectorServer.stop();
+        SyntheticZooKeeper.unregister(server, zooKeeper);
+    }
+
+    @Benchmark
+    public void fetch() {
+        plan.fetch();
+    }
+
+    @Benchmark
+    public void collect() {
+        metrics.beginUpdate();
+        try {
+            jvmMetricsCollector.collectMetrics("bench", metrics);
+            zkMetricsCollector.collectMetrics("bench", metrics);
+        } finally {
+            metrics.endUpdate();
+        }
+    }
+
+    @Benchmark
+    public void cycle() {
+        plan.fetch();
+        collect();
+    }
+
+}
@@ -15,11 +15,31 @@
  */
 package org.releng.zkw;
 
+import org.releng.zkw.flw.FourLetterWordCollector;
+import org.releng.zkw.flw.FourLetterWordServer;
 import org.releng.zkw.log.LogConfiguration;
+import org.releng.zkw.metrics.CollectorDefinitions;
+import org.releng.zkw.metrics.MetricsRegistryHolder;
+import org.releng.zkw.report.GraphiteFormat;
+import org.releng.zkw.report.GraphiteReporter;
+import org.releng.zkw.report.MetricsJournal;
+import org.releng.zkw.report.PrometheusExporter;
+import org.releng.zkw.tools.CollectionBackend;
+import org.releng.zkw.tools.FetchExecutor;
+import org.releng.zkw.tools.PollIntervals;
+import org.releng.zkw.tools.ZkVmListener;
 import org.releng.zkw.tools.ZkVmWatcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
 public class Main {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Main.class);
@@ -31,10 +51,19 @@ public class Main {
         registerShutdownHook();
         LogConfiguration.withLogConfiguration(() -> {
             LOGGER.info("Starting up...");
-            ZkVmWatcher vmWatcher = new ZkVmWatcher(10000, 1000);
+            CollectorDefinitions.getCustomDefinitions();
+            Optional<GraphiteReporter> graphiteReporter = startGraphiteReporter();
+            Optional<PrometheusExporter> prometheusExporter = startPrometheusExporter();
+            long vmFullScanPauseMillis = "watch".equals(System.getProperty("zkw.discovery", "list").trim())
+                    ? 60000 : 0;
+            Set<CollectionBackend> backends = getCollectionBackends();
+            ZkVmWatcher vmWatcher = new ZkVmWatcher(getPollIntervals(), getDiscoveryIntervals(), vmFullScanPauseMillis,
+                    Runtime.getRuntime().availableProcessors(), backends, createFetchExecutor());
             Thread vmWatcherThread = new Thread(vmWatcher);
             vmWatcherThread.setDaemon(true);
             vmWatcherThread.start();
+            Optional<FourLetterWordCollector> flwCollector = backends.contains(CollectionBackend.FLW)
+                    ? Optional.of(startFourLetterWordCollector()) : Optional.empty();
             synchronized (shutdownLock) {
                 while (!shutdown) {
                     try {
@@ -45,15 +74,117 @@ public class Main {
             }
             LOGGER.info("Shutting down...");
             vmWatcher.shutdown();
+            flwCollector.ifPresent(FourLetterWordCollector::shutdown);
             try {
                 vmWatcherThread.join(100);
             } catch (InterruptedException e) {
             }
+            graphiteReporter.ifPresent(GraphiteReporter::stop);
+            prometheusExporter.ifPresent(PrometheusExporter::stop);
             LOGGER.info("Shutdown complete");
         });
 
     }
 
+    private static Set<CollectionBackend> getCollectionBackends() {
+        Set<CollectionBackend> backends = EnumSet.noneOf(CollectionBackend.class);
+        for (String backend : System.getProperty("zkw.backends", "jmx").split(",")) {
+            if (!backend.trim().isEmpty()) {
+                backends.add(CollectionBackend.valueOf(backend.trim().toUpperCase()));
+            }
+        }
+        if (backends.isEmpty()) {
+            throw new IllegalArgumentException("No collection backends configured");
+        }
+        LOGGER.info("Collecting metrics with {} backends", backends);
+        return backends;
+    }
+
+    private static PollIntervals getPollIntervals() {
+        long intervalMillis = Long.getLong("zkw.poll.intervalMillis", 10000);
+        // Adaptive polling is opt-in, a bound that is not set stays at the configured interval
+        PollIntervals intervals = new PollIntervals(Long.getLong("zkw.poll.minIntervalMillis", intervalMillis),
+                intervalMillis, Long.getLong("zkw.poll.maxIntervalMillis", intervalMillis),
+                Long.getLong("zkw.poll.budgetMillis", 2000));
+        LOGGER.info("Polling VMs every {}, starting at {} ms", intervals, intervals.getInitialMillis());
+        return intervals;
+    }
+
+    private static PollIntervals getDiscoveryIntervals() {
+        return new PollIntervals(1000, 1000, Long.getLong("zkw.discovery.maxIntervalMillis", 1000), 1000);
+    }
+
+    private static FourLetterWordCollector startFourLetterWordCollector() {
+        String host = System.getProperty("zkw.flw.host", "127.0.0.1").trim();
+        List<FourLetterWordServer> servers = FourLetterWordServer.parseList(host,
+                System.getProperty("zkw.flw.servers", "2181"));
+        long pollPauseMillis = Long.getLong("zkw.flw.intervalMillis", Long.getLong("zkw.poll.intervalMillis", 10000));
+        long timeoutMillis = Long.getLong("zkw.flw.timeoutMillis", 5000);
+        FourLetterWordCollector collector = new FourLetterWordCollector(servers, ZkVmListener.getLocalHostName(),
+                pollPauseMillis, timeoutMillis);
+        collector.start();
+        LOGGER.info("Collecting four letter word metrics from ZooKeeper servers {}", servers);
+        return collector;
+    }
+
+    public static Optional<FetchExecutor> createFetchExecutor() {
+        int threads = Integer.getInteger("zkw.fetch.threads", 0);
+        if (threads <= 0) {
+            return Optional.empty();
+        }
+        long beanTimeoutMillis = Long.getLong("zkw.fetch.beanTimeoutMillis", 2000);
+        long deadlineMillis = Long.getLong("zkw.fetch.deadlineMillis", 5000);
+        LOGGER.info("Fetching beans in parallel with {} threads, bean timeout {} ms, poll deadline {} ms", threads,
+                beanTimeoutMillis, deadlineMillis);
+        return Optional.of(new FetchExecutor(threads, beanTimeoutMillis, deadlineMillis));
+    }
+
+    private static Optional<GraphiteReporter> startGraphiteReporter() {
+        String host = System.getProperty("zkw.graphite.host");
+        if (host == null || host.trim().isEmpty()) {
+            return Optional.empty();
+        }
+        GraphiteFormat format = GraphiteFormat.valueOf(System.getProperty("zkw.graphite.format", "plaintext")
+                .trim().toUpperCase());
+        int port = Integer.getInteger("zkw.graphite.port", format == GraphiteFormat.PICKLE ? 2004 : 2003);
+        long periodSeconds = Long.getLong("zkw.graphite.periodSeconds", 60);
+        int maxPendingBytes = Integer.getInteger("zkw.graphite.maxPendingBytes", 4 * 1024 * 1024);
+        GraphiteReporter reporter = new GraphiteReporter(MetricsRegistryHolder.getRegistry(), host.trim(), port,
+                format, maxPendingBytes, TimeUnit.SECONDS.toMillis(periodSeconds) / 2, openMetricsJournal());
+        reporter.start(periodSeconds, TimeUnit.SECONDS);
+        LOGGER.info("Reporting metrics to Graphite at [{}:{}] in {} format every {} seconds", host.trim(), port,
+                format, periodSeconds);
+        return Optional.of(reporter);
+    }
+
+    private static Optional<MetricsJournal> openMetricsJournal() {
+        String file = System.getProperty("zkw.journal.file");
+        if (file == null || file.trim().isEmpty()) {
+            return Optional.empty();
+        }
+        long maxBytes = Long.getLong("zkw.journal.maxBytes", 64L * 1024 * 1024);
+        int blockBytes = Integer.getInteger("zkw.journal.blockBytes", 1024 * 1024);
+        MetricsJournal journal = MetricsJournal.open(Paths.get(file.trim()), maxBytes, blockBytes);
+        LOGGER.info("Journaling metrics to [{}] while Graphite is unreachable, up to {} bytes", file.trim(),
+                maxBytes);
+        return Optional.of(journal);
+    }
+
+    private static Optional<PrometheusExporter> startPrometheusExporter() {
+        Integer port = Integer.getInteger("zkw.prometheus.port");
+        if (port == null) {
+            return Optional.empty();
+        }
+        String host = System.getProperty("zkw.prometheus.host", "").trim();
+        long refreshMillis = Long.getLong("zkw.prometheus.refreshMillis", 5000);
+        InetSocketAddress address = host.isEmpty() ? new InetSocketAddress(port) : new InetSocketAddress(host, port);
+        PrometheusExporter exporter = new PrometheusExporter(MetricsRegistryHolder.getRegistry(),
+                ZkVmListener.getLocalHostName(), address);
+        exporter.start(refreshMillis);
+        LOGGER.info("Serving Prometheus metrics at [{}] refreshed every {} ms", exporter.getAddress(), refreshMillis);
+        return Optional.of(exporter);
+    }
+
     private static void registerShutdownHook() {
         Runtime.getRuntime().addShutdownHook(new Thread(() ->{
             synchronized (shutdownLock) {
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.flw;
+
+final class ConsParser extends LineParser {
+
+    private static final byte[] QUEUED = ascii("queued");
+    private static final byte[] RECEIVED = ascii("recved");
+    private static final byte[] SENT = ascii("sent");
+    private static final byte[] MAX_LATENCY = ascii("maxlat");
+
+    private final SlotTable.Slot count;
+    private final SlotTable.Slot queued;
+    private final SlotTable.Slot received;
+    private final SlotTable.Slot sent;
+    private final SlotTable.Slot maxLatency;
+    private long connections;
+    private long queuedTotal;
+    private long receivedTotal;
+    private long sentTotal;
+    private long maxLatencyValue;
+    private boolean complete;
+
+    ConsParser(SlotTable slots) {
+        this.count = slots.slot("count");
+        this.queued = slots.slot("queued");
+        this.received = slots.slot("received");
+        this.sent = slots.slot("sent");
+        this.maxLatency = slots.slot("maxLatency");
+    }
+
+    @Override
+    void begin() {
+        super.begin();
+        connections = 0;
+        queuedTotal = 0;
+        receivedTotal = 0;
+        sentTotal = 0;
+        maxLatencyValue = 0;
+        complete = false;
+    }
+
+    @Override
+    void line(byte[] line, int length) {
+        if (length == 0) {
+            complete = true;
+            return;
+        }
+        int open = indexOf(line, 0, length, (byte) '(');
+        if (open < 0 || line[length - 1] != ')') {
+            return;
+        }
+        connections++;
+        int position = open + 1;
+        while (position < length - 1) {
+            int comma = indexOf(line, position, length - 1, (byte) ',');
+            int end = comma < 0 ? length - 1 : comma;
+            int separator = indexOf(line, position, end, (byte) '=');
+            if (separator > 0) {
+                if (equals(line, position, separator, QUEUED)) {
+                    queuedTotal += Math.max(0, parseDecimal(line, separator + 1, end));
+                } else if (equals(line, position, separator, RECEIVED)) {
+                    receivedTotal += Math.max(0, parseDecimal(line, separator + 1, end));
+                } else if (equals(line, position, separator, SENT)) {
+                    sentTotal += Math.max(0, parseDecimal(line, separator + 1, end));
+                } else if (equals(line, position, separator, MAX_LATENCY)) {
+                    maxLatencyValue = Math.max(maxLatencyValue, parseDecimal(line, separator + 1, end));
+                }
+            }
+            position = end + 1;
+        }
+    }
+
+    @Override
+    void end() {
+        super.end();
+        // The connection list ends with an empty line, totals of a cut short list would be too low
+        if (complete && connections > 0) {
+            count.set(connections);
+            queued.set(queuedTotal);
+            received.set(receivedTotal);
+            sent.set(sentTotal);
+            maxLatency.set(maxLatencyValue);
+        }
+    }
+
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.flw;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public final class FourLetterWordCollector implements Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FourLetterWordCollector.class);
+
+    private static final String[] CLIENT_PORT_COMMANDS = {"mntr", "stat", "wchs", "cons"};
+
+    private final List<ServerMetrics> servers = new ArrayList<>();
+    private final List<Exchange> exchanges = new ArrayList<>();
+    private final long pollPauseMillis;
+    private final long timeoutMillis;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(64 * 1024);
+    private volatile boolean shutdown = false;
+    private Selector selector;
+    private Thread thread;
+
+    public FourLetterWordCollector(List<FourLetterWordServer> servers, String localHostName, long pollPauseMillis,
+            long timeoutMillis)
+    {
+        this.pollPauseMillis = pollPauseMillis;
+        this.timeoutMillis = timeoutMillis;
+        for (FourLetterWordServer server : servers) {
+            ServerMetrics metrics = new ServerMetrics(server,
+                    "one_min." + localHostName + ".zookeeper." + server.getClientPort());
+            this.servers.add(metrics);
+            InetSocketAddress clientAddress = new InetSocketAddress(server.getHost(), server.getClientPort());
+            ResponseParser[] parsers = metrics.getClientPortParsers();
+            for (int i = 0; i < CLIENT_PORT_COMMANDS.length; i++) {
+                exchanges.add(new Exchange(metrics, CLIENT_PORT_COMMANDS[i], clientAddress,
+                        ResponseParser.ascii(CLIENT_PORT_COMMANDS[i]), parsers[i]));
+            }
+            if (server.getAdminPort() > 0) {
+                exchanges.add(new Exchange(metrics, "monitor",
+                        new InetSocketAddress(server.getHost(), server.getAdminPort()),
+                        ResponseParser.ascii("GET /commands/monitor HTTP/1.0\r\nHost: " + server.getHost()
+                                + "\r\nConnection: close\r\n\r\n"), metrics.getMonitorParser()));
+            }
+        }
+    }
+
+    public void start() {
+        try {
+            selector = Selector.open();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        thread = new Thread(this, "zkw-flw");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void shutdown() {
+        shutdown = true;
+        selector.wakeup();
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e) {
+        }
+    }
+
+    @Override
+    public void run() {
+        LOGGER.info("Polling {} ZooKeeper servers with four letter words...", servers.size());
+        try {
+            long nextPollNanos = System.nanoTime();
+            while (!shutdown) {
+                long waitMillis = TimeUnit.NANOSECONDS.toMillis(nextPollNanos - System.nanoTime());
+                if (waitMillis > 0) {
+                    selector.select(waitMillis);
+                    continue;
+                }
+                long started = System.nanoTime();
+                poll(started + TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+                nextPollNanos = started + TimeUnit.MILLISECONDS.toNanos(pollPauseMillis);
+            }
+        } catch (Exception e) {
+            LOGGER.error("Four letter word collector error", e);
+        } finally {
+            exchanges.forEach(Exchange::close);
+            servers.forEach(ServerMetrics::close);
+            safeCloseSelector();
+            LOGGER.info("Four letter word collector was stopped");
+        }
+    }
+
+    private void poll(long deadlineNanos) throws IOException {
+        long started = System.nanoTime();
+        servers.forEach(ServerMetrics::beginCycle);
+        int pending = 0;
+        for (Exchange exchange : exchanges) {
+            if (exchange.open(selector)) {
+                pending++;
+            }
+        }
+        while (pending > 0 && !shutdown) {
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+            if (remainingMillis <= 0) {
+                break;
+            }
+            selector.select(remainingMillis);
+            for (SelectionKey key : selector.selectedKeys()) {
+                if (!((Exchange) key.attachment()).handle(key, readBuffer)) {
+                    pending--;
+                }
+            }
+            selector.selectedKeys().clear();
+        }
+        for (Exchange exchange : exchanges) {
+            if (exchange.channel != null) {
+                exchange.fail(new IOException("Timed out"));
+            }
+        }
+        long cycleNanos = System.nanoTime() - started;
+        servers.forEach(s -> s.publish(cycleNanos));
+    }
+
+    private void safeCloseSelector() {
+        try {
+            selector.close();
+        } catch (IOException e) {
+            LOGGER.error("Error closing four letter word selector", e);
+        }
+    }
+
+    private static final class Exchange {
+
+        private final ServerMetrics server;
+        private final String command;
+        private final InetSocketAddress address;
+        private final ByteBuffer request;
+        private final ResponseParser parser;
+        private SocketChannel channel;
+
+        private Exchange(ServerMetrics server, String command, InetSocketAddress address, byte[] request,
+                ResponseParser parser)
+        {
+            this.server = server;
+            this.command = command;
+            this.address = address;
+            this.request = ByteBuffer.wrap(request);
+            this.parser = parser;
+        }
+
+        private boolean open(Selector selector) {
+            server.started();
+            try {
+                request.rewind();
+                parser.begin();
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                if (channel.connect(address)) {
+                    channel.register(selector, SelectionKey.OP_WRITE, this);
+                } else {
+                    channel.register(selector, SelectionKey.OP_CONNECT, this);
+                }
+                return true;
+            } catch (IOException | UnresolvedAddressException e) {
+                fail(e);
+                return false;
+            }
+        }
+
+        private boolean handle(SelectionKey key, ByteBuffer buffer) {
+            try {
+                if (key.isConnectable()) {
+                    if (channel.finishConnect()) {
+                        key.interestOps(SelectionKey.OP_WRITE);
+                    }
+                } else if (key.isWritable()) {
+                    channel.write(request);
+                    if (!request.hasRemaining()) {
+                        key.interestOps(SelectionKey.OP_READ);
+                    }
+                } else if (key.isReadable()) {
+                    buffer.clear();
+                    int read = channel.read(buffer);
+                    if (read < 0) {
+                        parser.end();
+                        close();
+                        server.completed();
+                        return false;
+                    }
+                    parser.parse(buffer.array(), 0, read);
+                }
+                return true;
+            } catch (IOException | RuntimeException e) {
+                fail(e);
+                return false;
+            }
+        }
+
+        private void fail(Exception e) {
+            close();
+            server.failed(command, e);
+        }
+
+        private void close() {
+            if (channel == null) {
+                return;
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.error("Error closing connection to ZooKeeper at [{}]", address, e);
+            }
+            channel = null;
+        }
+
+    }
+
+}
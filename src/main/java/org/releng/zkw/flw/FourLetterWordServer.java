@@ -0,0 +1,73 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.flw;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public final class FourLetterWordServer {
+
+    private final String host;
+    private final int clientPort;
+    private final int adminPort;
+
+    public FourLetterWordServer(String host, int clientPort, int adminPort) {
+        this.host = host;
+        this.clientPort = clientPort;
+        this.adminPort = adminPort;
+    }
+
+    public static List<FourLetterWordServer> parseList(String host, String servers) {
+        List<FourLetterWordServer> result = new ArrayList<>();
+        for (String server : servers.split(",")) {
+            server = server.trim();
+            if (server.isEmpty()) {
+                continue;
+            }
+            int colon = server.indexOf(':');
+            try {
+                if (colon < 0) {
+                    result.add(new FourLetterWordServer(host, Integer.parseInt(server), 0));
+                } else {
+                    result.add(new FourLetterWordServer(host, Integer.parseInt(server.substring(0, colon)),
+                            Integer.parseInt(server.substring(colon + 1))));
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid ZooKeeper server '" + server
+                        + "', expected <clientPort>[:<adminPort>]", e);
+            }
+        }
+        return result;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getClientPort() {
+        return clientPort;
+    }
+
+    public int getAdminPort() {
+        return adminPort;
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + clientPort + (adminPort > 0 ? " (admin " + adminPort + ")" : "");
+    }
+
+}
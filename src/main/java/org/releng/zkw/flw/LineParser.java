@@ -0,0 +1,59 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.flw;
+
+abstract class LineParser extends ResponseParser {
+
+    private static final int MAX_LINE_BYTES = 4096;
+
+    private final byte[] line = new byte[MAX_LINE_BYTES];
+    private int length = 0;
+    private boolean truncated = false;
+
+    @Override
+    void begin() {
+        length = 0;
+        truncated = false;
+    }
+
+    @Override
+    void parse(byte[] data, int offset, int end) {
+        for (int i = offset; i < end; i++) {
+            byte b = data[i];
+            if (b == '\n') {
+                if (!truncated) {
+                    line(line, trimEnd(line, 0, length));
+                }
+                length = 0;
+                truncated = false;
+            } else if (length < line.length) {
+                line[length++] = b;
+            } else {
+                truncated = true;
+            }
+        }
+    }
+
+    @Override
+    void end() {
+        // Responses end with a newline, an unterminated line means the response was cut short
+        length = 0;
+        truncated = false;
+    }
+
+    abstract void line(byte[] line, int length);
+
+}
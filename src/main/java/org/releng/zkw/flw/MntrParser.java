@@ -0,0 +1,45 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.flw;
+
+final class MntrParser extends LineParser {
+
+    private static final byte[] KEY_PREFIX = ascii("zk_");
+    private static final byte[] SERVER_STATE = ascii("server_state");
+
+    private final ServerMetrics server;
+    private final SlotTable slots;
+
+    MntrParser(ServerMetrics server, SlotTable slots) {
+        this.server = server;
+        this.slots = slots;
+    }
+
+    @Override
+    void line(byte[] line, int length) {
+        int tab = indexOf(line, 0, length, (byte) '\t');
+        if (tab <= 0) {
+            return;
+        }
+        int keyStart = startsWith(line, 0, tab, KEY_PREFIX) ? KEY_PREFIX.length : 0;
+        if (equals(line, keyStart, tab, SERVER_STATE)) {
+            server.role(line, tab + 1, length);
+        } else if (keyStart < tab) {
+            slots.slot(line, keyStart, tab - keyStart).parse(line, tab + 1, length);
+        }
+    }
+
+}
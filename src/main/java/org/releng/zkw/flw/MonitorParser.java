@@ -0,0 +1,178 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.flw;
+
+final class MonitorParser extends ResponseParser {
+
+    private static final byte[] HEADERS_END = ascii("\r\n\r\n");
+    private static final byte[] STATUS_OK = ascii(" 200 ");
+    private static final byte[] SERVER_STATE = ascii("server_state");
+    private static final int MAX_TOKEN_BYTES = 256;
+
+    private final ServerMetrics server;
+    private final SlotTable slots;
+    private final byte[] key = new byte[MAX_TOKEN_BYTES];
+    private final byte[] token = new byte[MAX_TOKEN_BYTES];
+    private final byte[] status = new byte[16];
+    private int statusLength;
+    private int headersMatched;
+    private boolean body;
+    private boolean failed;
+    private int depth;
+    private boolean inString;
+    private boolean escape;
+    private boolean valuePending;
+    private int keyLength;
+    private int tokenLength;
+
+    MonitorParser(ServerMetrics server, SlotTable slots) {
+        this.server = server;
+        this.slots = slots;
+    }
+
+    @Override
+    void begin() {
+        statusLength = 0;
+        headersMatched = 0;
+        body = false;
+        failed = false;
+        depth = 0;
+        inString = false;
+        escape = false;
+        valuePending = false;
+        keyLength = 0;
+        tokenLength = 0;
+    }
+
+    @Override
+    void parse(byte[] data, int offset, int end) {
+        for (int i = offset; i < end && !failed; i++) {
+            byte b = data[i];
+            if (!body) {
+                header(b);
+            } else if (inString) {
+                stringByte(b);
+            } else {
+                structureByte(b);
+            }
+        }
+    }
+
+    @Override
+    void end() {
+        // Values are flushed by the delimiter that follows them, a pending token was cut short
+        tokenLength = 0;
+    }
+
+    private void header(byte b) {
+        if (statusLength < status.length) {
+            status[statusLength++] = b;
+            if (statusLength == status.length && indexOfStatus() < 0) {
+                failed = true;
+            }
+        }
+        headersMatched = b == HEADERS_END[headersMatched] ? headersMatched + 1 : (b == HEADERS_END[0] ? 1 : 0);
+        if (headersMatched == HEADERS_END.length) {
+            body = true;
+            failed = indexOfStatus() < 0;
+        }
+    }
+
+    private int indexOfStatus() {
+        for (int i = 0; i + STATUS_OK.length <= statusLength; i++) {
+            if (startsWith(status, i, statusLength, STATUS_OK)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void stringByte(byte b) {
+        if (escape) {
+            escape = false;
+        } else if (b == '\\') {
+            escape = true;
+            return;
+        } else if (b == '"') {
+            inString = false;
+            stringEnd();
+            return;
+        }
+        if (tokenLength < token.length) {
+            token[tokenLength++] = b;
+        }
+    }
+
+    private void stringEnd() {
+        if (depth == 1 && valuePending) {
+            if (equals(key, 0, keyLength, SERVER_STATE)) {
+                server.role(token, 0, tokenLength);
+            }
+            valuePending = false;
+        } else if (depth == 1) {
+            System.arraycopy(token, 0, key, 0, tokenLength);
+            keyLength = tokenLength;
+        }
+        tokenLength = 0;
+    }
+
+    private void structureByte(byte b) {
+        switch (b) {
+            case '"':
+                flushToken();
+                inString = true;
+                tokenLength = 0;
+                break;
+            case '{':
+            case '[':
+                flushToken();
+                depth++;
+                valuePending = false;
+                break;
+            case '}':
+            case ']':
+                flushToken();
+                depth--;
+                break;
+            case ':':
+                valuePending = depth == 1;
+                break;
+            case ',':
+                flushToken();
+                valuePending = false;
+                break;
+            case ' ':
+            case '\t':
+            case '\r':
+            case '\n':
+                flushToken();
+                break;
+            default:
+                if (valuePending && tokenLength < token.length) {
+                    token[tokenLength++] = b;
+                }
+        }
+    }
+
+    private void flushToken() {
+        if (tokenLength > 0 && valuePending && keyLength > 0) {
+            slots.slot(key, 0, keyLength).parse(token, 0, tokenLength);
+            valuePending = false;
+        }
+        tokenLength = 0;
+    }
+
+}
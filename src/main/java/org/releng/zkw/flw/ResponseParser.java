@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.flw;
+
+import java.nio.charset.StandardCharsets;
+
+abstract class ResponseParser {
+
+    void begin() {
+    }
+
+    abstract void parse(byte[] data, int offset, int end);
+
+    void end() {
+    }
+
+    static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    static int indexOf(byte[] bytes, int offset, int end, byte value) {
+        for (int i = offset; i < end; i++) {
+            if (bytes[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static boolean startsWith(byte[] bytes, int offset, int end, byte[] prefix) {
+        if (end - offset < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean equals(byte[] bytes, int offset, int end, byte[] value) {
+        return end - offset == value.length && startsWith(bytes, offset, end, value);
+    }
+
+    static int skipSpaces(byte[] bytes, int offset, int end) {
+        while (offset < end && (bytes[offset] == ' ' || bytes[offset] == '\t')) {
+            offset++;
+        }
+        return offset;
+    }
+
+    static int trimEnd(byte[] bytes, int offset, int end) {
+        while (end > offset && (bytes[end - 1] == ' ' || bytes[end - 1] == '\r' || bytes[end - 1] == '\t')) {
+            end--;
+        }
+        return end;
+    }
+
+    static long parseDecimal(byte[] bytes, int offset, int end) {
+        if (offset >= end || end - offset > 18) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = offset; i < end; i++) {
+            if (bytes[i] < '0' || bytes[i] > '9') {
+                return -1;
+            }
+            value = value * 10 + (bytes[i] - '0');
+        }
+        return value;
+    }
+
+}
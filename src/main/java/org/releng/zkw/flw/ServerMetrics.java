@@ -0,0 +1,161 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.flw;
+
+import com.codahale.metrics.Histogram;
+import org.releng.zkw.metrics.CounterGauge;
+import org.releng.zkw.metrics.MetricGroup;
+import org.releng.zkw.metrics.MetricsCollection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+final class ServerMetrics {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ServerMetrics.class);
+
+    private static final Set<String> COUNTERS = new HashSet<>(Arrays.asList("mntr.packets_received",
+            "mntr.packets_sent", "stat.Received", "stat.Sent", "monitor.packets_received", "monitor.packets_sent",
+            "cons.received", "cons.sent"));
+    private static final byte[][] ROLE_NAMES = {ResponseParser.ascii("looking"), ResponseParser.ascii("follower"),
+            ResponseParser.ascii("leader"), ResponseParser.ascii("observer"), ResponseParser.ascii("following"),
+            ResponseParser.ascii("leading"), ResponseParser.ascii("observing"), ResponseParser.ascii("standalone")};
+    private static final long[] ROLE_CODES = {0, 1, 2, 3, 1, 2, 3, -1};
+
+    private final FourLetterWordServer server;
+    private final String prefix;
+    private final SlotTable[] tables;
+    private final ResponseParser[] clientPortParsers;
+    private final ResponseParser monitorParser;
+    private MetricsCollection metrics;
+    private MetricGroup group;
+    private MetricGroup zkwGroup;
+    private Histogram pollTimer;
+    private CounterGauge errorsGauge;
+    private long role;
+    private boolean roleSeen;
+    private int exchanges;
+    private int completed;
+    private long errors;
+    private boolean up = true;
+
+    ServerMetrics(FourLetterWordServer server, String prefix) {
+        this.server = server;
+        this.prefix = prefix;
+        SlotTable mntr = new SlotTable("mntr.", COUNTERS);
+        SlotTable stat = new SlotTable("stat.", COUNTERS);
+        SlotTable wchs = new SlotTable("wchs.", COUNTERS);
+        SlotTable cons = new SlotTable("cons.", COUNTERS);
+        SlotTable monitor = new SlotTable("monitor.", COUNTERS);
+        this.tables = new SlotTable[]{mntr, stat, wchs, cons, monitor};
+        this.clientPortParsers = new ResponseParser[]{new MntrParser(this, mntr), new StatParser(this, stat),
+                new WchsParser(wchs), new ConsParser(cons)};
+        this.monitorParser = new MonitorParser(this, monitor);
+    }
+
+    FourLetterWordServer getServer() {
+        return server;
+    }
+
+    ResponseParser[] getClientPortParsers() {
+        return clientPortParsers;
+    }
+
+    ResponseParser getMonitorParser() {
+        return monitorParser;
+    }
+
+    void beginCycle() {
+        roleSeen = false;
+        exchanges = 0;
+        completed = 0;
+    }
+
+    void started() {
+        exchanges++;
+    }
+
+    void completed() {
+        completed++;
+    }
+
+    void failed(String command, Exception e) {
+        errors++;
+        LOGGER.debug("ZooKeeper command [{}] to [{}] failed: {}", command, server, e.toString());
+    }
+
+    void role(byte[] bytes, int offset, int end) {
+        offset = ResponseParser.skipSpaces(bytes, offset, end);
+        end = ResponseParser.trimEnd(bytes, offset, end);
+        for (int i = 0; i < ROLE_NAMES.length; i++) {
+            if (ResponseParser.equals(bytes, offset, end, ROLE_NAMES[i])) {
+                role = ROLE_CODES[i];
+                roleSeen = true;
+                return;
+            }
+        }
+    }
+
+    void publish(long cycleNanos) {
+        boolean nowUp = completed > 0;
+        if (nowUp != up) {
+            if (nowUp) {
+                LOGGER.info("ZooKeeper server [{}] answers four letter words again", server);
+            } else {
+                LOGGER.warn("ZooKeeper server [{}] did not answer any of {} four letter word commands", server,
+                        exchanges);
+            }
+            up = nowUp;
+        }
+        if (metrics == null) {
+            metrics = MetricsCollection.create();
+            group = metrics.metricGroup(prefix + ".flw.");
+            zkwGroup = metrics.metricGroup(prefix + ".zkw.flw.");
+            pollTimer = metrics.histogram(prefix + ".zkw.flw.poll.micros");
+            errorsGauge = zkwGroup.counterGauge("errors");
+        }
+        metrics.beginUpdate();
+        try {
+            for (SlotTable table : tables) {
+                table.publish(group);
+            }
+            if (roleSeen) {
+                group.numericGauge("role").setValue(role);
+            }
+            zkwGroup.numericGauge("up").setValue(nowUp ? 1 : 0);
+            zkwGroup.numericGauge("commands").setValue(completed);
+            errorsGauge.setValue(errors);
+            pollTimer.update(TimeUnit.NANOSECONDS.toMicros(cycleNanos));
+        } finally {
+            metrics.endUpdate();
+        }
+    }
+
+    void close() {
+        if (metrics != null) {
+            metrics.close();
+            metrics = null;
+            for (SlotTable table : tables) {
+                table.detach();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.flw;
+
+import org.releng.zkw.metrics.CounterGauge;
+import org.releng.zkw.metrics.FloatingGauge;
+import org.releng.zkw.metrics.MetricGroup;
+import org.releng.zkw.metrics.NumericGauge;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+
+final class SlotTable {
+
+    private final String metricPrefix;
+    private final Set<String> counters;
+    private Slot[] slots = new Slot[64];
+    private int size = 0;
+
+    SlotTable(String metricPrefix, Set<String> counters) {
+        this.metricPrefix = metricPrefix;
+        this.counters = counters;
+    }
+
+    Slot slot(byte[] key, int offset, int length) {
+        int hash = hash(key, offset, length);
+        int mask = slots.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            Slot slot = slots[i];
+            if (slot == null) {
+                return insert(i, hash, key, offset, length);
+            }
+            if (slot.hash == hash && slot.matches(key, offset, length)) {
+                return slot;
+            }
+        }
+    }
+
+    Slot slot(String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        return slot(bytes, 0, bytes.length);
+    }
+
+    void publish(MetricGroup group) {
+        for (Slot slot : slots) {
+            if (slot == null || !slot.seen) {
+                continue;
+            }
+            slot.seen = false;
+            if (slot.floating) {
+                if (slot.floatingGauge == null) {
+                    slot.floatingGauge = group.floatingGauge(slot.metric);
+                }
+                slot.floatingGauge.setValue(slot.doubleValue);
+            } else if (slot.counter) {
+                if (slot.counterGauge == null) {
+                    slot.counterGauge = group.counterGauge(slot.metric);
+                }
+                slot.counterGauge.setValue(slot.longValue);
+            } else {
+                if (slot.numericGauge == null) {
+                    slot.numericGauge = group.numericGauge(slot.metric);
+                }
+                slot.numericGauge.setValue(slot.longValue);
+            }
+        }
+    }
+
+    void detach() {
+        for (Slot slot : slots) {
+            if (slot != null) {
+                slot.numericGauge = null;
+                slot.floatingGauge = null;
+                slot.counterGauge = null;
+                slot.seen = false;
+            }
+        }
+    }
+
+    private Slot insert(int index, int hash, byte[] key, int offset, int length) {
+        StringBuilder metric = new StringBuilder(metricPrefix.length() + length).append(metricPrefix);
+        for (int i = offset; i < offset + length; i++) {
+            char c = (char) (key[i] & 0xff);
+            metric.append((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '.'
+                    ? c : '_');
+        }
+        String name = metric.toString();
+        Slot slot = new Slot(hash, Arrays.copyOfRange(key, offset, offset + length), name,
+                counters.contains(name.substring(metricPrefix.length())));
+        slots[index] = slot;
+        if (++size * 2 > slots.length) {
+            Slot[] previous = slots;
+            slots = new Slot[previous.length * 2];
+            for (Slot existing : previous) {
+                if (existing != null) {
+                    int i = existing.hash & (slots.length - 1);
+                    while (slots[i] != null) {
+                        i = (i + 1) & (slots.length - 1);
+                    }
+                    slots[i] = existing;
+                }
+            }
+        }
+        return slot;
+    }
+
+    private static int hash(byte[] key, int offset, int length) {
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + key[i];
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    static final class Slot {
+
+        private final int hash;
+        private final byte[] key;
+        private final String metric;
+        private final boolean counter;
+        private boolean seen;
+        private boolean floating;
+        private long longValue;
+        private double doubleValue;
+        private NumericGauge numericGauge;
+        private FloatingGauge floatingGauge;
+        private CounterGauge counterGauge;
+
+        private Slot(int hash, byte[] key, String metric, boolean counter) {
+            this.hash = hash;
+            this.key = key;
+            this.metric = metric;
+            this.counter = counter;
+        }
+
+        void set(long value) {
+            seen = true;
+            floating = false;
+            longValue = value;
+        }
+
+        boolean parse(byte[] bytes, int offset, int end) {
+            while (offset < end && bytes[offset] == ' ') {
+                offset++;
+            }
+            while (end > offset && (bytes[end - 1] == ' ' || bytes[end - 1] == '\r')) {
+                end--;
+            }
+            if (offset >= end) {
+                return false;
+            }
+            if (end - offset > 2 && bytes[offset] == '0' && (bytes[offset + 1] == 'x' || bytes[offset + 1] == 'X')) {
+                return parseHex(bytes, offset + 2, end);
+            }
+            boolean negative = bytes[offset] == '-';
+            int i = negative ? offset + 1 : offset;
+            long integer = 0;
+            int digits = 0;
+            for (; i < end && bytes[i] >= '0' && bytes[i] <= '9'; i++, digits++) {
+                integer = integer * 10 + (bytes[i] - '0');
+            }
+            if (i == end && digits > 0 && digits < 19) {
+                set(negative ? -integer : integer);
+                return true;
+            }
+            if (i < end && bytes[i] == '.') {
+                long fraction = 0;
+                long scale = 1;
+                for (i++; i < end && bytes[i] >= '0' && bytes[i] <= '9' && scale < 1000000000000000L; i++) {
+                    fraction = fraction * 10 + (bytes[i] - '0');
+                    scale *= 10;
+                }
+                while (i < end && bytes[i] >= '0' && bytes[i] <= '9') {
+                    i++;
+                }
+                if (i == end && digits > 0 && digits < 16) {
+                    double value = integer + (double) fraction / scale;
+                    setFloating(negative ? -value : value);
+                    return true;
+                }
+            }
+            return parseFallback(bytes, offset, end);
+        }
+
+        private boolean parseHex(byte[] bytes, int offset, int end) {
+            if (end - offset > 16) {
+                return false;
+            }
+            long value = 0;
+            for (int i = offset; i < end; i++) {
+                int digit = Character.digit(bytes[i], 16);
+                if (digit < 0) {
+                    return false;
+                }
+                value = (value << 4) | digit;
+            }
+            set(value);
+            return true;
+        }
+
+        private boolean parseFallback(byte[] bytes, int offset, int end) {
+            for (int i = offset; i < end; i++) {
+                byte b = bytes[i];
+                if (!((b >= '0' && b <= '9') || b == '.' || b == '-' || b == '+' || b == 'e' || b == 'E')) {
+                    return false;
+                }
+            }
+            try {
+                setFloating(Double.parseDouble(new String(bytes, offset, end - offset, StandardCharsets.US_ASCII)));
+                return true;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+
+        private void setFloating(double value) {
+            seen = true;
+            floating = true;
+            doubleValue = value;
+        }
+
+        private boolean matches(byte[] bytes, int offset, int length) {
+            if (key.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (key[i] != bytes[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+    }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.flw;
+
+final class StatParser extends LineParser {
+
+    private static final byte[] MODE = ascii("Mode");
+    private static final byte[] LATENCY = ascii("Latency min/avg/max");
+
+    private final ServerMetrics server;
+    private final SlotTable slots;
+    private final SlotTable.Slot[] latency;
+
+    StatParser(ServerMetrics server, SlotTable slots) {
+        this.server = server;
+        this.slots = slots;
+        this.latency = new SlotTable.Slot[]{slots.slot("latency.min"), slots.slot("latency.avg"),
+                slots.slot("latency.max")};
+    }
+
+    @Override
+    void line(byte[] line, int length) {
+        if (length == 0 || line[0] == ' ' || line[0] == '\t') {
+            return;
+        }
+        int colon = indexOf(line, 0, length, (byte) ':');
+        if (colon <= 0) {
+            return;
+        }
+        int value = skipSpaces(line, colon + 1, length);
+        if (equals(line, 0, colon, MODE)) {
+            server.role(line, value, length);
+        } else if (equals(line, 0, colon, LATENCY)) {
+            for (int i = 0; i < latency.length && value < length; i++) {
+                int slash = indexOf(line, value, length, (byte) '/');
+                int end = slash < 0 ? length : slash;
+                latency[i].parse(line, value, end);
+                value = end + 1;
+            }
+        } else {
+            slots.slot(line, 0, colon).parse(line, value, length);
+        }
+    }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.flw;
+
+final class WchsParser extends LineParser {
+
+    private static final byte[] TOTAL_WATCHES = ascii("Total watches:");
+
+    private final SlotTable.Slot connections;
+    private final SlotTable.Slot paths;
+    private final SlotTable.Slot total;
+
+    WchsParser(SlotTable slots) {
+        this.connections = slots.slot("connections");
+        this.paths = slots.slot("paths");
+        this.total = slots.slot("total");
+    }
+
+    @Override
+    void line(byte[] line, int length) {
+        if (startsWith(line, 0, length, TOTAL_WATCHES)) {
+            total.parse(line, TOTAL_WATCHES.length, length);
+            return;
+        }
+        int first = indexOf(line, 0, length, (byte) ' ');
+        long connectionCount = first > 0 ? parseDecimal(line, 0, first) : -1;
+        if (connectionCount < 0) {
+            return;
+        }
+        int end = length;
+        while (end > 0 && line[end - 1] != ' ') {
+            end--;
+        }
+        int start = end - 1;
+        while (start > 0 && line[start - 1] != ' ') {
+            start--;
+        }
+        long pathCount = start > first ? parseDecimal(line, start, end - 1) : -1;
+        if (pathCount >= 0) {
+            connections.set(connectionCount);
+            paths.set(pathCount);
+        }
+    }
+
+}
@@ -16,8 +16,8 @@
 package org.releng.zkw.functional;
 
 @FunctionalInterface
-public interface Function1V<T> {
+public interface Function2V<T1, T2> {
 
-    void apply(T arg);
+    void apply(T1 arg1, T2 arg2);
 
 }
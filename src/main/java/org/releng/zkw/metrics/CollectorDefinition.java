@@ -0,0 +1,179 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.metrics;
+
+import org.releng.zkw.tools.CollectionTier;
+
+import javax.management.Query;
+import javax.management.QueryExp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public final class CollectorDefinition {
+
+    private static final Pattern GROUP_ATTRIBUTE = Pattern.compile("\\{([^}]+)}");
+
+    private final String beanPattern;
+    private final String instanceOf;
+    private final String group;
+    private final List<String> groupAttributes;
+    private final List<String> requiredAttributes;
+    private final List<MetricDefinition> metrics;
+    private final Set<String> adaptiveMetrics;
+    private final CollectionTier tier;
+
+    CollectorDefinition(String beanPattern, String instanceOf, String group, List<String> requiredAttributes,
+            List<MetricDefinition> metrics, List<String> adaptiveMetrics, CollectionTier tier)
+    {
+        this.beanPattern = beanPattern;
+        this.instanceOf = instanceOf;
+        this.group = group;
+        this.groupAttributes = Collections.unmodifiableList(findGroupAttributes(group));
+        this.requiredAttributes = Collections.unmodifiableList(new ArrayList<>(requiredAttributes));
+        this.metrics = Collections.unmodifiableList(new ArrayList<>(metrics));
+        this.adaptiveMetrics = Collections.unmodifiableSet(new LinkedHashSet<>(adaptiveMetrics));
+        this.tier = tier;
+    }
+
+    public String getBeanPattern() {
+        return beanPattern;
+    }
+
+    public QueryExp getQuery() {
+        if (instanceOf == null) {
+            return null;
+        }
+        return Query.isInstanceOf(Query.value(instanceOf));
+    }
+
+    public String getGroup() {
+        return group;
+    }
+
+    public List<String> getGroupAttributes() {
+        return groupAttributes;
+    }
+
+    public List<String> getRequiredAttributes() {
+        return requiredAttributes;
+    }
+
+    public List<MetricDefinition> getMetrics() {
+        return metrics;
+    }
+
+    public boolean isAdaptive(MetricDefinition metric) {
+        return adaptiveMetrics.isEmpty() || adaptiveMetrics.contains(metric.getName());
+    }
+
+    public CollectionTier getTier(MetricDefinition metric) {
+        return metric.getTier() != null ? metric.getTier() : tier;
+    }
+
+    // Group names and conditions are read with the static tier, required attributes with every tier that has metrics
+    public String[] getRequestedAttributes(CollectionTier tier) {
+        Set<String> attributes = new LinkedHashSet<>();
+        metrics.stream().filter(m -> getTier(m) == tier).forEach(m -> attributes.add(m.getAttribute()));
+        if (!attributes.isEmpty()) {
+            attributes.addAll(requiredAttributes);
+        }
+        if (tier == CollectionTier.STATIC) {
+            attributes.addAll(groupAttributes);
+            metrics.stream().filter(m -> m.getCondition() != null).forEach(m -> attributes.add(m.getCondition()));
+        }
+        return attributes.toArray(new String[attributes.size()]);
+    }
+
+    public String resolveGroup(Map<String, Object> attributes) {
+        Matcher matcher = GROUP_ATTRIBUTE.matcher(group);
+        StringBuffer result = new StringBuffer();
+        while (matcher.find()) {
+            Object value = attributes.get(matcher.group(1));
+            if (!(value instanceof String)) {
+                return null;
+            }
+            matcher.appendReplacement(result, Matcher.quoteReplacement(((String) value).replaceAll("\\s", "")));
+        }
+        matcher.appendTail(result);
+        return result.toString();
+    }
+
+    private static List<String> findGroupAttributes(String group) {
+        List<String> result = new ArrayList<>();
+        Matcher matcher = GROUP_ATTRIBUTE.matcher(group);
+        while (matcher.find()) {
+            result.add(matcher.group(1));
+        }
+        return result;
+    }
+
+    public static final class MetricDefinition {
+
+        private final String attribute;
+        private final String compositeKey;
+        private final String name;
+        private final MetricType type;
+        private final String condition;
+        private final CollectionTier tier;
+
+        MetricDefinition(String attribute, String compositeKey, String name, MetricType type, String condition,
+                CollectionTier tier)
+        {
+            this.attribute = attribute;
+            this.compositeKey = compositeKey;
+            this.name = name;
+            this.type = type;
+            this.condition = condition;
+            this.tier = tier;
+        }
+
+        public String getAttribute() {
+            return attribute;
+        }
+
+        public String getCompositeKey() {
+            return compositeKey;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public MetricType getType() {
+            return type;
+        }
+
+        public String getCondition() {
+            return condition;
+        }
+
+        public CollectionTier getTier() {
+            return tier;
+        }
+
+    }
+
+    public enum MetricType {
+        LONG, DOUBLE, COUNTER
+    }
+
+}
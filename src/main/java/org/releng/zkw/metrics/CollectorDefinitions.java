@@ -0,0 +1,234 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.metrics;
+
+import org.releng.zkw.tools.CollectionTier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public final class CollectorDefinitions {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CollectorDefinitions.class);
+
+    public static final String CUSTOM_DEFINITIONS_PROPERTY = "zkw.collectors";
+
+    private static List<CollectorDefinition> customDefinitions;
+
+    private CollectorDefinitions() {
+    }
+
+    public static List<CollectorDefinition> loadBuiltIn(String resource) {
+        try (InputStream input = CollectorDefinitions.class.getResourceAsStream(resource)) {
+            if (input == null) {
+                throw new IllegalArgumentException("Collector definitions resource " + resource + " not found");
+            }
+            return parse(new InputStreamReader(input, StandardCharsets.UTF_8), resource);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static synchronized List<CollectorDefinition> getCustomDefinitions() {
+        if (customDefinitions == null) {
+            String file = System.getProperty(CUSTOM_DEFINITIONS_PROPERTY);
+            if (file == null || file.isEmpty()) {
+                customDefinitions = Collections.emptyList();
+            } else {
+                customDefinitions = loadFile(Paths.get(file));
+                LOGGER.info("Loaded [{}] collector definitions from [{}]", customDefinitions.size(), file);
+            }
+        }
+        return customDefinitions;
+    }
+
+    public static List<CollectorDefinition> loadFile(Path path) {
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            return parse(reader, path.toString());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static List<CollectorDefinition> parse(Reader reader, String source) throws IOException {
+        List<CollectorDefinition> result = new ArrayList<>();
+        BufferedReader lines = new BufferedReader(reader);
+        DefinitionBuilder builder = null;
+        int lineNumber = 0;
+        String line;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            int comment = line.indexOf('#');
+            if (comment >= 0) {
+                line = line.substring(0, comment);
+            }
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] tokens = line.split("\\s+");
+            switch (tokens[0]) {
+                case "bean":
+                    if (builder != null) {
+                        result.add(builder.build(source));
+                    }
+                    if (tokens.length == 2) {
+                        builder = new DefinitionBuilder(tokens[1], null, lineNumber);
+                    } else if (tokens.length == 4 && "instanceof".equals(tokens[2])) {
+                        builder = new DefinitionBuilder(tokens[1], tokens[3], lineNumber);
+                    } else {
+                        throw invalid(source, lineNumber, "expected 'bean <pattern> [instanceof <class>]'");
+                    }
+                    break;
+                case "group":
+                    if (builder == null || tokens.length != 2 || builder.group != null) {
+                        throw invalid(source, lineNumber, "expected single 'group <name>' after 'bean'");
+                    }
+                    builder.group = tokens[1];
+                    break;
+                case "require":
+                    if (builder == null || tokens.length != 2) {
+                        throw invalid(source, lineNumber, "expected 'require <attribute>' after 'bean'");
+                    }
+                    builder.required.add(tokens[1]);
+                    break;
+                case "tier":
+                    if (builder == null || tokens.length != 2 || builder.tier != null) {
+                        throw invalid(source, lineNumber, "expected single 'tier <hot|warm|static>' after 'bean'");
+                    }
+                    builder.tier = parseTier(tokens[1], source, lineNumber);
+                    break;
+                case "adapt":
+                    if (builder == null || tokens.length < 2) {
+                        throw invalid(source, lineNumber, "expected 'adapt <metric name>...' after 'bean'");
+                    }
+                    builder.adaptive.addAll(Arrays.asList(tokens).subList(1, tokens.length));
+                    break;
+                case "metric":
+                    if (builder == null) {
+                        throw invalid(source, lineNumber, "'metric' before 'bean'");
+                    }
+                    builder.metrics.add(parseMetric(tokens, source, lineNumber));
+                    break;
+                default:
+                    throw invalid(source, lineNumber, "unknown directive '" + tokens[0] + "'");
+            }
+        }
+        if (builder != null) {
+            result.add(builder.build(source));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    private static CollectorDefinition.MetricDefinition parseMetric(String[] tokens, String source, int lineNumber) {
+        boolean condition = tokens.length >= 6 && "if".equals(tokens[4]);
+        int tierToken = condition ? 6 : 4;
+        if (tokens.length < 4 || tokens.length > tierToken + 1) {
+            throw invalid(source, lineNumber, "expected 'metric <attribute>[.<key>] <name> <long|double|counter> "
+                    + "[if <attribute>] [hot|warm|static]'");
+        }
+        CollectorDefinition.MetricType type;
+        if ("long".equals(tokens[3])) {
+            type = CollectorDefinition.MetricType.LONG;
+        } else if ("double".equals(tokens[3])) {
+            type = CollectorDefinition.MetricType.DOUBLE;
+        } else if ("counter".equals(tokens[3])) {
+            type = CollectorDefinition.MetricType.COUNTER;
+        } else {
+            throw invalid(source, lineNumber, "unknown metric type '" + tokens[3] + "'");
+        }
+        String attribute = tokens[1];
+        String compositeKey = null;
+        int dot = attribute.indexOf('.');
+        if (dot >= 0) {
+            compositeKey = attribute.substring(dot + 1);
+            attribute = attribute.substring(0, dot);
+        }
+        if (attribute.isEmpty() || (compositeKey != null && compositeKey.isEmpty())) {
+            throw invalid(source, lineNumber, "invalid attribute '" + tokens[1] + "'");
+        }
+        return new CollectorDefinition.MetricDefinition(attribute, compositeKey, tokens[2], type,
+                condition ? tokens[5] : null,
+                tokens.length > tierToken ? parseTier(tokens[tierToken], source, lineNumber) : null);
+    }
+
+    private static CollectionTier parseTier(String tier, String source, int lineNumber) {
+        switch (tier) {
+            case "hot":
+                return CollectionTier.HOT;
+            case "warm":
+                return CollectionTier.WARM;
+            case "static":
+                return CollectionTier.STATIC;
+            default:
+                throw invalid(source, lineNumber, "unknown tier '" + tier + "'");
+        }
+    }
+
+    private static IllegalArgumentException invalid(String source, int lineNumber, String message) {
+        return new IllegalArgumentException("Invalid collector definition at " + source + ":" + lineNumber + ": "
+                + message);
+    }
+
+    private static final class DefinitionBuilder {
+
+        private final String beanPattern;
+        private final String instanceOf;
+        private final int lineNumber;
+        private final List<String> required = new ArrayList<>();
+        private final List<CollectorDefinition.MetricDefinition> metrics = new ArrayList<>();
+        private final List<String> adaptive = new ArrayList<>();
+        private String group;
+        private CollectionTier tier;
+
+        private DefinitionBuilder(String beanPattern, String instanceOf, int lineNumber) {
+            this.beanPattern = beanPattern;
+            this.instanceOf = instanceOf;
+            this.lineNumber = lineNumber;
+        }
+
+        private CollectorDefinition build(String source) {
+            if (group == null) {
+                throw invalid(source, lineNumber, "missing 'group' for bean " + beanPattern);
+            }
+            if (metrics.isEmpty()) {
+                throw invalid(source, lineNumber, "no metrics for bean " + beanPattern);
+            }
+            for (String name : adaptive) {
+                if (metrics.stream().noneMatch(m -> m.getName().equals(name))) {
+                    throw invalid(source, lineNumber, "unknown adapt metric '" + name + "' for bean " + beanPattern);
+                }
+            }
+            return new CollectorDefinition(beanPattern, instanceOf, group, required, metrics, adaptive,
+                    tier != null ? tier : CollectionTier.HOT);
+        }
+
+    }
+
+}
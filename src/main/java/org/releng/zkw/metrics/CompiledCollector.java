@@ -0,0 +1,283 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.metrics;
+
+import org.releng.zkw.tools.AdaptiveInterval;
+import org.releng.zkw.tools.BeanRequest;
+import org.releng.zkw.tools.CollectionPlan;
+import org.releng.zkw.tools.CollectionTier;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+final class CompiledCollector {
+
+    private final CollectorDefinition definition;
+    private final CollectionPlan plan;
+    private final BeanRequest[] requests = new BeanRequest[CollectionTier.values().length];
+    private final AdaptiveInterval[] intervals = new AdaptiveInterval[CollectionTier.values().length];
+    private final boolean[] tiersFetched = new boolean[CollectionTier.values().length];
+    private final double[] tierChanges = new double[CollectionTier.values().length];
+    private final BeanRequest request;
+    private final String[] requiredAttributes;
+    private final String[] attributes;
+    private final String[] compositeKeys;
+    private final String[] conditions;
+    private final String[] names;
+    private final CollectorDefinition.MetricType[] types;
+    private final boolean[] adaptive;
+    private final int[] tiers;
+    private final List<BeanExtraction> extractions = new ArrayList<>();
+    private Map<ObjectName, BeanExtraction> extractionsByName = new HashMap<>();
+    private long generation = -1;
+    private String prefix;
+    private MetricsCollection metrics;
+
+    CompiledCollector(CollectionPlan plan, CollectorDefinition definition) {
+        this.definition = definition;
+        this.plan = plan;
+        BeanRequest firstRequest = null;
+        for (CollectionTier tier : CollectionTier.values()) {
+            String[] tierAttributes = definition.getRequestedAttributes(tier);
+            if (tierAttributes.length == 0) {
+                continue;
+            }
+            BeanRequest tierRequest = plan.request(definition.getBeanPattern(), definition.getQuery(), tier,
+                    tierAttributes);
+            if (tier != CollectionTier.STATIC) {
+                intervals[tier.ordinal()] = new AdaptiveInterval(tier == CollectionTier.WARM
+                        ? plan.getPollIntervals().getWarmIntervals() : plan.getPollIntervals());
+                tierRequest.setInterval(intervals[tier.ordinal()]);
+            }
+            requests[tier.ordinal()] = tierRequest;
+            firstRequest = firstRequest == null ? tierRequest : firstRequest;
+        }
+        this.request = firstRequest;
+        List<String> required = new ArrayList<>(definition.getGroupAttributes());
+        required.addAll(definition.getRequiredAttributes());
+        this.requiredAttributes = required.toArray(new String[required.size()]);
+        List<CollectorDefinition.MetricDefinition> metricDefinitions = definition.getMetrics();
+        int count = metricDefinitions.size();
+        this.attributes = new String[count];
+        this.compositeKeys = new String[count];
+        this.conditions = new String[count];
+        this.names = new String[count];
+        this.types = new CollectorDefinition.MetricType[count];
+        this.adaptive = new boolean[count];
+        this.tiers = new int[count];
+        for (int i = 0; i < count; i++) {
+            CollectorDefinition.MetricDefinition metric = metricDefinitions.get(i);
+            attributes[i] = metric.getAttribute();
+            compositeKeys[i] = metric.getCompositeKey();
+            conditions[i] = metric.getCondition();
+            names[i] = metric.getName();
+            types[i] = metric.getType();
+            adaptive[i] = definition.isAdaptive(metric);
+            tiers[i] = definition.getTier(metric).ordinal();
+        }
+    }
+
+    String getName() {
+        String group = definition.getGroup();
+        int placeholder = group.indexOf('{');
+        String name = placeholder < 0 ? group : group.substring(0, placeholder);
+        name = name.endsWith(".") ? name.substring(0, name.length() - 1) : name;
+        return name.isEmpty() ? "root" : name;
+    }
+
+    boolean isDue() {
+        for (BeanRequest tierRequest : requests) {
+            if (tierRequest != null && tierRequest.isFetched()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    long getIntervalMillis() {
+        long result = Long.MAX_VALUE;
+        for (AdaptiveInterval interval : intervals) {
+            result = interval != null ? Math.min(result, interval.getMillis()) : result;
+        }
+        return result;
+    }
+
+    void collectMetrics(String prefix, MetricsCollection metrics) {
+        if (metrics != this.metrics) {
+            extractionsByName.clear();
+        } else if (request.getGeneration() == generation && prefix.equals(this.prefix)) {
+            extract();
+            return;
+        }
+        Map<ObjectName, BeanExtraction> discovered = new HashMap<>();
+        for (Map.Entry<ObjectName, Map<String, Object>> bean : request.getBeans().entrySet()) {
+            BeanExtraction extraction = prefix.equals(this.prefix) ? extractionsByName.remove(bean.getKey()) : null;
+            if (extraction == null) {
+                extraction = new BeanExtraction(bean.getValue());
+            }
+            discovered.put(bean.getKey(), extraction);
+        }
+        removeVanishedGauges(prefix, discovered);
+        extractions.clear();
+        extractions.addAll(discovered.values());
+        extractionsByName = discovered;
+        this.generation = request.getGeneration();
+        this.prefix = prefix;
+        this.metrics = metrics;
+        extract();
+    }
+
+    private void extract() {
+        long now = System.nanoTime();
+        for (int t = 0; t < requests.length; t++) {
+            tiersFetched[t] = requests[t] != null && requests[t].isFetched();
+            tierChanges[t] = extractions.isEmpty() ? 0 : -1;
+        }
+        for (int i = 0; i < extractions.size(); i++) {
+            extractions.get(i).extract(now);
+        }
+        for (int t = 0; t < intervals.length; t++) {
+            if (intervals[t] != null && tiersFetched[t]) {
+                intervals[t].update(now, tierChanges[t], plan.isOverBudget());
+            }
+        }
+    }
+
+    private void removeVanishedGauges(String prefix, Map<ObjectName, BeanExtraction> discovered) {
+        if (extractionsByName.isEmpty()) {
+            return;
+        }
+        Set<String> liveGroups = new HashSet<>();
+        for (BeanExtraction extraction : discovered.values()) {
+            String group = definition.resolveGroup(extraction.bean);
+            if (group != null) {
+                liveGroups.add(prefix + "." + group + ".");
+            }
+        }
+        for (BeanExtraction vanished : extractionsByName.values()) {
+            if (vanished.groupPrefix != null && !liveGroups.contains(vanished.groupPrefix)) {
+                metrics.removeGauges(vanished.groupPrefix);
+            }
+        }
+        extractionsByName.clear();
+    }
+
+    private final class BeanExtraction {
+
+        private final Map<String, Object> bean;
+        private final NumericGauge[] numericGauges = new NumericGauge[names.length];
+        private final FloatingGauge[] floatingGauges = new FloatingGauge[names.length];
+        private final CounterGauge[] counterGauges = new CounterGauge[names.length];
+        private final double[] samples = new double[names.length];
+        private final long[] sampledNanos = new long[names.length];
+        private final double[] rates = new double[names.length];
+        private final boolean[] sampled = new boolean[names.length];
+        private final boolean[] rated = new boolean[names.length];
+        private MetricGroup group;
+        private String groupPrefix;
+
+        private BeanExtraction(Map<String, Object> bean) {
+            this.bean = bean;
+        }
+
+        private void extract(long now) {
+            for (String required : requiredAttributes) {
+                Object value = bean.get(required);
+                if (value == null || Boolean.FALSE.equals(value)) {
+                    return;
+                }
+            }
+            if (group == null) {
+                String name = definition.resolveGroup(bean);
+                if (name == null) {
+                    return;
+                }
+                groupPrefix = prefix + "." + name + ".";
+                group = metrics.metricGroup(groupPrefix);
+            }
+            for (int i = 0; i < attributes.length; i++) {
+                if (!tiersFetched[tiers[i]]) {
+                    continue;
+                }
+                if (conditions[i] != null && !Boolean.TRUE.equals(bean.get(conditions[i]))) {
+                    continue;
+                }
+                Object value = bean.get(attributes[i]);
+                if (compositeKeys[i] != null) {
+                    if (!(value instanceof CompositeData) || !((CompositeData) value).containsKey(compositeKeys[i])) {
+                        continue;
+                    }
+                    value = ((CompositeData) value).get(compositeKeys[i]);
+                }
+                if (!(value instanceof Number)) {
+                    continue;
+                }
+                if (adaptive[i]) {
+                    double change = sample(i, ((Number) value).doubleValue(), now);
+                    tierChanges[tiers[i]] = Math.max(tierChanges[tiers[i]], change);
+                }
+                switch (types[i]) {
+                    case DOUBLE:
+                        if (floatingGauges[i] == null) {
+                            floatingGauges[i] = group.floatingGauge(names[i]);
+                        }
+                        floatingGauges[i].setValue(((Number) value).doubleValue());
+                        break;
+                    case COUNTER:
+                        if (counterGauges[i] == null) {
+                            counterGauges[i] = group.counterGauge(names[i]);
+                        }
+                        counterGauges[i].setValue(((Number) value).longValue());
+                        break;
+                    default:
+                        if (numericGauges[i] == null) {
+                            numericGauges[i] = group.numericGauge(names[i]);
+                        }
+                        numericGauges[i].setValue(((Number) value).longValue());
+                        break;
+                }
+            }
+        }
+
+        private double sample(int i, double value, long now) {
+            double change = -1;
+            if (types[i] != CollectorDefinition.MetricType.COUNTER) {
+                if (sampled[i]) {
+                    change = AdaptiveInterval.relativeChange(samples[i], value);
+                }
+            } else if (sampled[i] && now > sampledNanos[i]) {
+                double rate = (value - samples[i]) * 1000000000.0 / (now - sampledNanos[i]);
+                if (rated[i]) {
+                    change = AdaptiveInterval.relativeChange(rates[i], rate);
+                }
+                rates[i] = rate;
+                rated[i] = true;
+            }
+            samples[i] = value;
+            sampledNanos[i] = now;
+            sampled[i] = true;
+            return change;
+        }
+
+    }
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.metrics;
+
+public final class CounterGauge {
+
+    private final MetricsCollection metrics;
+    private final String name;
+    private final NumericGauge value;
+    private final CounterRates rates;
+    private final int slot;
+    private NumericGauge delta;
+    private FloatingGauge rate;
+
+    CounterGauge(MetricsCollection metrics, String name, NumericGauge value, CounterRates rates, int slot) {
+        this.metrics = metrics;
+        this.name = name;
+        this.value = value;
+        this.rates = rates;
+        this.slot = slot;
+    }
+
+    int getSlot() {
+        return slot;
+    }
+
+    public void setValue(long value) {
+        this.value.setValue(value);
+        rates.sample(slot, value, this);
+    }
+
+    void setDerived(long delta, double rate) {
+        if (this.delta == null) {
+            this.delta = metrics.numericGauge(name + ".delta");
+            this.rate = metrics.floatingGauge(name + ".rate");
+        }
+        this.delta.setValue(delta);
+        this.rate.setValue(rate);
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.metrics;
+
+import java.util.Arrays;
+
+final class CounterRates {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] previousValues = new long[INITIAL_CAPACITY];
+    private long[] previousNanos = new long[INITIAL_CAPACITY];
+    private boolean[] sampled = new boolean[INITIAL_CAPACITY];
+    private int size = 0;
+    private int[] freeSlots = new int[INITIAL_CAPACITY];
+    private int freeCount = 0;
+    private long sampleNanos = System.nanoTime();
+
+    int size() {
+        return size;
+    }
+
+    synchronized int allocate() {
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        int slot = size;
+        if (slot >= previousValues.length) {
+            previousValues = Arrays.copyOf(previousValues, previousValues.length * 2);
+            previousNanos = Arrays.copyOf(previousNanos, previousNanos.length * 2);
+            sampled = Arrays.copyOf(sampled, sampled.length * 2);
+        }
+        size = slot + 1;
+        return slot;
+    }
+
+    synchronized void release(int slot) {
+        sampled[slot] = false;
+        if (freeCount >= freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    void beginSample(long nanos) {
+        sampleNanos = nanos;
+    }
+
+    void sample(int slot, long value, CounterGauge counter) {
+        long now = sampleNanos;
+        if (sampled[slot]) {
+            long elapsed = now - previousNanos[slot];
+            if (elapsed <= 0) {
+                return;
+            }
+            long previous = previousValues[slot];
+            long delta = value >= previous ? value - previous : value;
+            counter.setDerived(delta, delta * 1000000000.0 / elapsed);
+        }
+        previousValues[slot] = value;
+        previousNanos[slot] = now;
+        sampled[slot] = true;
+    }
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.metrics;
+
+import com.codahale.metrics.Histogram;
+import org.releng.zkw.tools.CollectionPlan;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class DefinitionsCollector {
+
+    private final List<CompiledCollector> collectors = new ArrayList<>();
+    private Histogram[] timers = new Histogram[0];
+    private NumericGauge[] intervals = new NumericGauge[0];
+    private String timersPrefix;
+
+    public DefinitionsCollector(CollectionPlan plan, List<CollectorDefinition> definitions) {
+        definitions.forEach(d -> collectors.add(new CompiledCollector(plan, d)));
+    }
+
+    public void collectMetrics(String prefix, MetricsCollection metrics) {
+        if (!prefix.equals(timersPrefix)) {
+            timers = new Histogram[collectors.size()];
+            intervals = new NumericGauge[collectors.size()];
+            for (int i = 0; i < collectors.size(); i++) {
+                String namePrefix = prefix + ".zkw.definitions." + collectors.get(i).getName();
+                timers[i] = metrics.histogram(namePrefix + ".micros");
+                intervals[i] = metrics.numericGauge(namePrefix + ".intervalMillis");
+            }
+            timersPrefix = prefix;
+        }
+        for (int i = 0; i < collectors.size(); i++) {
+            if (!collectors.get(i).isDue()) {
+                continue;
+            }
+            long started = System.nanoTime();
+            collectors.get(i).collectMetrics(prefix, metrics);
+            timers[i].update((System.nanoTime() - started) / 1000);
+            intervals[i].setValue(collectors.get(i).getIntervalMillis());
+        }
+    }
+
+    public long getIntervalMillis(long maxMillis) {
+        long result = maxMillis;
+        for (int i = 0; i < collectors.size(); i++) {
+            result = Math.min(result, collectors.get(i).getIntervalMillis());
+        }
+        return result;
+    }
+
+}
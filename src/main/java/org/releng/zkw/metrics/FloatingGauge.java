@@ -19,15 +19,33 @@ import com.codahale.metrics.Gauge;
 
 public class FloatingGauge implements Gauge<Double> {
 
-    private double value;
+    private final GaugeStore store;
+    private final int slot;
+
+    FloatingGauge(GaugeStore store, int slot) {
+        this.store = store;
+        this.slot = slot;
+    }
+
+    boolean isStoredIn(GaugeStore gaugeStore) {
+        return store == gaugeStore;
+    }
+
+    int getSlot() {
+        return slot;
+    }
 
     public void setValue(double value) {
-        this.value = value;
+        store.setDouble(slot, value);
+    }
+
+    public double get() {
+        return store.getDouble(slot);
     }
 
     @Override
     public Double getValue() {
-        return value;
+        return get();
     }
 
 }
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public final class GaugeStore {
+
+    private static final int CHUNK_SHIFT = 8;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int MAX_SNAPSHOT_ATTEMPTS = 16;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private volatile AtomicLongArray[] chunks = new AtomicLongArray[0];
+    private volatile String[] names = new String[CHUNK_SIZE];
+    private volatile boolean[] floating = new boolean[CHUNK_SIZE];
+    private volatile int size = 0;
+    private int[] freeSlots = new int[CHUNK_SIZE];
+    private int freeCount = 0;
+
+    GaugeStore() {
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void beginUpdate() {
+        sequence.incrementAndGet();
+    }
+
+    public void endUpdate() {
+        sequence.incrementAndGet();
+    }
+
+    public long[] visit(GaugeVisitor visitor, long[] buffer) {
+        int count = size;
+        String[] currentNames = names;
+        boolean[] currentFloating = floating;
+        long[] values = buffer.length >= count ? buffer : new long[Math.max(count, buffer.length * 2)];
+        copyConsistent(values, count);
+        for (int i = 0; i < count; i++) {
+            if (currentNames[i] == null) {
+                continue;
+            }
+            if (currentFloating[i]) {
+                visitor.floating(currentNames[i], Double.longBitsToDouble(values[i]));
+            } else {
+                visitor.numeric(currentNames[i], values[i]);
+            }
+        }
+        return values;
+    }
+
+    synchronized int allocate(String name, boolean floatingSlot) {
+        if (freeCount > 0) {
+            int slot = freeSlots[--freeCount];
+            setLong(slot, 0);
+            floating[slot] = floatingSlot;
+            names[slot] = name;
+            return slot;
+        }
+        int slot = size;
+        if (slot >= names.length) {
+            names = Arrays.copyOf(names, names.length * 2);
+            floating = Arrays.copyOf(floating, floating.length * 2);
+        }
+        if ((slot >> CHUNK_SHIFT) >= chunks.length) {
+            AtomicLongArray[] grown = Arrays.copyOf(chunks, chunks.length + 1);
+            grown[chunks.length] = new AtomicLongArray(CHUNK_SIZE);
+            chunks = grown;
+        }
+        names[slot] = name;
+        floating[slot] = floatingSlot;
+        size = slot + 1;
+        return slot;
+    }
+
+    synchronized void release(int slot) {
+        if (names[slot] == null) {
+            return;
+        }
+        names[slot] = null;
+        if (freeCount >= freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    void setLong(int slot, long value) {
+        chunks[slot >> CHUNK_SHIFT].lazySet(slot & CHUNK_MASK, value);
+    }
+
+    void setDouble(int slot, double value) {
+        setLong(slot, Double.doubleToRawLongBits(value));
+    }
+
+    long getLong(int slot) {
+        return chunks[slot >> CHUNK_SHIFT].get(slot & CHUNK_MASK);
+    }
+
+    double getDouble(int slot) {
+        return Double.longBitsToDouble(getLong(slot));
+    }
+
+    private void copyConsistent(long[] values, int count) {
+        AtomicLongArray[] currentChunks = chunks;
+        for (int attempt = 0; attempt < MAX_SNAPSHOT_ATTEMPTS; attempt++) {
+            long startSequence = sequence.get();
+            for (int i = 0; i < count; i++) {
+                values[i] = currentChunks[i >> CHUNK_SHIFT].get(i & CHUNK_MASK);
+            }
+            if ((startSequence & 1) == 0 && sequence.get() == startSequence) {
+                return;
+            }
+            Thread.yield();
+        }
+    }
+
+    public interface GaugeVisitor {
+
+        void numeric(String name, long value);
+
+        void floating(String name, double value);
+
+    }
+
+}
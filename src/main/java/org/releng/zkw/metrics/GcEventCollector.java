@@ -0,0 +1,221 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.metrics;
+
+import com.codahale.metrics.Histogram;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+import org.releng.zkw.tools.CollectionPlan;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServerConnection;
+import javax.management.MalformedObjectNameException;
+import javax.management.Notification;
+import javax.management.NotificationFilterSupport;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.MemoryUsage;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class GcEventCollector {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GcEventCollector.class);
+
+    private static final int QUEUE_CAPACITY = Integer.getInteger("zkw.gc.queueCapacity", 1024);
+    private static final int MAX_CAUSES = 32;
+    private static final ObjectName GARBAGE_COLLECTORS = garbageCollectorsPattern();
+
+    private final CollectionPlan plan;
+    // Filled by the JMX notification thread and drained by the poll thread, the counter keeps the queue bounded
+    private final Queue<CompositeData> events = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queuedEvents = new AtomicInteger();
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final Map<String, CollectorEvents> collectorEvents = new HashMap<>();
+    private final Map<String, Long> causes = new HashMap<>();
+    private MBeanServerConnection subscribedConnection;
+    private int subscriptions = 0;
+    private long invalidEvents = 0;
+    private String prefix;
+    private MetricsCollection metrics;
+    private MetricGroup group;
+
+    public GcEventCollector(CollectionPlan plan) {
+        this.plan = plan;
+    }
+
+    public void collectMetrics(String prefix, MetricsCollection metrics) {
+        if (!prefix.equals(this.prefix) || metrics != this.metrics) {
+            this.prefix = prefix;
+            this.metrics = metrics;
+            group = metrics.metricGroup(prefix + ".gcEvents.");
+            collectorEvents.clear();
+        }
+        subscribe();
+        long maxPauseMillis = 0;
+        collectorEvents.values().forEach(c -> c.maxPauseMillis = 0);
+        CompositeData event;
+        while ((event = events.poll()) != null) {
+            queuedEvents.decrementAndGet();
+            maxPauseMillis = Math.max(maxPauseMillis, record(event));
+        }
+        for (CollectorEvents collector : collectorEvents.values()) {
+            collector.maxPause.setValue(collector.maxPauseMillis);
+            collector.count.setValue(collector.events);
+        }
+        for (Map.Entry<String, Long> cause : causes.entrySet()) {
+            group.counterGauge("causes." + cause.getKey()).setValue(cause.getValue());
+        }
+        group.numericGauge("maxPauseMillis").setValue(maxPauseMillis);
+        group.numericGauge("subscriptions").setValue(subscriptions);
+        group.counterGauge("dropped").setValue(droppedEvents.get());
+        group.counterGauge("invalid").setValue(invalidEvents);
+    }
+
+    private void subscribe() {
+        MBeanServerConnection connection = plan.getConnection();
+        if (connection == subscribedConnection) {
+            return;
+        }
+        NotificationFilterSupport filter = new NotificationFilterSupport();
+        filter.enableType(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION);
+        int subscribed = 0;
+        for (ObjectName name : plan.scanNames(GARBAGE_COLLECTORS)) {
+            if (plan.addNotificationListener(name, this::onNotification, filter)) {
+                subscribed++;
+            }
+        }
+        subscribedConnection = connection;
+        subscriptions = subscribed;
+        LOGGER.debug("Subscribed to GC notifications of [{}] garbage collectors", subscribed);
+    }
+
+    private void onNotification(Notification notification, Object handback) {
+        if (!(notification.getUserData() instanceof CompositeData)) {
+            return;
+        }
+        if (queuedEvents.incrementAndGet() > QUEUE_CAPACITY) {
+            queuedEvents.decrementAndGet();
+            droppedEvents.incrementAndGet();
+            return;
+        }
+        events.offer((CompositeData) notification.getUserData());
+    }
+
+    private long record(CompositeData event) {
+        GarbageCollectionNotificationInfo info;
+        try {
+            info = GarbageCollectionNotificationInfo.from(event);
+        } catch (IllegalArgumentException e) {
+            invalidEvents++;
+            return 0;
+        }
+        GcInfo gcInfo = info.getGcInfo();
+        CollectorEvents collector = collectorEvents.computeIfAbsent(sanitize(info.getGcName()), CollectorEvents::new);
+        long pauseMillis = 0;
+        // Concurrent collectors report the duration of a whole mostly-concurrent cycle, which is not a pause
+        if (isConcurrentCycle(info)) {
+            collector.cycles().update(gcInfo.getDuration());
+        } else {
+            pauseMillis = gcInfo.getDuration();
+            collector.pauses().update(pauseMillis);
+            collector.maxPauseMillis = Math.max(collector.maxPauseMillis, pauseMillis);
+        }
+        collector.events++;
+        long reclaimedBytes = 0;
+        Map<String, MemoryUsage> usageAfterGc = gcInfo.getMemoryUsageAfterGc();
+        for (Map.Entry<String, MemoryUsage> before : gcInfo.getMemoryUsageBeforeGc().entrySet()) {
+            MemoryUsage after = usageAfterGc.get(before.getKey());
+            if (after == null) {
+                continue;
+            }
+            reclaimedBytes += before.getValue().getUsed() - after.getUsed();
+            String pool = "pools." + sanitize(before.getKey());
+            group.numericGauge(pool + ".usedBeforeGc").setValue(before.getValue().getUsed());
+            group.numericGauge(pool + ".usedAfterGc").setValue(after.getUsed());
+        }
+        collector.reclaimed.update(Math.max(0, reclaimedBytes));
+        String cause = sanitize(info.getGcCause());
+        if (!causes.containsKey(cause) && causes.size() >= MAX_CAUSES) {
+            cause = "other";
+        }
+        causes.merge(cause, 1L, Long::sum);
+        return pauseMillis;
+    }
+
+    private static boolean isConcurrentCycle(GarbageCollectionNotificationInfo info) {
+        String cause = info.getGcCause() == null ? "" : info.getGcCause();
+        if ("ConcurrentMarkSweep".equals(info.getGcName())) {
+            // Background CMS cycles have no GC cause, foreground collections such as System.gc() stop the world
+            return "No GC".equals(cause) || cause.startsWith("CMS ");
+        }
+        // ZGC and Shenandoah report cycles and pauses separately, ending cycles with "end of GC cycle"
+        return info.getGcAction() != null && info.getGcAction().contains("cycle");
+    }
+
+    private static String sanitize(String name) {
+        String result = name == null ? "" : name.replaceAll("[^A-Za-z0-9_-]", "");
+        return result.isEmpty() ? "unknown" : result;
+    }
+
+    private static ObjectName garbageCollectorsPattern() {
+        try {
+            return new ObjectName("java.lang:type=GarbageCollector,name=*");
+        } catch (MalformedObjectNameException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private final class CollectorEvents {
+
+        private final String namePrefix;
+        private final Histogram reclaimed;
+        private Histogram pauses;
+        private Histogram cycles;
+        private final NumericGauge maxPause;
+        private final CounterGauge count;
+        private long maxPauseMillis = 0;
+        private long events = 0;
+
+        private CollectorEvents(String collector) {
+            this.namePrefix = prefix + ".gcEvents." + collector;
+            this.reclaimed = metrics.histogram(namePrefix + ".reclaimedBytes");
+            this.maxPause = group.numericGauge(collector + ".maxPauseMillis");
+            this.count = group.counterGauge(collector + ".count");
+        }
+
+        private Histogram pauses() {
+            if (pauses == null) {
+                pauses = metrics.histogram(namePrefix + ".pauseMillis");
+            }
+            return pauses;
+        }
+
+        private Histogram cycles() {
+            if (cycles == null) {
+                cycles = metrics.histogram(namePrefix + ".cycleMillis");
+            }
+            return cycles;
+        }
+
+    }
+
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public final class MetricGroup {
+
+    private final MetricsCollection metrics;
+    private final String namePrefix;
+    private final Map<String, NumericGauge> numericGauges = new HashMap<>();
+    private final Map<String, FloatingGauge> floatingGauges = new HashMap<>();
+    private final Map<String, CounterGauge> counterGauges = new HashMap<>();
+
+    MetricGroup(MetricsCollection metrics, String namePrefix) {
+        this.metrics = metrics;
+        this.namePrefix = namePrefix;
+    }
+
+    public NumericGauge numericGauge(String metric) {
+        NumericGauge gauge = numericGauges.get(metric);
+        if (gauge == null) {
+            gauge = metrics.numericGauge(namePrefix + metric);
+            numericGauges.put(metric, gauge);
+        }
+        return gauge;
+    }
+
+    public FloatingGauge floatingGauge(String metric) {
+        FloatingGauge gauge = floatingGauges.get(metric);
+        if (gauge == null) {
+            gauge = metrics.floatingGauge(namePrefix + metric);
+            floatingGauges.put(metric, gauge);
+        }
+        return gauge;
+    }
+
+    public CounterGauge counterGauge(String metric) {
+        CounterGauge gauge = counterGauges.get(metric);
+        if (gauge == null) {
+            gauge = metrics.counterGauge(namePrefix + metric);
+            counterGauges.put(metric, gauge);
+        }
+        return gauge;
+    }
+
+}
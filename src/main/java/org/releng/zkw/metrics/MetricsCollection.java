@@ -20,8 +20,9 @@ import com.codahale.metrics.Gauge;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.Timer;
-import org.releng.zkw.functional.Function1V;
 
+import java.util.Iterator;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -33,17 +34,34 @@ public final class MetricsCollection {
     private final ConcurrentMap<String, Timer> registeredTimers = new ConcurrentHashMap<>();
     private final ConcurrentMap<String, NumericGauge> registeredNumericGauges = new ConcurrentHashMap<>();
     private final ConcurrentMap<String, FloatingGauge> registeredFloatingGauges = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CounterGauge> registeredCounterGauges = new ConcurrentHashMap<>();
+    private final GaugeStore gaugeStore = new GaugeStore();
+    private final CounterRates counterRates = new CounterRates();
 
     private MetricsCollection() {
+        MetricsRegistryHolder.registerGaugeStore(gaugeStore);
     }
 
-    public static void withMetrics(Function1V<MetricsCollection> handler) {
-        MetricsCollection collection = new MetricsCollection();
-        try {
-            handler.apply(collection);
-        } finally {
-            collection.unregisterAllMetrics();
-        }
+    public static MetricsCollection create() {
+        return new MetricsCollection();
+    }
+
+    public void close() {
+        MetricsRegistryHolder.unregisterGaugeStore(gaugeStore);
+        unregisterAllMetrics();
+    }
+
+    public void beginUpdate() {
+        counterRates.beginSample(System.nanoTime());
+        gaugeStore.beginUpdate();
+    }
+
+    public void endUpdate() {
+        gaugeStore.endUpdate();
+    }
+
+    public MetricGroup metricGroup(String namePrefix) {
+        return new MetricGroup(this, namePrefix);
     }
 
     public Counter counter(String name) {
@@ -69,9 +87,11 @@ public final class MetricsCollection {
                 return (NumericGauge) gauge;
             }
             if (gauge == null) {
+                int slot = gaugeStore.allocate(k, false);
                 try {
-                    return MetricsRegistryHolder.getRegistry().register(k, new NumericGauge());
+                    return MetricsRegistryHolder.getRegistry().register(k, new NumericGauge(gaugeStore, slot));
                 } catch (IllegalArgumentException e) {
+                    gaugeStore.release(slot);
                     Gauge addedGauge = MetricsRegistryHolder.getRegistry().getGauges().get(k);
                     if (addedGauge instanceof NumericGauge) {
                         return (NumericGauge) addedGauge;
@@ -89,9 +109,11 @@ public final class MetricsCollection {
                 return (FloatingGauge) gauge;
             }
             if (gauge == null) {
+                int slot = gaugeStore.allocate(k, true);
                 try {
-                    return MetricsRegistryHolder.getRegistry().register(k, new FloatingGauge());
+                    return MetricsRegistryHolder.getRegistry().register(k, new FloatingGauge(gaugeStore, slot));
                 } catch (IllegalArgumentException e) {
+                    gaugeStore.release(slot);
                     Gauge addedGauge = MetricsRegistryHolder.getRegistry().getGauges().get(k);
                     if (addedGauge instanceof FloatingGauge) {
                         return (FloatingGauge) addedGauge;
@@ -102,6 +124,47 @@ public final class MetricsCollection {
         });
     }
 
+    public CounterGauge counterGauge(String name) {
+        return registeredCounterGauges.computeIfAbsent(name,
+                k -> new CounterGauge(this, k, numericGauge(k), counterRates, counterRates.allocate()));
+    }
+
+    public void removeGauges(String namePrefix) {
+        for (Iterator<Map.Entry<String, CounterGauge>> i = registeredCounterGauges.entrySet().iterator();
+                i.hasNext(); )
+        {
+            Map.Entry<String, CounterGauge> entry = i.next();
+            if (entry.getKey().startsWith(namePrefix)) {
+                i.remove();
+                counterRates.release(entry.getValue().getSlot());
+            }
+        }
+        for (Iterator<Map.Entry<String, NumericGauge>> i = registeredNumericGauges.entrySet().iterator();
+                i.hasNext(); )
+        {
+            Map.Entry<String, NumericGauge> entry = i.next();
+            if (entry.getKey().startsWith(namePrefix)) {
+                i.remove();
+                if (entry.getValue().isStoredIn(gaugeStore)) {
+                    MetricsRegistryHolder.getRegistry().remove(entry.getKey());
+                    gaugeStore.release(entry.getValue().getSlot());
+                }
+            }
+        }
+        for (Iterator<Map.Entry<String, FloatingGauge>> i = registeredFloatingGauges.entrySet().iterator();
+                i.hasNext(); )
+        {
+            Map.Entry<String, FloatingGauge> entry = i.next();
+            if (entry.getKey().startsWith(namePrefix)) {
+                i.remove();
+                if (entry.getValue().isStoredIn(gaugeStore)) {
+                    MetricsRegistryHolder.getRegistry().remove(entry.getKey());
+                    gaugeStore.release(entry.getValue().getSlot());
+                }
+            }
+        }
+    }
+
     private void unregisterAllMetrics() {
         registeredCounters.keySet().forEach(m -> MetricsRegistryHolder.getRegistry().remove(m));
         registeredHistograms.keySet().forEach(m -> MetricsRegistryHolder.getRegistry().remove(m));
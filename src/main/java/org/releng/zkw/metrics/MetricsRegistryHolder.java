@@ -17,12 +17,30 @@ package org.releng.zkw.metrics;
 
 import com.codahale.metrics.MetricRegistry;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
 public class MetricsRegistryHolder {
 
     private static final MetricRegistry metricRegistry = new MetricRegistry();
+    private static final Set<GaugeStore> gaugeStores = new CopyOnWriteArraySet<>();
 
     public static MetricRegistry getRegistry() {
         return metricRegistry;
     }
 
+    public static Collection<GaugeStore> getGaugeStores() {
+        return Collections.unmodifiableSet(gaugeStores);
+    }
+
+    static void registerGaugeStore(GaugeStore gaugeStore) {
+        gaugeStores.add(gaugeStore);
+    }
+
+    static void unregisterGaugeStore(GaugeStore gaugeStore) {
+        gaugeStores.remove(gaugeStore);
+    }
+
 }
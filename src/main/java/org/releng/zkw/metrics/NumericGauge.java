@@ -19,15 +19,33 @@ import com.codahale.metrics.Gauge;
 
 public class NumericGauge implements Gauge<Long> {
 
-    private long value;
+    private final GaugeStore store;
+    private final int slot;
+
+    NumericGauge(GaugeStore store, int slot) {
+        this.store = store;
+        this.slot = slot;
+    }
+
+    boolean isStoredIn(GaugeStore gaugeStore) {
+        return store == gaugeStore;
+    }
+
+    int getSlot() {
+        return slot;
+    }
 
     public void setValue(long value) {
-        this.value = value;
+        store.setLong(slot, value);
+    }
+
+    public long get() {
+        return store.getLong(slot);
     }
 
     @Override
     public Long getValue() {
-        return value;
+        return get();
     }
 
 }
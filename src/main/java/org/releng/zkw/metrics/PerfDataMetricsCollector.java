@@ -0,0 +1,144 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.metrics;
+
+import org.releng.zkw.perfdata.PerfDataFile;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+public class PerfDataMetricsCollector {
+
+    private static final String[][] FIXED_COUNTERS = {
+            {"sun.os.hrt.ticks", "runtime.uptimeMillis"},
+            {"java.threads.live", "threads.live"},
+            {"java.threads.daemon", "threads.daemon"},
+            {"java.threads.livePeak", "threads.peak"},
+            {"java.threads.started", "threads.started"},
+            {"java.cls.loadedClasses", "classLoading.loaded"},
+            {"java.cls.unloadedClasses", "classLoading.unloaded"},
+            {"java.cls.sharedLoadedClasses", "classLoading.sharedLoaded"},
+            {"java.cls.sharedUnloadedClasses", "classLoading.sharedUnloaded"},
+            {"sun.ci.totalCompiles", "compilation.compiles"},
+            {"sun.ci.totalBailouts", "compilation.bailouts"},
+            {"java.ci.totalTime", "compilation.timeMillis"},
+            {"sun.rt.safepoints", "safepoints.count"},
+            {"sun.rt.safepointTime", "safepoints.timeMillis"},
+            {"sun.rt.safepointSyncTime", "safepoints.syncTimeMillis"},
+            {"sun.gc.metaspace.used", "memoryPools.metaspace.used"},
+            {"sun.gc.metaspace.capacity", "memoryPools.metaspace.capacity"},
+            {"sun.gc.metaspace.maxCapacity", "memoryPools.metaspace.maxCapacity"},
+            {"sun.gc.compressedclassspace.used", "memoryPools.compressedClassSpace.used"},
+            {"sun.gc.compressedclassspace.capacity", "memoryPools.compressedClassSpace.capacity"},
+            {"sun.gc.compressedclassspace.maxCapacity", "memoryPools.compressedClassSpace.maxCapacity"},
+    };
+
+    private final PerfDataFile file;
+    private final double millisPerTick;
+    private int resolvedEntryCount = -1;
+    private String resolvedPrefix;
+    private PerfDataFile.LongCounter[] counters = new PerfDataFile.LongCounter[0];
+    private NumericGauge[] numericGauges = new NumericGauge[0];
+    private CounterGauge[] counterGauges = new CounterGauge[0];
+
+    public PerfDataMetricsCollector(PerfDataFile file) {
+        this.file = file;
+        long frequency = file.getLongCounter("sun.os.hrt.frequency").map(PerfDataFile.LongCounter::get).orElse(0L);
+        this.millisPerTick = frequency > 0 ? 1000.0 / frequency : 0.0;
+    }
+
+    public void collectMetrics(String prefix, MetricsCollection metrics) {
+        if (file.getEntryCount() != resolvedEntryCount || !prefix.equals(resolvedPrefix)) {
+            resolve(prefix, metrics);
+        }
+        for (int i = 0; i < counters.length; i++) {
+            PerfDataFile.LongCounter counter = counters[i];
+            long value = counter.isTicks() ? (long) (counter.get() * millisPerTick) : counter.get();
+            if (counterGauges[i] != null) {
+                counterGauges[i].setValue(value);
+            } else {
+                numericGauges[i].setValue(value);
+            }
+        }
+    }
+
+    private void resolve(String prefix, MetricsCollection metrics) {
+        resolvedEntryCount = file.getEntryCount();
+        resolvedPrefix = prefix;
+        List<String> counterNames = new ArrayList<>();
+        List<String> metricNames = new ArrayList<>();
+        for (String[] fixed : FIXED_COUNTERS) {
+            counterNames.add(fixed[0]);
+            metricNames.add(fixed[1]);
+        }
+        for (int c = 0; ; c++) {
+            Optional<String> name = file.getString("sun.gc.collector." + c + ".name");
+            if (!name.isPresent()) {
+                break;
+            }
+            String group = "gc." + sanitize(name.get()) + ".";
+            counterNames.add("sun.gc.collector." + c + ".invocations");
+            metricNames.add(group + "collectionCount");
+            counterNames.add("sun.gc.collector." + c + ".time");
+            metricNames.add(group + "collectionTimeMillis");
+        }
+        for (int g = 0; ; g++) {
+            Optional<PerfDataFile.LongCounter> spaces = file.getLongCounter("sun.gc.generation." + g + ".spaces");
+            if (!spaces.isPresent()) {
+                break;
+            }
+            for (int s = 0; s < spaces.get().get(); s++) {
+                String space = "sun.gc.generation." + g + ".space." + s + ".";
+                Optional<String> name = file.getString(space + "name");
+                if (!name.isPresent()) {
+                    continue;
+                }
+                String group = "memoryPools." + sanitize(name.get()) + ".";
+                for (String attribute : new String[]{"used", "capacity", "maxCapacity"}) {
+                    counterNames.add(space + attribute);
+                    metricNames.add(group + attribute);
+                }
+            }
+        }
+        MetricGroup group = metrics.metricGroup(prefix + ".perf.");
+        List<PerfDataFile.LongCounter> resolvedCounters = new ArrayList<>();
+        List<NumericGauge> resolvedNumericGauges = new ArrayList<>();
+        List<CounterGauge> resolvedCounterGauges = new ArrayList<>();
+        for (int i = 0; i < counterNames.size(); i++) {
+            Optional<PerfDataFile.LongCounter> counter = file.getLongCounter(counterNames.get(i));
+            if (!counter.isPresent()) {
+                continue;
+            }
+            resolvedCounters.add(counter.get());
+            if (counter.get().isMonotonic()) {
+                resolvedNumericGauges.add(null);
+                resolvedCounterGauges.add(group.counterGauge(metricNames.get(i)));
+            } else {
+                resolvedNumericGauges.add(group.numericGauge(metricNames.get(i)));
+                resolvedCounterGauges.add(null);
+            }
+        }
+        counters = resolvedCounters.toArray(new PerfDataFile.LongCounter[resolvedCounters.size()]);
+        numericGauges = resolvedNumericGauges.toArray(new NumericGauge[resolvedNumericGauges.size()]);
+        counterGauges = resolvedCounterGauges.toArray(new CounterGauge[resolvedCounterGauges.size()]);
+    }
+
+    private static String sanitize(String name) {
+        return name.replaceAll("\\s", "").replace('.', '_');
+    }
+
+}
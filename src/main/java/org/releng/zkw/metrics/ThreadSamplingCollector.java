@@ -0,0 +1,284 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.metrics;
+
+import org.releng.zkw.tools.AdaptiveInterval;
+import org.releng.zkw.tools.BeanRequest;
+import org.releng.zkw.tools.CollectionPlan;
+import org.releng.zkw.tools.CollectionTier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.Attribute;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+public class ThreadSamplingCollector {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ThreadSamplingCollector.class);
+
+    private static final int MAX_POOLS = Integer.getInteger("zkw.threads.maxPools", 50);
+    private static final boolean CONTENTION_MONITORING = Boolean.getBoolean("zkw.threads.contentionMonitoring");
+    private static final String[] THREAD_IDS_SIGNATURE = {long[].class.getName()};
+
+    private final CollectionPlan plan;
+    private final BeanRequest threadingBeans;
+    private final AdaptiveInterval interval;
+    private final Map<Long, ThreadSample> threads = new HashMap<>();
+    private final Map<String, Pool> pools = new HashMap<>();
+    private final Map<String, Pool> idlePools = new LinkedHashMap<>();
+    private boolean cpuTimeSupported = true;
+    private boolean contentionMonitoringRequested = false;
+    private double cpuMillisPerSecond = 0;
+    private long sampledNanos = 0;
+    private String prefix;
+    private MetricsCollection metrics;
+    private MetricGroup group;
+
+    public ThreadSamplingCollector(CollectionPlan plan) {
+        this.plan = plan;
+        threadingBeans = plan.request("java.lang:type=Threading", null, CollectionTier.WARM, "AllThreadIds",
+                "ThreadCpuTimeEnabled", "ThreadContentionMonitoringEnabled");
+        interval = new AdaptiveInterval(plan.getPollIntervals().getWarmIntervals());
+        threadingBeans.setInterval(interval);
+    }
+
+    public void collectMetrics(String prefix, MetricsCollection metrics) {
+        if (!prefix.equals(this.prefix) || metrics != this.metrics) {
+            this.prefix = prefix;
+            this.metrics = metrics;
+            group = metrics.metricGroup(prefix + ".threads.");
+            threads.clear();
+            pools.clear();
+            idlePools.clear();
+        }
+        if (!threadingBeans.isFetched() || threadingBeans.getBeans().isEmpty()) {
+            return;
+        }
+        Map.Entry<ObjectName, Map<String, Object>> threading = threadingBeans.getBeans().entrySet().iterator().next();
+        Object ids = threading.getValue().get("AllThreadIds");
+        if (!(ids instanceof long[]) || !plan.hasTimeLeft()) {
+            return;
+        }
+        enableContentionMonitoring(threading.getKey(), threading.getValue().get("ThreadContentionMonitoringEnabled"));
+        Object[] params = {ids};
+        Optional<Object> infos = plan.invoke(threading.getKey(), "getThreadInfo", params, THREAD_IDS_SIGNATURE);
+        if (!infos.isPresent() || !(infos.get() instanceof CompositeData[])) {
+            return;
+        }
+        long[] cpuTimes = null;
+        if (cpuTimeSupported && Boolean.TRUE.equals(threading.getValue().get("ThreadCpuTimeEnabled"))) {
+            Optional<Object> result = plan.invoke(threading.getKey(), "getThreadCpuTime", params,
+                    THREAD_IDS_SIGNATURE);
+            if (result.isPresent() && result.get() instanceof long[]) {
+                cpuTimes = (long[]) result.get();
+            } else {
+                cpuTimeSupported = false;
+                LOGGER.info("Bulk thread CPU time is not supported by [{}], sampling thread states only", prefix);
+            }
+        }
+        sample((CompositeData[]) infos.get(), cpuTimes);
+    }
+
+    private void enableContentionMonitoring(ObjectName threading, Object enabled) {
+        if (!CONTENTION_MONITORING || contentionMonitoringRequested || Boolean.TRUE.equals(enabled)) {
+            return;
+        }
+        contentionMonitoringRequested = true;
+        if (!plan.setAttribute(threading, new Attribute("ThreadContentionMonitoringEnabled", true))) {
+            LOGGER.info("Failed to enable thread contention monitoring for [{}]", prefix);
+        }
+    }
+
+    private void sample(CompositeData[] infos, long[] cpuTimes) {
+        long now = System.nanoTime();
+        Set<Long> seen = new HashSet<>();
+        pools.values().forEach(Pool::resetStates);
+        long cpuNanosDelta = 0;
+        int sampled = 0;
+        for (int i = 0; i < infos.length; i++) {
+            CompositeData info = infos[i];
+            if (info == null) {
+                continue;
+            }
+            long id = longValue(info.get("threadId"));
+            String name = (String) info.get("threadName");
+            ThreadSample thread = threads.get(id);
+            if (thread == null || !thread.name.equals(name)) {
+                thread = new ThreadSample(name, pool(name));
+                threads.put(id, thread);
+            }
+            seen.add(id);
+            sampled++;
+            Pool pool = thread.pool;
+            pool.threads++;
+            String state = String.valueOf(info.get("threadState"));
+            if ("RUNNABLE".equals(state)) {
+                pool.runnable++;
+            } else if ("BLOCKED".equals(state)) {
+                pool.blocked++;
+            }
+            long cpuTime = cpuTimes != null && i < cpuTimes.length ? cpuTimes[i] : -1;
+            cpuNanosDelta += thread.update(cpuTime, longValue(info.get("blockedCount")),
+                    longValue(info.get("blockedTime")), longValue(info.get("waitedCount")),
+                    longValue(info.get("waitedTime")));
+        }
+        threads.keySet().retainAll(seen);
+        for (Iterator<Map.Entry<String, Pool>> i = pools.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry<String, Pool> pool = i.next();
+            if (pool.getValue().threads == 0) {
+                metrics.removeGauges(prefix + ".threads.pools." + pool.getKey() + ".");
+                group = metrics.metricGroup(prefix + ".threads.");
+                idlePools.put(pool.getKey(), pool.getValue());
+                if (idlePools.size() > MAX_POOLS) {
+                    idlePools.remove(idlePools.keySet().iterator().next());
+                }
+                i.remove();
+            }
+        }
+        for (Map.Entry<String, Pool> pool : pools.entrySet()) {
+            pool.getValue().report(group, "pools." + pool.getKey() + ".", cpuTimes != null);
+        }
+        group.numericGauge("sampled").setValue(sampled);
+        group.numericGauge("pools").setValue(pools.size());
+        double change = -1;
+        if (cpuTimes != null && sampledNanos > 0 && now > sampledNanos) {
+            double current = TimeUnit.NANOSECONDS.toMillis(cpuNanosDelta) * 1000000000.0 / (now - sampledNanos);
+            change = AdaptiveInterval.relativeChange(cpuMillisPerSecond, current);
+            cpuMillisPerSecond = current;
+        }
+        sampledNanos = now;
+        interval.update(now, change, plan.isOverBudget());
+    }
+
+    private Pool pool(String threadName) {
+        String name = poolName(threadName);
+        Pool pool = pools.get(name);
+        // The "other" pool counts towards the limit, so one slot is kept free for it
+        if (pool == null && pools.size() >= MAX_POOLS - 1) {
+            name = "other";
+            pool = pools.get(name);
+        }
+        if (pool == null) {
+            // A pool that comes back continues its totals, so its counters do not show a reset
+            pool = idlePools.remove(name);
+            pool = pool == null ? new Pool() : pool;
+            pools.put(name, pool);
+        }
+        return pool;
+    }
+
+    static String poolName(String threadName) {
+        if (threadName == null) {
+            return "unnamed";
+        }
+        String name = threadName;
+        int end = name.length();
+        for (char c : new char[] {'(', '[', ':', '@', '/'}) {
+            int index = name.indexOf(c);
+            if (index >= 0) {
+                end = Math.min(end, index);
+            }
+        }
+        name = name.substring(0, end).replaceAll("[0-9]", "").replaceAll("[^A-Za-z]+", "_")
+                .replaceAll("^_+|_+$", "");
+        return name.isEmpty() ? "unnamed" : name;
+    }
+
+    private static long longValue(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+
+    private static final class ThreadSample {
+
+        private final String name;
+        private final Pool pool;
+        private long cpuTime = -1;
+        private long blockedCount = -1;
+        private long blockedTime = -1;
+        private long waitedCount = -1;
+        private long waitedTime = -1;
+
+        private ThreadSample(String name, Pool pool) {
+            this.name = name;
+            this.pool = pool;
+        }
+
+        private long update(long cpuTime, long blockedCount, long blockedTime, long waitedCount, long waitedTime) {
+            long cpuDelta = delta(this.cpuTime, cpuTime);
+            pool.cpuTime += cpuDelta;
+            pool.blockedCount += delta(this.blockedCount, blockedCount);
+            pool.blockedTime += delta(this.blockedTime, blockedTime);
+            pool.waitedCount += delta(this.waitedCount, waitedCount);
+            pool.waitedTime += delta(this.waitedTime, waitedTime);
+            this.cpuTime = cpuTime;
+            this.blockedCount = blockedCount;
+            this.blockedTime = blockedTime;
+            this.waitedCount = waitedCount;
+            this.waitedTime = waitedTime;
+            return cpuDelta;
+        }
+
+        // The first sample of a thread only sets its baseline, so pool totals stay monotonic as threads come and go
+        private static long delta(long previous, long current) {
+            return previous >= 0 && current > previous ? current - previous : 0;
+        }
+
+    }
+
+    private static final class Pool {
+
+        private int threads = 0;
+        private int runnable = 0;
+        private int blocked = 0;
+        private long cpuTime = 0;
+        private long blockedCount = 0;
+        private long blockedTime = 0;
+        private long waitedCount = 0;
+        private long waitedTime = 0;
+
+        private void resetStates() {
+            threads = 0;
+            runnable = 0;
+            blocked = 0;
+        }
+
+        private void report(MetricGroup group, String poolPrefix, boolean cpuTimeSampled) {
+            group.numericGauge(poolPrefix + "count").setValue(threads);
+            group.numericGauge(poolPrefix + "runnable").setValue(runnable);
+            group.numericGauge(poolPrefix + "blocked").setValue(blocked);
+            if (cpuTimeSampled) {
+                group.counterGauge(poolPrefix + "cpuTimeMillis").setValue(TimeUnit.NANOSECONDS.toMillis(cpuTime));
+            }
+            group.counterGauge(poolPrefix + "blockedCount").setValue(blockedCount);
+            group.counterGauge(poolPrefix + "waitedCount").setValue(waitedCount);
+            if (blockedTime > 0 || waitedTime > 0) {
+                group.counterGauge(poolPrefix + "blockedTimeMillis").setValue(blockedTime);
+                group.counterGauge(poolPrefix + "waitedTimeMillis").setValue(waitedTime);
+            }
+        }
+
+    }
+
+}
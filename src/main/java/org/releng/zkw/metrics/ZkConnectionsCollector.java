@@ -0,0 +1,270 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.metrics;
+
+import com.codahale.metrics.Histogram;
+import org.releng.zkw.tools.CollectionPlan;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+final class ZkConnectionsCollector {
+
+    private static final int TOP_CLIENTS = Integer.getInteger("zkw.connections.topClients", 10);
+    private static final int SCAN_BUDGET = Integer.getInteger("zkw.connections.scanBudget", 500);
+    private static final String[] ATTRIBUTES = {"SourceIP", "OutstandingRequests", "PacketsReceived", "PacketsSent",
+            "AvgLatency", "MaxLatency"};
+
+    private final CollectionPlan plan;
+    private final String category;
+    private final Map<ObjectName, Session> sessions = new HashMap<>();
+    private final Map<String, Object> values = new HashMap<>();
+    private final Set<String> reportedClients = new HashSet<>();
+    private ObjectName server;
+    private ObjectName pattern;
+    private List<ObjectName> pending = new ArrayList<>();
+    private int position = 0;
+    private long scan = 0;
+    private long scanNanos = 0;
+    private int scanRoundTrips = 0;
+    private int scanPolls = 0;
+    private String prefix;
+    private MetricsCollection metrics;
+    private MetricGroup group;
+    private Histogram outstandingRequestsHistogram;
+    private Histogram avgLatencyHistogram;
+    private Histogram maxLatencyHistogram;
+    private Histogram packetsPerSecondHistogram;
+
+    ZkConnectionsCollector(CollectionPlan plan, String category) {
+        this.plan = plan;
+        this.category = category;
+    }
+
+    void collectMetrics(ObjectName server, String prefix, MetricsCollection metrics) {
+        if (!prefix.equals(this.prefix) || metrics != this.metrics) {
+            this.server = null;
+            reset();
+            outstandingRequestsHistogram = null;
+            this.prefix = prefix;
+            this.metrics = metrics;
+        }
+        if (server == null || !server.equals(this.server)) {
+            reset();
+        }
+        if (server == null) {
+            return;
+        }
+        if (this.server == null) {
+            this.server = server;
+            this.pattern = connectionsPattern(server);
+            this.group = metrics.metricGroup(prefix + "." + category + ".");
+            if (outstandingRequestsHistogram == null) {
+                outstandingRequestsHistogram = metrics.histogram(prefix + "." + category + ".outstandingRequests");
+                avgLatencyHistogram = metrics.histogram(prefix + "." + category + ".latency.avg");
+                maxLatencyHistogram = metrics.histogram(prefix + "." + category + ".latency.max");
+                packetsPerSecondHistogram = metrics.histogram(prefix + "." + category + ".packetsPerSecond");
+            }
+        }
+        if (!plan.hasTimeLeft()) {
+            return;
+        }
+        long started = System.nanoTime();
+        int roundTrips = plan.getRoundTrips();
+        if (position >= pending.size()) {
+            pending = new ArrayList<>(plan.scanNames(pattern));
+            position = 0;
+            scan++;
+        }
+        int end = Math.min(pending.size(), position + SCAN_BUDGET);
+        for (; position < end && plan.hasTimeLeft(); position++) {
+            scanSession(pending.get(position));
+        }
+        scanPolls++;
+        scanNanos += System.nanoTime() - started;
+        scanRoundTrips += plan.getRoundTrips() - roundTrips;
+        if (position >= pending.size()) {
+            finishScan();
+        }
+    }
+
+    private void reset() {
+        if (server == null && sessions.isEmpty()) {
+            return;
+        }
+        if (server != null) {
+            metrics.removeGauges(prefix + "." + category + ".");
+        }
+        sessions.clear();
+        reportedClients.clear();
+        pending.clear();
+        position = 0;
+        server = null;
+        pattern = null;
+        group = null;
+        scanNanos = 0;
+        scanRoundTrips = 0;
+        scanPolls = 0;
+    }
+
+    private void scanSession(ObjectName name) {
+        if (!plan.scanAttributes(name, ATTRIBUTES, values)) {
+            return;
+        }
+        Session session = sessions.get(name);
+        if (session == null) {
+            session = new Session();
+            sessions.put(name, session);
+        }
+        long now = System.nanoTime();
+        long packets = longValue(values.get("PacketsReceived")) + longValue(values.get("PacketsSent"));
+        if (session.scan > 0 && packets >= session.packets && now > session.sampledNanos) {
+            session.packetsPerSecond = (packets - session.packets) * 1000000000.0 / (now - session.sampledNanos);
+        } else {
+            session.packetsPerSecond = 0;
+        }
+        session.packets = packets;
+        session.sampledNanos = now;
+        session.scan = scan;
+        session.client = clientKey(values.get("SourceIP"));
+        session.outstandingRequests = longValue(values.get("OutstandingRequests"));
+        session.avgLatency = longValue(values.get("AvgLatency"));
+        session.maxLatency = longValue(values.get("MaxLatency"));
+    }
+
+    private void finishScan() {
+        Map<String, Client> clients = new HashMap<>();
+        long outstandingRequests = 0;
+        for (Iterator<Session> i = sessions.values().iterator(); i.hasNext(); ) {
+            Session session = i.next();
+            if (session.scan != scan) {
+                i.remove();
+                continue;
+            }
+            outstandingRequests += session.outstandingRequests;
+            outstandingRequestsHistogram.update(session.outstandingRequests);
+            avgLatencyHistogram.update(session.avgLatency);
+            maxLatencyHistogram.update(session.maxLatency);
+            packetsPerSecondHistogram.update(Math.round(session.packetsPerSecond));
+            Client client = clients.get(session.client);
+            if (client == null) {
+                client = new Client(session.client);
+                clients.put(session.client, client);
+            }
+            client.add(session);
+        }
+        List<Client> top = new ArrayList<>(clients.values());
+        top.sort((a, b) -> a.packetsPerSecond != b.packetsPerSecond
+                ? Double.compare(b.packetsPerSecond, a.packetsPerSecond)
+                : Long.compare(b.outstandingRequests, a.outstandingRequests));
+        Set<String> topClients = new HashSet<>();
+        for (int i = 0; i < Math.min(TOP_CLIENTS, top.size()); i++) {
+            Client client = top.get(i);
+            topClients.add(client.key);
+            String clientPrefix = "top." + client.key + ".";
+            group.numericGauge(clientPrefix + "connections").setValue(client.connections);
+            group.numericGauge(clientPrefix + "outstandingRequests").setValue(client.outstandingRequests);
+            group.floatingGauge(clientPrefix + "packetsPerSecond").setValue(client.packetsPerSecond);
+            group.numericGauge(clientPrefix + "maxLatency").setValue(client.maxLatency);
+        }
+        for (String client : reportedClients) {
+            if (!topClients.contains(client)) {
+                metrics.removeGauges(prefix + "." + category + ".top." + client + ".");
+                group = metrics.metricGroup(prefix + "." + category + ".");
+            }
+        }
+        reportedClients.clear();
+        reportedClients.addAll(topClients);
+        group.numericGauge("count").setValue(sessions.size());
+        group.numericGauge("clients").setValue(clients.size());
+        group.numericGauge("totalOutstandingRequests").setValue(outstandingRequests);
+        group.floatingGauge("scanMillis").setValue(scanNanos / 1000000.0);
+        group.numericGauge("scanRoundTrips").setValue(scanRoundTrips);
+        group.numericGauge("scanPolls").setValue(scanPolls);
+        scanNanos = 0;
+        scanRoundTrips = 0;
+        scanPolls = 0;
+    }
+
+    private static ObjectName connectionsPattern(ObjectName server) {
+        int depth = server.getKeyPropertyList().size();
+        try {
+            return new ObjectName(server.getCanonicalName() + ",name" + depth + "=Connections,name" + (depth + 1)
+                    + "=*,name" + (depth + 2) + "=*");
+        } catch (MalformedObjectNameException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String clientKey(Object sourceIp) {
+        if (!(sourceIp instanceof String)) {
+            return "unknown";
+        }
+        String address = (String) sourceIp;
+        int port = address.lastIndexOf(':');
+        if (port > 0) {
+            address = address.substring(0, port);
+        }
+        address = address.replaceAll("[\\s\\[\\]/]", "").replace(".", "_").replace(":", "_");
+        return address.isEmpty() ? "unknown" : address;
+    }
+
+    private static long longValue(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+
+    private static final class Session {
+
+        private long scan;
+        private long packets;
+        private long sampledNanos;
+        private double packetsPerSecond;
+        private String client;
+        private long outstandingRequests;
+        private long avgLatency;
+        private long maxLatency;
+
+    }
+
+    private static final class Client {
+
+        private final String key;
+        private int connections = 0;
+        private long outstandingRequests = 0;
+        private double packetsPerSecond = 0;
+        private long maxLatency = 0;
+
+        private Client(String key) {
+            this.key = key;
+        }
+
+        private void add(Session session) {
+            connections++;
+            outstandingRequests += session.outstandingRequests;
+            packetsPerSecond += session.packetsPerSecond;
+            maxLatency = Math.max(maxLatency, session.maxLatency);
+        }
+
+    }
+
+}
@@ -15,88 +15,247 @@
  */
 package org.releng.zkw.metrics;
 
-import javax.management.MBeanServerConnection;
+import org.releng.zkw.tools.AdaptiveInterval;
+import org.releng.zkw.tools.BeanRequest;
+import org.releng.zkw.tools.CollectionPlan;
+import org.releng.zkw.tools.CollectionTier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import javax.management.ObjectName;
 import javax.management.Query;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 
-import static org.releng.zkw.tools.AttributesHelper.getBeanAttributes;
-import static org.releng.zkw.tools.AttributesHelper.queryNames;
+public class ZkMetricsCollector extends DefinitionsCollector {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ZkMetricsCollector.class);
+
+    private static final List<CollectorDefinition> DEFINITIONS = CollectorDefinitions.loadBuiltIn("zk.collectors");
 
-public class ZkMetricsCollector {
+    private static final String LEARNER_ADDRESS = "addr=";
+    private static final String LEARNER_PORT = ",port=";
+    private static final String LEARNER_ACK_DEADLINE = "tickOfNextAckDeadline:";
+    private static final String LEARNER_SYNCED = "synced?:";
+    private static final String LEARNER_QUEUED_PACKETS = "queuedPacketLength:";
+
+    private final CollectionPlan plan;
+    private final BeanRequest localPeerBeans;
+    private final BeanRequest leaderBeans;
+    private final BeanRequest standaloneServerBeans;
+    private final BeanRequest replicatedServerBeans;
+    private final ZkConnectionsCollector standaloneConnections;
+    private final ZkConnectionsCollector replicatedConnections;
+    private final AdaptiveInterval learnersInterval;
+    private final Set<String> learners = new HashSet<>();
+    private String role;
+    private long roleChanges = 0;
+    private long learnersSynced = 0;
+    private long learnersMaxQueuedPackets = 0;
+    private String prefix;
+    private MetricsCollection metrics;
+    private String learnersPrefix;
+    private MetricGroup peerMetrics;
+    private MetricGroup learnersMetrics;
+    private Map<String, MetricGroup> learnerMetrics = new HashMap<>();
+
+    public ZkMetricsCollector(CollectionPlan plan) {
+        super(plan, DEFINITIONS);
+        this.plan = plan;
+        localPeerBeans = plan.request("org.apache.ZooKeeperService:name0=ReplicatedServer_id*,name1=replica.*",
+                Query.isInstanceOf(Query.value("org.apache.zookeeper.server.quorum.LocalPeerBean")), "State",
+                "Tick");
+        leaderBeans = plan.request(
+                "org.apache.ZooKeeperService:name0=ReplicatedServer_id*,name1=replica.*,name2=Leader",
+                Query.isInstanceOf(Query.value("org.apache.zookeeper.server.quorum.LeaderBean")),
+                CollectionTier.STATIC, "Name");
+        standaloneServerBeans = plan.request("org.apache.ZooKeeperService:name0=StandaloneServer_port*",
+                Query.isInstanceOf(Query.value("org.apache.zookeeper.server.ZooKeeperServerBean")),
+                CollectionTier.STATIC, "Name");
+        replicatedServerBeans = plan.request(
+                "org.apache.ZooKeeperService:name0=ReplicatedServer_id*,name1=replica.*,name2=*",
+                Query.isInstanceOf(Query.value("org.apache.zookeeper.server.ZooKeeperServerBean")),
+                CollectionTier.STATIC, "Name");
+        standaloneConnections = new ZkConnectionsCollector(plan, "zk.standaloneServer.connections");
+        replicatedConnections = new ZkConnectionsCollector(plan, "zk.replicatedServer.connections");
+        learnersInterval = new AdaptiveInterval(plan.getPollIntervals().getWarmIntervals());
+    }
 
-    public static void collectMetrics(String prefix, MBeanServerConnection con, MetricsCollection metrics) {
-        collectStandaloneServerMetrics(prefix, con, metrics);
-        collectStandaloneServerDataTreeMetrics(prefix, con, metrics);
+    @Override
+    public void collectMetrics(String prefix, MetricsCollection metrics) {
+        super.collectMetrics(prefix, metrics);
+        if (!prefix.equals(this.prefix) || metrics != this.metrics) {
+            this.prefix = prefix;
+            this.metrics = metrics;
+            peerMetrics = metrics.metricGroup(prefix + ".zk.replicatedServer.peer.");
+            learnersPrefix = prefix + ".zk.replicatedServer.learners.";
+            learnersMetrics = null;
+            learnerMetrics = new HashMap<>();
+            learners.clear();
+        }
+        standaloneConnections.collectMetrics(firstBeanName(standaloneServerBeans), prefix, metrics);
+        replicatedConnections.collectMetrics(firstBeanName(replicatedServerBeans), prefix, metrics);
+        Optional<Map<String, Object>> localPeer = localPeerBeans.getFirstBean();
+        if (!localPeer.isPresent()) {
+            return;
+        }
+        collectRole(localPeer.get());
+        collectLearners(localPeer.get());
     }
 
-    private static void collectStandaloneServerMetrics(String prefix, MBeanServerConnection con, MetricsCollection metrics) {
-        Set<ObjectName> zkServerBeanNames = queryNames(con, "org.apache.ZooKeeperService:name0=StandaloneServer_port*",
-                Query.isInstanceOf(Query.value("org.apache.zookeeper.server.ZooKeeperServerBean")));
-        if (zkServerBeanNames.isEmpty()) {
+    private void collectRole(Map<String, Object> localPeer) {
+        Object state = localPeer.get("State");
+        if (!(state instanceof String)) {
             return;
         }
-        ObjectName name = zkServerBeanNames.iterator().next();
-        Map<String, Object> attributes = getBeanAttributes(con, name, "NumAliveConnections", "OutstandingRequests",
-                "PacketsReceived", "PacketsSent", "MinRequestLatency", "AvgRequestLatency", "MaxRequestLatency");
-        if (attributes.containsKey("NumAliveConnections")) {
-            metrics.numericGauge(standaloneServerMetricName(prefix, "numAliveConnections"))
-                    .setValue((Long) attributes.get("NumAliveConnections"));
+        String currentRole = ((String) state).toLowerCase();
+        if (role != null && !role.equals(currentRole)) {
+            roleChanges++;
+            LOGGER.info("ZooKeeper server role changed from [{}] to [{}]", role, currentRole);
         }
-        if (attributes.containsKey("OutstandingRequests")) {
-            metrics.numericGauge(standaloneServerMetricName(prefix, "outstandingRequests"))
-                    .setValue((Long) attributes.get("OutstandingRequests"));
+        role = currentRole;
+        peerMetrics.numericGauge("role").setValue(roleCode(currentRole));
+        peerMetrics.numericGauge("roleChanges").setValue(roleChanges);
+    }
+
+    private void collectLearners(Map<String, Object> localPeer) {
+        ObjectName leader = firstBeanName(leaderBeans);
+        if (leader == null) {
+            if (learnersMetrics != null) {
+                metrics.removeGauges(learnersPrefix);
+                learnersMetrics = null;
+                learnerMetrics.clear();
+                learners.clear();
+                learnersInterval.expedite();
+            }
+            return;
         }
-        if (attributes.containsKey("PacketsReceived")) {
-            metrics.numericGauge(standaloneServerMetricName(prefix, "packetsReceived"))
-                    .setValue((Long) attributes.get("PacketsReceived"));
+        long now = System.nanoTime();
+        if (!learnersInterval.isDue(now) || !plan.hasTimeLeft()) {
+            return;
         }
-        if (attributes.containsKey("PacketsSent")) {
-            metrics.numericGauge(standaloneServerMetricName(prefix, "packetsSent"))
-                    .setValue((Long) attributes.get("PacketsSent"));
+        Optional<Object> followerInfo = plan.invoke(leader, "followerInfo");
+        if (!followerInfo.isPresent() || !(followerInfo.get() instanceof String)) {
+            return;
         }
-        if (attributes.containsKey("MinRequestLatency")) {
-            metrics.numericGauge(standaloneServerMetricName(prefix, "minRequestLatency"))
-                    .setValue((Long) attributes.get("MinRequestLatency"));
+        if (learnersMetrics == null) {
+            learnersMetrics = metrics.metricGroup(learnersPrefix);
         }
-        if (attributes.containsKey("AvgRequestLatency")) {
-            metrics.numericGauge(standaloneServerMetricName(prefix, "avgRequestLatency"))
-                    .setValue((Long) attributes.get("AvgRequestLatency"));
+        String info = (String) followerInfo.get();
+        Object tick = localPeer.get("Tick");
+        Set<String> seen = new HashSet<>();
+        long synced = 0;
+        long maxQueuedPackets = 0;
+        for (int start = 0, end; start < info.length(); start = end + 1) {
+            end = info.indexOf('\n', start);
+            end = end < 0 ? info.length() : end;
+            int address = find(info, LEARNER_ADDRESS, start, end);
+            if (address < 0) {
+                continue;
+            }
+            int addressEnd = address;
+            while (addressEnd < end && info.charAt(addressEnd) != ',' && info.charAt(addressEnd) != ']') {
+                addressEnd++;
+            }
+            // Learners on one host are told apart by the port of their connection to the leader
+            int port = find(info, LEARNER_PORT, addressEnd, end);
+            int portEnd = port;
+            while (portEnd >= 0 && portEnd < end && Character.isDigit(info.charAt(portEnd))) {
+                portEnd++;
+            }
+            String learner = learnerKey(info.substring(address, addressEnd))
+                    + (port >= 0 && portEnd > port ? "_" + info.substring(port, portEnd) : "");
+            if (learner.isEmpty() || !seen.add(learner)) {
+                continue;
+            }
+            MetricGroup group = learnerMetrics.get(learner);
+            if (group == null) {
+                group = metrics.metricGroup(learnersPrefix + learner + ".");
+                learnerMetrics.put(learner, group);
+            }
+            int queuedPackets = find(info, LEARNER_QUEUED_PACKETS, start, end);
+            if (queuedPackets >= 0 && queuedPackets < end && Character.isDigit(info.charAt(queuedPackets))) {
+                long value = parseLong(info, queuedPackets, end);
+                group.numericGauge("queuedPackets").setValue(value);
+                maxQueuedPackets = Math.max(maxQueuedPackets, value);
+            }
+            int syncedFlag = find(info, LEARNER_SYNCED, start, end);
+            if (syncedFlag >= 0 && (info.startsWith("true", syncedFlag) || info.startsWith("false", syncedFlag))) {
+                boolean value = info.startsWith("true", syncedFlag);
+                group.numericGauge("synced").setValue(value ? 1 : 0);
+                synced += value ? 1 : 0;
+            }
+            int ackDeadline = find(info, LEARNER_ACK_DEADLINE, start, end);
+            if (ackDeadline >= 0 && isNumber(info, ackDeadline, end) && tick instanceof Number) {
+                group.numericGauge("ackDeadlineTicks")
+                        .setValue(parseLong(info, ackDeadline, end) - ((Number) tick).longValue());
+            }
         }
-        if (attributes.containsKey("MaxRequestLatency")) {
-            metrics.numericGauge(standaloneServerMetricName(prefix, "maxRequestLatency"))
-                    .setValue((Long) attributes.get("MaxRequestLatency"));
+        for (String learner : learners) {
+            if (!seen.contains(learner)) {
+                metrics.removeGauges(learnersPrefix + learner + ".");
+                learnerMetrics.remove(learner);
+            }
         }
+        boolean changed = !seen.equals(learners) || synced != learnersSynced;
+        learnersInterval.update(now, changed ? 1 : AdaptiveInterval.relativeChange(learnersMaxQueuedPackets,
+                maxQueuedPackets), plan.isOverBudget());
+        learnersSynced = synced;
+        learnersMaxQueuedPackets = maxQueuedPackets;
+        learners.clear();
+        learners.addAll(seen);
+        learnersMetrics.numericGauge("count").setValue(seen.size());
+        learnersMetrics.numericGauge("synced").setValue(synced);
+        learnersMetrics.numericGauge("maxQueuedPackets").setValue(maxQueuedPackets);
     }
 
-    private static void collectStandaloneServerDataTreeMetrics(String prefix, MBeanServerConnection con,
-            MetricsCollection metrics)
-    {
-        Set<ObjectName> zkDataTreeBeanNames = queryNames(con,
-                "org.apache.ZooKeeperService:name0=StandaloneServer_port*,name1=InMemoryDataTree",
-                Query.isInstanceOf(Query.value("org.apache.zookeeper.server.DataTreeBean")));
-        if (zkDataTreeBeanNames.isEmpty()) {
-            return;
-        }
-        ObjectName name = zkDataTreeBeanNames.iterator().next();
-        Map<String, Object> attributes = getBeanAttributes(con, name, "NodeCount", "WatchCount");
-        if (attributes.containsKey("NodeCount")) {
-            metrics.numericGauge(standaloneServerNodeTreeMetricName(prefix, "nodeCount"))
-                    .setValue((Integer) attributes.get("NodeCount"));
-        }
-        if (attributes.containsKey("WatchCount")) {
-            metrics.numericGauge(standaloneServerNodeTreeMetricName(prefix, "watchCount"))
-                    .setValue((Integer) attributes.get("WatchCount"));
+    private static int find(String text, String key, int start, int end) {
+        int index = text.indexOf(key, start);
+        return index >= 0 && index + key.length() <= end ? index + key.length() : -1;
+    }
+
+    private static boolean isNumber(String text, int start, int end) {
+        int digit = start < end && text.charAt(start) == '-' ? start + 1 : start;
+        return digit < end && Character.isDigit(text.charAt(digit));
+    }
+
+    private static long parseLong(String text, int start, int end) {
+        boolean negative = text.charAt(start) == '-';
+        long value = 0;
+        for (int i = negative ? start + 1 : start; i < end && Character.isDigit(text.charAt(i)); i++) {
+            value = value * 10 + (text.charAt(i) - '0');
         }
+        return negative ? -value : value;
     }
 
-    private static String standaloneServerMetricName(String prefix, String metric) {
-        return prefix + ".zk.standaloneServer." + metric;
+    private static ObjectName firstBeanName(BeanRequest request) {
+        Map<ObjectName, Map<String, Object>> beans = request.getBeans();
+        return beans.isEmpty() ? null : beans.keySet().iterator().next();
     }
 
-    private static String standaloneServerNodeTreeMetricName(String prefix, String metric) {
-        return prefix + ".zk.standaloneServer.nodeTree." + metric;
+    private static String learnerKey(String address) {
+        int slash = address.indexOf('/');
+        String host = slash > 0 ? address.substring(0, slash) : address.substring(slash + 1);
+        return host.replaceAll("\\s", "").replace(".", "_").replace(":", "_");
+    }
+
+    private static long roleCode(String role) {
+        switch (role) {
+            case "looking":
+                return 0;
+            case "following":
+                return 1;
+            case "leading":
+                return 2;
+            case "observing":
+                return 3;
+            default:
+                return -1;
+        }
     }
 
 }
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.perfdata;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+
+public final class PerfDataFile {
+
+    private static final int MAGIC = 0xcafec0c0;
+    private static final int PROLOGUE_SIZE = 32;
+    private static final int BYTE_ORDER_OFFSET = 4;
+    private static final int MAJOR_VERSION_OFFSET = 5;
+    private static final int ACCESSIBLE_OFFSET = 7;
+    private static final int USED_OFFSET = 8;
+    private static final int ENTRY_OFFSET_OFFSET = 24;
+    private static final int NUM_ENTRIES_OFFSET = 28;
+    private static final int ENTRY_LENGTH_OFFSET = 0;
+    private static final int ENTRY_NAME_OFFSET = 4;
+    private static final int ENTRY_VECTOR_LENGTH_OFFSET = 8;
+    private static final int ENTRY_DATA_TYPE_OFFSET = 12;
+    private static final int ENTRY_UNITS_OFFSET = 14;
+    private static final int ENTRY_VARIABILITY_OFFSET = 15;
+    private static final int ENTRY_DATA_OFFSET = 16;
+    private static final byte TYPE_BYTE = 'B';
+    private static final byte TYPE_LONG = 'J';
+    private static final byte UNITS_TICKS = 3;
+    private static final byte VARIABILITY_MONOTONIC = 2;
+
+    private final Path path;
+    private final ByteBuffer buffer;
+
+    private PerfDataFile(Path path, ByteBuffer buffer) {
+        this.path = path;
+        this.buffer = buffer;
+    }
+
+    public static Optional<PerfDataFile> open(Path path) {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < PROLOGUE_SIZE) {
+                return Optional.empty();
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+        if (mapped.order(ByteOrder.BIG_ENDIAN).getInt(0) != MAGIC || mapped.get(MAJOR_VERSION_OFFSET) != 2) {
+            return Optional.empty();
+        }
+        mapped.order(mapped.get(BYTE_ORDER_OFFSET) == 0 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+        return Optional.of(new PerfDataFile(path, mapped));
+    }
+
+    public static Optional<PerfDataFile> find(String vmId) {
+        Path tmpDir = Paths.get(System.getProperty("java.io.tmpdir"));
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(tmpDir, "hsperfdata_*")) {
+            for (Path dir : dirs) {
+                Path path = dir.resolve(vmId);
+                if (Files.isRegularFile(path)) {
+                    return open(path);
+                }
+            }
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+        return Optional.empty();
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public boolean isAccessible() {
+        return buffer.get(ACCESSIBLE_OFFSET) != 0;
+    }
+
+    public Optional<String> getString(String name) {
+        int entry = findEntry(name);
+        if (entry < 0 || buffer.get(entry + ENTRY_DATA_TYPE_OFFSET) != TYPE_BYTE) {
+            return Optional.empty();
+        }
+        int length = buffer.getInt(entry + ENTRY_VECTOR_LENGTH_OFFSET);
+        int data = entry + buffer.getInt(entry + ENTRY_DATA_OFFSET);
+        if (length <= 0 || data + length > buffer.capacity()) {
+            return Optional.empty();
+        }
+        int end = data;
+        while (end < data + length && buffer.get(end) != 0) {
+            end++;
+        }
+        byte[] value = new byte[end - data];
+        for (int i = 0; i < value.length; i++) {
+            value[i] = buffer.get(data + i);
+        }
+        return Optional.of(new String(value, StandardCharsets.UTF_8));
+    }
+
+    public Optional<LongCounter> getLongCounter(String name) {
+        int entry = findEntry(name);
+        if (entry < 0 || buffer.get(entry + ENTRY_DATA_TYPE_OFFSET) != TYPE_LONG
+                || buffer.getInt(entry + ENTRY_VECTOR_LENGTH_OFFSET) != 0) {
+            return Optional.empty();
+        }
+        int data = entry + buffer.getInt(entry + ENTRY_DATA_OFFSET);
+        if (data + Long.BYTES > buffer.capacity()) {
+            return Optional.empty();
+        }
+        return Optional.of(new LongCounter(data, buffer.get(entry + ENTRY_UNITS_OFFSET) == UNITS_TICKS,
+                buffer.get(entry + ENTRY_VARIABILITY_OFFSET) == VARIABILITY_MONOTONIC));
+    }
+
+    public int getEntryCount() {
+        return entryCount();
+    }
+
+    private int findEntry(String name) {
+        int entry = firstEntry();
+        for (int i = 0; i < entryCount() && entry >= 0; i++) {
+            if (nameEquals(entry, name)) {
+                return entry;
+            }
+            entry = nextEntry(entry);
+        }
+        return -1;
+    }
+
+    private int firstEntry() {
+        int entry = buffer.getInt(ENTRY_OFFSET_OFFSET);
+        return entry >= PROLOGUE_SIZE && entry < usedBytes() ? entry : -1;
+    }
+
+    private int nextEntry(int entry) {
+        int length = buffer.getInt(entry + ENTRY_LENGTH_OFFSET);
+        int next = entry + length;
+        return length > 0 && next < usedBytes() ? next : -1;
+    }
+
+    private int entryCount() {
+        return buffer.getInt(NUM_ENTRIES_OFFSET);
+    }
+
+    private boolean nameEquals(int entry, String name) {
+        int start = entry + buffer.getInt(entry + ENTRY_NAME_OFFSET);
+        if (start + name.length() >= buffer.capacity()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (buffer.get(start + i) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return buffer.get(start + name.length()) == 0;
+    }
+
+    private int usedBytes() {
+        return Math.min(buffer.getInt(USED_OFFSET), buffer.capacity());
+    }
+
+    public final class LongCounter {
+
+        private final int offset;
+        private final boolean ticks;
+        private final boolean monotonic;
+
+        private LongCounter(int offset, boolean ticks, boolean monotonic) {
+            this.offset = offset;
+            this.ticks = ticks;
+            this.monotonic = monotonic;
+        }
+
+        public long get() {
+            return buffer.getLong(offset);
+        }
+
+        public boolean isTicks() {
+            return ticks;
+        }
+
+        public boolean isMonotonic() {
+            return monotonic;
+        }
+
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.report;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+public enum GraphiteFormat {
+
+    PLAINTEXT {
+        @Override
+        public ByteBuffer encode(Map<String, String> samples, long timestampSeconds) {
+            StringBuilder builder = new StringBuilder(samples.size() * 96);
+            String timestamp = Long.toString(timestampSeconds);
+            samples.forEach((name, value) -> builder.append(name).append(' ').append(value).append(' ')
+                    .append(timestamp).append('\n'));
+            return ByteBuffer.wrap(builder.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    },
+
+    PICKLE {
+        @Override
+        public ByteBuffer encode(Map<String, String> samples, long timestampSeconds) {
+            StringBuilder builder = new StringBuilder(samples.size() * 112);
+            String timestamp = Long.toString(timestampSeconds);
+            builder.append(MARK).append(LIST);
+            samples.forEach((name, value) -> {
+                builder.append(MARK);
+                appendString(builder, name);
+                builder.append(MARK).append(LONG).append(timestamp).append(LONG).append('\n');
+                appendString(builder, value);
+                builder.append(TUPLE).append(TUPLE).append(APPEND);
+            });
+            builder.append(STOP);
+            byte[] payload = builder.toString().getBytes(StandardCharsets.UTF_8);
+            ByteBuffer result = ByteBuffer.allocate(4 + payload.length);
+            result.putInt(payload.length);
+            result.put(payload);
+            result.flip();
+            return result;
+        }
+    };
+
+    private static final char MARK = '(';
+    private static final char STOP = '.';
+    private static final char LONG = 'L';
+    private static final char STRING = 'S';
+    private static final char APPEND = 'a';
+    private static final char LIST = 'l';
+    private static final char TUPLE = 't';
+    private static final char QUOTE = '\'';
+
+    public abstract ByteBuffer encode(Map<String, String> samples, long timestampSeconds);
+
+    private static void appendString(StringBuilder builder, String value) {
+        builder.append(STRING).append(QUOTE);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == QUOTE || c == '\\') {
+                builder.append('\\');
+            }
+            builder.append(c);
+        }
+        builder.append(QUOTE).append('\n');
+    }
+
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.report;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metered;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.ScheduledReporter;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import org.releng.zkw.metrics.FloatingGauge;
+import org.releng.zkw.metrics.GaugeStore;
+import org.releng.zkw.metrics.MetricsRegistryHolder;
+import org.releng.zkw.metrics.NumericGauge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+public final class GraphiteReporter extends ScheduledReporter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GraphiteReporter.class);
+
+    private final GraphiteFormat format;
+    private final GraphiteSender sender;
+    private final long flushTimeoutMillis;
+    private final Optional<MetricsJournal> journal;
+    private long[] gaugeStoreBuffer = new long[256];
+
+    public GraphiteReporter(MetricRegistry registry, String host, int port, GraphiteFormat format,
+            int maxPendingBytes, long flushTimeoutMillis, Optional<MetricsJournal> journal)
+    {
+        super(registry, "graphite-reporter", MetricFilter.ALL, TimeUnit.SECONDS, TimeUnit.MILLISECONDS);
+        this.format = format;
+        this.sender = new GraphiteSender(host, port, maxPendingBytes);
+        this.flushTimeoutMillis = flushTimeoutMillis;
+        this.journal = journal;
+    }
+
+    @Override
+    public void report(SortedMap<String, Gauge> gauges, SortedMap<String, Counter> counters,
+            SortedMap<String, Histogram> histograms, SortedMap<String, Meter> meters, SortedMap<String, Timer> timers)
+    {
+        long timestamp = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+        Map<String, String> samples = new LinkedHashMap<>();
+        if (journal.isPresent() && (!sender.flushPending(flushTimeoutMillis) || journal.get().hasPending())) {
+            journal.get().append(timestamp, MetricsRegistryHolder.getGaugeStores());
+        } else {
+            StoreSamplesVisitor storeSamplesVisitor = new StoreSamplesVisitor(samples);
+            for (GaugeStore store : MetricsRegistryHolder.getGaugeStores()) {
+                gaugeStoreBuffer = store.visit(storeSamplesVisitor, gaugeStoreBuffer);
+            }
+        }
+        gauges.forEach((name, gauge) -> {
+            if (!(gauge instanceof NumericGauge) && !(gauge instanceof FloatingGauge)) {
+                addGauge(samples, name, gauge);
+            }
+        });
+        counters.forEach((name, counter) -> samples.put(name + ".count", Long.toString(counter.getCount())));
+        histograms.forEach((name, histogram) -> {
+            samples.put(name + ".count", Long.toString(histogram.getCount()));
+            addSnapshot(samples, name, histogram.getSnapshot(), 1.0);
+        });
+        meters.forEach((name, meter) -> addMetered(samples, name, meter));
+        timers.forEach((name, timer) -> {
+            addMetered(samples, name, timer);
+            addSnapshot(samples, name, timer.getSnapshot(), convertDuration(1.0));
+        });
+        try {
+            if (!samples.isEmpty()) {
+                sender.send(format.encode(samples, timestamp), flushTimeoutMillis);
+            }
+            journal.ifPresent(this::replay);
+        } catch (RuntimeException e) {
+            LOGGER.error("Error reporting metrics to Graphite", e);
+        }
+    }
+
+    @Override
+    public void stop() {
+        try {
+            super.stop();
+        } finally {
+            sender.close();
+            journal.ifPresent(MetricsJournal::close);
+        }
+    }
+
+    public long getDroppedBatches() {
+        return sender.getDroppedBatches();
+    }
+
+    public long getConnections() {
+        return sender.getConnections();
+    }
+
+    private void replay(MetricsJournal metricsJournal) {
+        long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushTimeoutMillis);
+        long replayed = 0;
+        while (sender.isConnected() && sender.getPendingBytes() < sender.getMaxPendingBytes() / 2
+                && System.nanoTime() - deadlineNanos < 0
+                && metricsJournal.replay((timestamp, samples) -> sender.send(format.encode(samples, timestamp),
+                        Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()))))) {
+            replayed++;
+        }
+        if (replayed > 0) {
+            LOGGER.info("Replayed {} journaled metrics snapshots to Graphite, more pending: {}", replayed,
+                    metricsJournal.hasPending());
+        }
+    }
+
+    private static void addGauge(Map<String, String> samples, String name, Gauge<?> gauge) {
+        Object value = gauge.getValue();
+        if (value instanceof Double || value instanceof Float) {
+            addDouble(samples, name, ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            samples.put(name, Long.toString(((Number) value).longValue()));
+        } else if (value instanceof Boolean) {
+            samples.put(name, (Boolean) value ? "1" : "0");
+        }
+    }
+
+    private void addMetered(Map<String, String> samples, String name, Metered metered) {
+        samples.put(name + ".count", Long.toString(metered.getCount()));
+        addDouble(samples, name + ".m1_rate", convertRate(metered.getOneMinuteRate()));
+        addDouble(samples, name + ".m5_rate", convertRate(metered.getFiveMinuteRate()));
+        addDouble(samples, name + ".m15_rate", convertRate(metered.getFifteenMinuteRate()));
+        addDouble(samples, name + ".mean_rate", convertRate(metered.getMeanRate()));
+    }
+
+    private static void addSnapshot(Map<String, String> samples, String name, Snapshot snapshot, double factor) {
+        addDouble(samples, name + ".min", snapshot.getMin() * factor);
+        addDouble(samples, name + ".max", snapshot.getMax() * factor);
+        addDouble(samples, name + ".mean", snapshot.getMean() * factor);
+        addDouble(samples, name + ".stddev", snapshot.getStdDev() * factor);
+        addDouble(samples, name + ".p50", snapshot.getMedian() * factor);
+        addDouble(samples, name + ".p75", snapshot.get75thPercentile() * factor);
+        addDouble(samples, name + ".p95", snapshot.get95thPercentile() * factor);
+        addDouble(samples, name + ".p99", snapshot.get99thPercentile() * factor);
+        addDouble(samples, name + ".p999", snapshot.get999thPercentile() * factor);
+    }
+
+    private static void addDouble(Map<String, String> samples, String name, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return;
+        }
+        samples.put(name, Double.toString(value));
+    }
+
+    private static final class StoreSamplesVisitor implements GaugeStore.GaugeVisitor {
+
+        private final Map<String, String> samples;
+
+        private StoreSamplesVisitor(Map<String, String> samples) {
+            this.samples = samples;
+        }
+
+        @Override
+        public void numeric(String name, long value) {
+            samples.put(name, Long.toString(value));
+        }
+
+        @Override
+        public void floating(String name, double value) {
+            addDouble(samples, name, value);
+        }
+
+    }
+
+}
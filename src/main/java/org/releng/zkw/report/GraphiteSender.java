@@ -0,0 +1,208 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.report;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+final class GraphiteSender {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GraphiteSender.class);
+
+    private static final long MIN_RECONNECT_BACKOFF_MILLIS = 1000;
+    private static final long MAX_RECONNECT_BACKOFF_MILLIS = 60000;
+
+    private final String host;
+    private final int port;
+    private final int maxPendingBytes;
+    private final Deque<ByteBuffer> pendingBatches = new ArrayDeque<>();
+    private int pendingBytes = 0;
+    private Selector selector;
+    private SocketChannel channel;
+    private SelectionKey key;
+    private boolean connected = false;
+    private long reconnectBackoffMillis = MIN_RECONNECT_BACKOFF_MILLIS;
+    private long nextConnectNanos = System.nanoTime();
+    private long droppedBatches = 0;
+    private long connections = 0;
+
+    GraphiteSender(String host, int port, int maxPendingBytes) {
+        this.host = host;
+        this.port = port;
+        this.maxPendingBytes = maxPendingBytes;
+    }
+
+    void send(ByteBuffer batch, long flushTimeoutMillis) {
+        enqueue(batch);
+        flush(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushTimeoutMillis));
+    }
+
+    boolean flushPending(long flushTimeoutMillis) {
+        flush(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushTimeoutMillis));
+        return connected;
+    }
+
+    boolean isConnected() {
+        return connected;
+    }
+
+    int getPendingBytes() {
+        return pendingBytes;
+    }
+
+    int getMaxPendingBytes() {
+        return maxPendingBytes;
+    }
+
+    long getDroppedBatches() {
+        return droppedBatches;
+    }
+
+    long getConnections() {
+        return connections;
+    }
+
+    void close() {
+        closeChannel();
+        if (selector != null) {
+            try {
+                selector.close();
+            } catch (IOException e) {
+                LOGGER.error("Error closing Graphite selector", e);
+            }
+            selector = null;
+        }
+    }
+
+    private void enqueue(ByteBuffer batch) {
+        if (batch.remaining() > maxPendingBytes) {
+            droppedBatches++;
+            LOGGER.warn("Dropping {} bytes metrics batch, it exceeds the outbound buffer limit", batch.remaining());
+            return;
+        }
+        Iterator<ByteBuffer> oldest = pendingBatches.iterator();
+        while (pendingBytes + batch.remaining() > maxPendingBytes && oldest.hasNext()) {
+            ByteBuffer pendingBatch = oldest.next();
+            if (connected && pendingBatch.position() > 0) {
+                continue;
+            }
+            oldest.remove();
+            pendingBytes -= pendingBatch.limit();
+            droppedBatches++;
+        }
+        if (pendingBytes + batch.remaining() > maxPendingBytes) {
+            droppedBatches++;
+            return;
+        }
+        pendingBatches.addLast(batch);
+        pendingBytes += batch.remaining();
+    }
+
+    private void flush(long deadlineNanos) {
+        try {
+            if (!connect(deadlineNanos)) {
+                return;
+            }
+            while (!pendingBatches.isEmpty()) {
+                ByteBuffer batch = pendingBatches.peekFirst();
+                channel.write(batch);
+                if (!batch.hasRemaining()) {
+                    pendingBatches.removeFirst();
+                    pendingBytes -= batch.limit();
+                    continue;
+                }
+                long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+                if (remainingMillis <= 0) {
+                    LOGGER.debug("Graphite flush timed out with {} bytes pending", pendingBytes);
+                    return;
+                }
+                key.interestOps(SelectionKey.OP_WRITE);
+                selector.select(remainingMillis);
+                selector.selectedKeys().clear();
+            }
+        } catch (IOException | UnresolvedAddressException e) {
+            LOGGER.warn("Graphite connection to [{}:{}] failed: {}", host, port, e.toString());
+            connectionFailed();
+        }
+    }
+
+    private boolean connect(long deadlineNanos) throws IOException {
+        if (connected) {
+            return true;
+        }
+        if (channel == null) {
+            if (System.nanoTime() < nextConnectNanos) {
+                return false;
+            }
+            if (selector == null) {
+                selector = Selector.open();
+            }
+            LOGGER.info("Connecting to Graphite at [{}:{}]...", host, port);
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            key = channel.register(selector, SelectionKey.OP_CONNECT);
+            channel.connect(new InetSocketAddress(host, port));
+        }
+        while (!channel.finishConnect()) {
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+            if (remainingMillis <= 0) {
+                return false;
+            }
+            selector.select(remainingMillis);
+            selector.selectedKeys().clear();
+        }
+        LOGGER.info("Connected to Graphite at [{}:{}]", host, port);
+        connected = true;
+        connections++;
+        reconnectBackoffMillis = MIN_RECONNECT_BACKOFF_MILLIS;
+        pendingBatches.forEach(b -> b.position(0));
+        key.interestOps(SelectionKey.OP_WRITE);
+        return true;
+    }
+
+    private void connectionFailed() {
+        closeChannel();
+        nextConnectNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(reconnectBackoffMillis);
+        reconnectBackoffMillis = Math.min(reconnectBackoffMillis * 2, MAX_RECONNECT_BACKOFF_MILLIS);
+    }
+
+    private void closeChannel() {
+        connected = false;
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.error("Error closing Graphite connection", e);
+        }
+        channel = null;
+        key = null;
+    }
+
+}
@@ -0,0 +1,480 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.report;
+
+import org.releng.zkw.functional.Function2V;
+import org.releng.zkw.metrics.GaugeStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public final class MetricsJournal implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetricsJournal.class);
+
+    private static final int FILE_MAGIC = 0x5a4b574a;
+    private static final int BLOCK_MAGIC = 0x5a4b5742;
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_BYTES = 64;
+    private static final int BLOCK_HEADER_BYTES = 16;
+    private static final int CURSOR_SEQUENCE_OFFSET = 16;
+    private static final int CURSOR_POSITION_OFFSET = 24;
+    private static final byte SNAPSHOT = 1;
+    private static final byte LONG_VALUE = 0;
+    private static final byte DOUBLE_VALUE = 1;
+    private static final int MAX_VARLONG_BYTES = 10;
+
+    private final Path file;
+    private final RandomAccessFile randomAccessFile;
+    private final MappedByteBuffer buffer;
+    private final int blockBytes;
+    private final int blockCount;
+    private final Map<String, Handle> handles = new HashMap<>();
+    private int nextHandleId = 0;
+    private final SnapshotEncoder encoder = new SnapshotEncoder();
+    private final Map<Integer, Handle> decodedHandles = new HashMap<>();
+    private final Map<String, String> replaySamples = new LinkedHashMap<>();
+    private ByteBuffer scratch;
+    private long writeSequence;
+    private int writePosition;
+    private long writeTimestamp;
+    private long readSequence;
+    private int readPosition;
+    private long decodedSequence = -1;
+    private int decodedPosition;
+    private long decodedTimestamp;
+    private long evictedBlocks = 0;
+    private long droppedSnapshots = 0;
+
+    private MetricsJournal(Path file, RandomAccessFile randomAccessFile, MappedByteBuffer buffer, int blockBytes,
+            int blockCount)
+    {
+        this.file = file;
+        this.randomAccessFile = randomAccessFile;
+        this.buffer = buffer;
+        this.blockBytes = blockBytes;
+        this.blockCount = blockCount;
+        this.scratch = ByteBuffer.allocate(Math.min(blockBytes, 64 * 1024));
+    }
+
+    public static MetricsJournal open(Path file, long maxBytes, int blockBytes) {
+        if (blockBytes <= BLOCK_HEADER_BYTES) {
+            throw new IllegalArgumentException("Journal block size must exceed " + BLOCK_HEADER_BYTES + " bytes");
+        }
+        long blocks = (maxBytes - FILE_HEADER_BYTES) / blockBytes;
+        if (blocks < 2) {
+            throw new IllegalArgumentException("Journal budget must hold at least two blocks of " + blockBytes
+                    + " bytes");
+        }
+        long length = FILE_HEADER_BYTES + blocks * blockBytes;
+        if (length > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Journal budget must not exceed " + Integer.MAX_VALUE + " bytes");
+        }
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(file.toFile(), "rw");
+            randomAccessFile.setLength(length);
+            MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+            MetricsJournal journal = new MetricsJournal(file, randomAccessFile, buffer, blockBytes, (int) blocks);
+            journal.recover();
+            return journal;
+        } catch (IOException e) {
+            safeClose(randomAccessFile);
+            throw new RuntimeException(e);
+        }
+    }
+
+    public synchronized boolean hasPending() {
+        return readSequence < writeSequence || (readSequence == writeSequence && readPosition < writePosition);
+    }
+
+    public synchronized long getEvictedBlocks() {
+        return evictedBlocks;
+    }
+
+    public synchronized long getDroppedSnapshots() {
+        return droppedSnapshots;
+    }
+
+    public synchronized void append(long timestampSeconds, Collection<GaugeStore> stores) {
+        encoder.clear();
+        for (GaugeStore store : stores) {
+            encoder.storeBuffer = store.visit(encoder, encoder.storeBuffer);
+        }
+        if (encoder.count == 0) {
+            return;
+        }
+        encode(timestampSeconds);
+        if (writePosition + scratch.remaining() > blockBytes && writePosition > BLOCK_HEADER_BYTES) {
+            startBlock(writeSequence + 1);
+            encode(timestampSeconds);
+        }
+        if (writePosition + scratch.remaining() > blockBytes) {
+            encoder.undefine();
+            droppedSnapshots++;
+            LOGGER.warn("Dropping journal snapshot of {} metrics, it does not fit into a {} bytes block",
+                    encoder.count, blockBytes);
+            return;
+        }
+        int blockOffset = blockOffset(writeSequence);
+        int length = scratch.remaining();
+        ByteBuffer target = buffer.duplicate();
+        target.position(blockOffset + writePosition);
+        target.put(scratch);
+        writePosition += length;
+        writeTimestamp = timestampSeconds;
+        buffer.putInt(blockOffset + 4, writePosition);
+    }
+
+    public synchronized boolean replay(Function2V<Long, Map<String, String>> consumer) {
+        skipEvicted();
+        while (hasPending()) {
+            if (readSequence < writeSequence && readPosition >= usedBytes(readSequence)) {
+                readSequence++;
+                readPosition = BLOCK_HEADER_BYTES;
+                continue;
+            }
+            long timestamp;
+            try {
+                if (decodedSequence != readSequence || decodedPosition > readPosition) {
+                    startDecoding(readSequence);
+                }
+                while (decodedPosition < readPosition) {
+                    decodeRecord(null);
+                }
+                timestamp = decodeRecord(replaySamples);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Skipping corrupted metrics journal block {}: {}", readSequence, e.toString());
+                decodedSequence = -1;
+                if (readSequence < writeSequence) {
+                    readSequence++;
+                    readPosition = BLOCK_HEADER_BYTES;
+                } else {
+                    readPosition = writePosition;
+                }
+                continue;
+            }
+            readPosition = decodedPosition;
+            buffer.putLong(CURSOR_SEQUENCE_OFFSET, readSequence);
+            buffer.putInt(CURSOR_POSITION_OFFSET, readPosition);
+            if (!replaySamples.isEmpty()) {
+                consumer.apply(timestamp, replaySamples);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized void close() {
+        buffer.force();
+        safeClose(randomAccessFile);
+    }
+
+    private void startDecoding(long sequence) {
+        int offset = blockOffset(sequence);
+        if (buffer.getInt(offset) != BLOCK_MAGIC || buffer.getLong(offset + 8) != sequence) {
+            throw new IllegalStateException("block was not written");
+        }
+        decodedSequence = sequence;
+        decodedPosition = BLOCK_HEADER_BYTES;
+        decodedTimestamp = 0;
+        decodedHandles.clear();
+    }
+
+    private void recover() {
+        long lastSequence = 0;
+        for (int i = 0; i < blockCount; i++) {
+            int offset = FILE_HEADER_BYTES + i * blockBytes;
+            long sequence = buffer.getLong(offset + 8);
+            if (buffer.getInt(offset) == BLOCK_MAGIC && sequence > lastSequence
+                    && Math.floorMod(sequence, (long) blockCount) == i) {
+                lastSequence = sequence;
+            }
+        }
+        boolean valid = buffer.getInt(0) == FILE_MAGIC && buffer.getInt(4) == VERSION
+                && buffer.getInt(8) == blockBytes && buffer.getInt(12) == blockCount && lastSequence > 0;
+        if (valid) {
+            readSequence = buffer.getLong(CURSOR_SEQUENCE_OFFSET);
+            readPosition = buffer.getInt(CURSOR_POSITION_OFFSET);
+            writeSequence = lastSequence;
+            writePosition = Math.max(BLOCK_HEADER_BYTES, Math.min(blockBytes, usedBytes(lastSequence)));
+            if (readSequence > writeSequence || readPosition < BLOCK_HEADER_BYTES) {
+                readSequence = writeSequence;
+                readPosition = writePosition;
+            }
+            skipEvicted();
+            if (hasPending()) {
+                LOGGER.info("Metrics journal [{}] has unsent data from block {} up to block {}", file,
+                        readSequence, writeSequence);
+            }
+        } else {
+            for (int i = 0; i < blockCount; i++) {
+                buffer.putInt(FILE_HEADER_BYTES + i * blockBytes, 0);
+            }
+            writeSequence = 0;
+            buffer.putInt(0, FILE_MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, blockBytes);
+            buffer.putInt(12, blockCount);
+            readSequence = 1;
+            readPosition = BLOCK_HEADER_BYTES;
+            buffer.putLong(CURSOR_SEQUENCE_OFFSET, readSequence);
+            buffer.putInt(CURSOR_POSITION_OFFSET, readPosition);
+        }
+        startBlock(writeSequence + 1);
+    }
+
+    private void startBlock(long sequence) {
+        if (readSequence == writeSequence && readPosition >= writePosition) {
+            readSequence = sequence;
+            readPosition = BLOCK_HEADER_BYTES;
+        }
+        // Handles are defined again in every block, so names missing from a whole block can be forgotten
+        long previousSequence = writeSequence;
+        handles.values().removeIf(h -> h.seen < previousSequence);
+        int offset = blockOffset(sequence);
+        buffer.putInt(offset, BLOCK_MAGIC);
+        buffer.putInt(offset + 4, BLOCK_HEADER_BYTES);
+        buffer.putLong(offset + 8, sequence);
+        writeSequence = sequence;
+        writePosition = BLOCK_HEADER_BYTES;
+        writeTimestamp = 0;
+        skipEvicted();
+    }
+
+    private void skipEvicted() {
+        long oldestSequence = writeSequence - blockCount + 1;
+        if (readSequence < oldestSequence) {
+            evictedBlocks += oldestSequence - readSequence;
+            LOGGER.warn("Metrics journal is full, dropped {} oldest unsent blocks", oldestSequence - readSequence);
+            readSequence = oldestSequence;
+            readPosition = BLOCK_HEADER_BYTES;
+        }
+    }
+
+    private void encode(long timestampSeconds) {
+        int maxLength = encoder.maxLength();
+        if (scratch.capacity() < maxLength) {
+            scratch = ByteBuffer.allocate(Math.max(maxLength, scratch.capacity() * 2));
+        }
+        scratch.clear();
+        encoder.write(scratch, timestampSeconds);
+        scratch.flip();
+    }
+
+    private long decodeRecord(Map<String, String> samples) {
+        ByteBuffer input = buffer.duplicate();
+        input.position(blockOffset(decodedSequence) + decodedPosition);
+        if (samples != null) {
+            samples.clear();
+        }
+        if (input.get() != SNAPSHOT) {
+            throw new IllegalStateException("Corrupted metrics journal block " + decodedSequence);
+        }
+        decodedTimestamp += readVarLong(input);
+        int count = (int) readVarLong(input);
+        int handleId = 0;
+        for (int i = 0; i < count; i++) {
+            long key = readVarLong(input);
+            handleId += (int) zigZagDecode(key >>> 1);
+            Handle handle = decodedHandles.get(handleId);
+            if ((key & 1) != 0) {
+                byte[] name = new byte[(int) readVarLong(input)];
+                input.get(name);
+                handle = new Handle(handleId, new String(name, StandardCharsets.UTF_8), input.get());
+                decodedHandles.put(handleId, handle);
+            } else if (handle == null) {
+                throw new IllegalStateException("Corrupted metrics journal block " + decodedSequence);
+            }
+            if (handle.kind == LONG_VALUE) {
+                handle.previous += zigZagDecode(readVarLong(input));
+                if (samples != null) {
+                    samples.put(handle.name, Long.toString(handle.previous));
+                }
+            } else {
+                handle.previous ^= readVarLong(input);
+                double value = Double.longBitsToDouble(handle.previous);
+                if (samples != null && !Double.isNaN(value) && !Double.isInfinite(value)) {
+                    samples.put(handle.name, Double.toString(value));
+                }
+            }
+        }
+        decodedPosition = input.position() - blockOffset(decodedSequence);
+        return decodedTimestamp;
+    }
+
+    private int usedBytes(long sequence) {
+        return buffer.getInt(blockOffset(sequence) + 4);
+    }
+
+    private int blockOffset(long sequence) {
+        return FILE_HEADER_BYTES + (int) Math.floorMod(sequence, (long) blockCount) * blockBytes;
+    }
+
+    private static void writeVarLong(ByteBuffer output, long value) {
+        while ((value & ~0x7fL) != 0) {
+            output.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        output.put((byte) value);
+    }
+
+    private static long readVarLong(ByteBuffer input) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = input.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private static long zigZagEncode(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long zigZagDecode(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void safeClose(RandomAccessFile randomAccessFile) {
+        if (randomAccessFile == null) {
+            return;
+        }
+        try {
+            randomAccessFile.close();
+        } catch (IOException e) {
+            LOGGER.error("Error closing metrics journal", e);
+        }
+    }
+
+    private final class SnapshotEncoder implements GaugeStore.GaugeVisitor {
+
+        private final List<Handle> visited = new ArrayList<>();
+        private long[] values = new long[256];
+        private long[] storeBuffer = new long[256];
+        private int count = 0;
+
+        private void clear() {
+            visited.clear();
+            count = 0;
+        }
+
+        @Override
+        public void numeric(String name, long value) {
+            add(name, LONG_VALUE, value);
+        }
+
+        @Override
+        public void floating(String name, double value) {
+            add(name, DOUBLE_VALUE, Double.doubleToRawLongBits(value));
+        }
+
+        private void add(String name, byte kind, long value) {
+            Handle handle = handles.get(name);
+            if (handle == null || handle.kind != kind) {
+                handle = new Handle(nextHandleId++, name, kind);
+                handles.put(name, handle);
+            }
+            handle.seen = writeSequence;
+            if (count == values.length) {
+                values = Arrays.copyOf(values, count * 2);
+            }
+            visited.add(handle);
+            values[count++] = value;
+        }
+
+        private int maxLength() {
+            int length = 1 + 2 * MAX_VARLONG_BYTES;
+            for (int i = 0; i < count; i++) {
+                Handle handle = visited.get(i);
+                length += 2 * MAX_VARLONG_BYTES;
+                if (handle.block != writeSequence) {
+                    length += MAX_VARLONG_BYTES + handle.nameBytes.length + 1;
+                }
+            }
+            return length;
+        }
+
+        private void undefine() {
+            visited.forEach(h -> h.block = -1);
+        }
+
+        private void write(ByteBuffer output, long timestampSeconds) {
+            output.put(SNAPSHOT);
+            writeVarLong(output, timestampSeconds - writeTimestamp);
+            writeVarLong(output, count);
+            int previousId = 0;
+            for (int i = 0; i < count; i++) {
+                Handle handle = visited.get(i);
+                boolean defined = handle.block == writeSequence;
+                writeVarLong(output, (zigZagEncode(handle.id - previousId) << 1) | (defined ? 0 : 1));
+                previousId = handle.id;
+                if (!defined) {
+                    writeVarLong(output, handle.nameBytes.length);
+                    output.put(handle.nameBytes);
+                    output.put(handle.kind);
+                    handle.block = writeSequence;
+                    handle.previous = 0;
+                }
+                if (handle.kind == LONG_VALUE) {
+                    writeVarLong(output, zigZagEncode(values[i] - handle.previous));
+                } else {
+                    writeVarLong(output, values[i] ^ handle.previous);
+                }
+                handle.previous = values[i];
+            }
+        }
+
+    }
+
+    private static final class Handle {
+
+        private final int id;
+        private final String name;
+        private final byte[] nameBytes;
+        private final byte kind;
+        private long previous;
+        private long block = -1;
+        private long seen;
+
+        private Handle(int id, String name, byte kind) {
+            this.id = id;
+            this.name = name;
+            this.nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            this.kind = kind;
+        }
+
+    }
+
+}
@@ -0,0 +1,455 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.report;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.releng.zkw.metrics.FloatingGauge;
+import org.releng.zkw.metrics.GaugeStore;
+import org.releng.zkw.metrics.MetricsRegistryHolder;
+import org.releng.zkw.metrics.NumericGauge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public final class PrometheusExporter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PrometheusExporter.class);
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final String ROLE_SUFFIX = ".zk.replicatedServer.peer.role";
+    private static final String FLW_ROLE_SUFFIX = ".flw.role";
+    private static final String[] ROLES = {"looking", "following", "leading", "observing"};
+    private static final double[] QUANTILES = {0.5, 0.75, 0.95, 0.99, 0.999};
+
+    private final MetricRegistry registry;
+    private final String hostPrefix;
+    private final byte[] hostLabel;
+    private final HttpServer server;
+    private final ExecutorService httpExecutor;
+    private final ScheduledExecutorService renderExecutor;
+    private final Map<String, Series> series = new HashMap<>();
+    private final Map<String, Family> families = new HashMap<>();
+    private final Map<String, byte[]> roles = new HashMap<>();
+    private final SampleVisitor sampleVisitor = new SampleVisitor();
+    private final RoleVisitor roleVisitor = new RoleVisitor();
+    private final byte[][] quantileLabels = new byte[QUANTILES.length][];
+    private long[] gaugeStoreBuffer = new long[256];
+    private long generation = 0;
+    private volatile byte[] exposition = new byte[0];
+
+    public PrometheusExporter(MetricRegistry registry, String localHost, InetSocketAddress address) {
+        this.registry = registry;
+        this.hostPrefix = "one_min." + localHost + ".";
+        this.hostLabel = ascii("host=\"" + escapeLabel(localHost) + "\"");
+        for (int i = 0; i < QUANTILES.length; i++) {
+            quantileLabels[i] = ascii(",quantile=\"" + QUANTILES[i] + "\"");
+        }
+        try {
+            this.server = HttpServer.create(address, 0);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        this.httpExecutor = Executors.newSingleThreadExecutor(r -> daemon(r, "zkw-prometheus-http"));
+        this.renderExecutor = Executors.newSingleThreadScheduledExecutor(r -> daemon(r, "zkw-prometheus-render"));
+        server.createContext("/metrics", this::handle);
+        server.setExecutor(httpExecutor);
+    }
+
+    public void start(long refreshMillis) {
+        renderExecutor.scheduleWithFixedDelay(this::safeRender, 0, refreshMillis, TimeUnit.MILLISECONDS);
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        httpExecutor.shutdown();
+        renderExecutor.shutdown();
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = exposition;
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            if ("HEAD".equals(method)) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void safeRender() {
+        try {
+            long started = System.nanoTime();
+            render();
+            LOGGER.debug("Rendered [{}] bytes of Prometheus metrics in [{}] us", exposition.length,
+                    TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - started));
+        } catch (RuntimeException e) {
+            LOGGER.error("Error rendering Prometheus metrics", e);
+        }
+    }
+
+    private void render() {
+        generation++;
+        families.values().forEach(f -> f.samples.reset());
+        roles.clear();
+        for (GaugeStore store : MetricsRegistryHolder.getGaugeStores()) {
+            gaugeStoreBuffer = store.visit(roleVisitor, gaugeStoreBuffer);
+        }
+        for (GaugeStore store : MetricsRegistryHolder.getGaugeStores()) {
+            gaugeStoreBuffer = store.visit(sampleVisitor, gaugeStoreBuffer);
+        }
+        registry.getGauges().forEach((name, gauge) -> {
+            if (!(gauge instanceof NumericGauge) && !(gauge instanceof FloatingGauge)) {
+                addGauge(name, gauge);
+            }
+        });
+        registry.getCounters().forEach(this::addCounter);
+        registry.getHistograms().forEach(this::addHistogram);
+        series.values().removeIf(s -> s.generation != generation);
+        exposition = assemble();
+    }
+
+    private byte[] assemble() {
+        List<Family> rendered = new ArrayList<>(families.size());
+        int length = 0;
+        for (Iterator<Family> i = families.values().iterator(); i.hasNext(); ) {
+            Family family = i.next();
+            if (family.samples.size == 0) {
+                i.remove();
+                continue;
+            }
+            rendered.add(family);
+            length += family.header.length + family.samples.size;
+        }
+        rendered.sort((a, b) -> a.name.compareTo(b.name));
+        byte[] result = new byte[length];
+        int position = 0;
+        for (Family family : rendered) {
+            System.arraycopy(family.header, 0, result, position, family.header.length);
+            position += family.header.length;
+            System.arraycopy(family.samples.data, 0, result, position, family.samples.size);
+            position += family.samples.size;
+        }
+        return result;
+    }
+
+    private void addGauge(String name, Gauge<?> gauge) {
+        Object value = gauge.getValue();
+        if (value instanceof Double || value instanceof Float) {
+            addDouble(name, ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            addLong(name, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            addLong(name, (Boolean) value ? 1 : 0);
+        }
+    }
+
+    private void addLong(String name, long value) {
+        ByteSink samples = beginSample(series(name, "gauge"), null);
+        samples.writeLong(value);
+        samples.write((byte) '\n');
+    }
+
+    private void addDouble(String name, double value) {
+        ByteSink samples = beginSample(series(name, "gauge"), null);
+        samples.writeDouble(value);
+        samples.write((byte) '\n');
+    }
+
+    private void addCounter(String name, Counter counter) {
+        ByteSink samples = beginSample(series(name, "counter"), null);
+        samples.writeLong(counter.getCount());
+        samples.write((byte) '\n');
+    }
+
+    private void addHistogram(String name, Histogram histogram) {
+        Series histogramSeries = series(name, "summary");
+        Snapshot snapshot = histogram.getSnapshot();
+        for (int i = 0; i < QUANTILES.length; i++) {
+            ByteSink samples = beginSample(histogramSeries, quantileLabels[i]);
+            samples.writeDouble(snapshot.getValue(QUANTILES[i]));
+            samples.write((byte) '\n');
+        }
+        ByteSink samples = histogramSeries.family.samples;
+        samples.write(histogramSeries.family.countName);
+        writeLabels(samples, histogramSeries, null);
+        samples.writeLong(histogram.getCount());
+        samples.write((byte) '\n');
+    }
+
+    private ByteSink beginSample(Series sampleSeries, byte[] extraLabels) {
+        ByteSink samples = sampleSeries.family.samples;
+        samples.write(sampleSeries.family.nameBytes);
+        writeLabels(samples, sampleSeries, extraLabels);
+        return samples;
+    }
+
+    private void writeLabels(ByteSink samples, Series sampleSeries, byte[] extraLabels) {
+        samples.write((byte) '{');
+        samples.write(sampleSeries.labels);
+        if (sampleSeries.instance != null) {
+            byte[] role = roles.get(sampleSeries.instance);
+            samples.write(role != null ? role : Series.STANDALONE);
+        }
+        if (extraLabels != null) {
+            samples.write(extraLabels);
+        }
+        samples.write((byte) '}');
+        samples.write((byte) ' ');
+    }
+
+    private Series series(String name, String type) {
+        Series result = series.get(name);
+        if (result == null || !result.family.type.equals(type)) {
+            String metric = name;
+            String instance = null;
+            if (name.startsWith(hostPrefix)) {
+                metric = name.substring(hostPrefix.length());
+                if (metric.startsWith("zookeeper.") && metric.indexOf('.', "zookeeper.".length()) > 0) {
+                    int dot = metric.indexOf('.', "zookeeper.".length());
+                    instance = metric.substring("zookeeper.".length(), dot);
+                    metric = metric.substring(dot + 1);
+                }
+            }
+            String familyName = sanitizeName(metric);
+            Family family = families.get(familyName);
+            // Replacing a family of another type would drop the series still attached to it, suffix the name instead
+            while (family != null && !family.type.equals(type)) {
+                familyName = familyName + "_" + type;
+                family = families.get(familyName);
+            }
+            if (family == null) {
+                family = new Family(familyName, type);
+                families.put(familyName, family);
+            }
+            byte[] labels = instance == null ? hostLabel
+                    : concat(hostLabel, ascii(",port=\"" + escapeLabel(instance) + "\""));
+            result = new Series(family, labels, instance);
+            series.put(name, result);
+        }
+        result.generation = generation;
+        return result;
+    }
+
+    private static String sanitizeName(String name) {
+        StringBuilder builder = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == ':'
+                    || (c >= '0' && c <= '9' && i > 0);
+            builder.append(valid ? c : '_');
+        }
+        return builder.toString();
+    }
+
+    private static String escapeLabel(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    private static Thread daemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private final class SampleVisitor implements GaugeStore.GaugeVisitor {
+
+        @Override
+        public void numeric(String name, long value) {
+            addLong(name, value);
+        }
+
+        @Override
+        public void floating(String name, double value) {
+            addDouble(name, value);
+        }
+
+    }
+
+    private final class RoleVisitor implements GaugeStore.GaugeVisitor {
+
+        private final byte[][] roleLabels = new byte[ROLES.length][];
+
+        private RoleVisitor() {
+            for (int i = 0; i < ROLES.length; i++) {
+                roleLabels[i] = ascii(",role=\"" + ROLES[i] + "\"");
+            }
+        }
+
+        @Override
+        public void numeric(String name, long value) {
+            if (value < 0 || value >= ROLES.length
+                    || !(name.endsWith(ROLE_SUFFIX) || name.endsWith(FLW_ROLE_SUFFIX))) {
+                return;
+            }
+            Series roleSeries = series(name, "gauge");
+            if (roleSeries.instance != null) {
+                roles.put(roleSeries.instance, roleLabels[(int) value]);
+            }
+        }
+
+        @Override
+        public void floating(String name, double value) {
+        }
+
+    }
+
+    private static final class Family {
+
+        private final String name;
+        private final String type;
+        private final byte[] nameBytes;
+        private final byte[] countName;
+        private final byte[] header;
+        private final ByteSink samples = new ByteSink();
+
+        private Family(String name, String type) {
+            this.name = name;
+            this.type = type;
+            this.nameBytes = ascii(name);
+            this.countName = ascii(name + "_count");
+            this.header = ascii("# TYPE " + name + " " + type + "\n");
+        }
+
+    }
+
+    private static final class Series {
+
+        private static final byte[] STANDALONE = ascii(",role=\"standalone\"");
+
+        private final Family family;
+        private final byte[] labels;
+        private final String instance;
+        private long generation;
+
+        private Series(Family family, byte[] labels, String instance) {
+            this.family = family;
+            this.labels = labels;
+            this.instance = instance;
+        }
+
+    }
+
+    private static final class ByteSink {
+
+        private final byte[] digits = new byte[20];
+        private byte[] data = new byte[1024];
+        private int size = 0;
+
+        private void reset() {
+            size = 0;
+        }
+
+        private void write(byte value) {
+            ensureCapacity(1);
+            data[size++] = value;
+        }
+
+        private void write(byte[] value) {
+            ensureCapacity(value.length);
+            System.arraycopy(value, 0, data, size, value.length);
+            size += value.length;
+        }
+
+        private void writeLong(long value) {
+            if (value == Long.MIN_VALUE) {
+                write(ascii(Long.toString(value)));
+                return;
+            }
+            if (value < 0) {
+                write((byte) '-');
+                value = -value;
+            }
+            int position = digits.length;
+            do {
+                digits[--position] = (byte) ('0' + value % 10);
+                value /= 10;
+            } while (value > 0);
+            ensureCapacity(digits.length - position);
+            System.arraycopy(digits, position, data, size, digits.length - position);
+            size += digits.length - position;
+        }
+
+        private void writeDouble(double value) {
+            if (Double.isNaN(value)) {
+                write(ascii("NaN"));
+            } else if (Double.isInfinite(value)) {
+                write(ascii(value > 0 ? "+Inf" : "-Inf"));
+            } else if (value == (long) value && Math.abs(value) < 1e15) {
+                writeLong((long) value);
+            } else {
+                String text = Double.toString(value);
+                ensureCapacity(text.length());
+                for (int i = 0; i < text.length(); i++) {
+                    data[size++] = (byte) text.charAt(i);
+                }
+            }
+        }
+
+        private void ensureCapacity(int extra) {
+            if (size + extra > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, size + extra));
+            }
+        }
+
+    }
+
+}
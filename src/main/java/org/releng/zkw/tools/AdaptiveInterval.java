@@ -0,0 +1,71 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.tools;
+
+import java.util.concurrent.TimeUnit;
+
+public final class AdaptiveInterval {
+
+    // Relative change between two samples at or above which the interval halves, and below which it grows by half
+    private static final double FAST_CHANGE = 0.25;
+    private static final double STABLE_CHANGE = 0.05;
+
+    private final PollIntervals bounds;
+    private long intervalMillis;
+    private long dueNanos;
+    private boolean scheduled = false;
+
+    public AdaptiveInterval(PollIntervals bounds) {
+        this.bounds = bounds;
+        this.intervalMillis = bounds.getInitialMillis();
+    }
+
+    public boolean isDue(long nowNanos) {
+        return !scheduled || nowNanos - dueNanos >= 0;
+    }
+
+    public long getMillis() {
+        return intervalMillis;
+    }
+
+    public PollIntervals getBounds() {
+        return bounds;
+    }
+
+    public void update(long nowNanos, double change, boolean overBudget) {
+        if (overBudget) {
+            intervalMillis = Math.min(bounds.getMaxMillis(), intervalMillis * 2);
+        } else if (change >= FAST_CHANGE) {
+            intervalMillis = Math.max(bounds.getMinMillis(), intervalMillis / 2);
+        } else if (change >= 0 && change < STABLE_CHANGE) {
+            intervalMillis = Math.min(bounds.getMaxMillis(), intervalMillis + intervalMillis / 2);
+        }
+        // Due slightly early so that a poll tick landing just before the exact due time still picks it up
+        long intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        dueNanos = nowNanos + intervalNanos - intervalNanos / 10;
+        scheduled = true;
+    }
+
+    public void expedite() {
+        scheduled = false;
+    }
+
+    public static double relativeChange(double previous, double current) {
+        double scale = Math.max(Math.max(Math.abs(previous), Math.abs(current)), 10.0);
+        return Math.abs(current - previous) / scale;
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.tools;
+
+import javax.management.ObjectName;
+import javax.management.Query;
+import javax.management.QueryExp;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+public final class BeanRequest {
+
+    private final ObjectName pattern;
+    private final QueryExp query;
+    private final QueryExp queryExp;
+    private final CollectionTier tier;
+    private final Set<String> attributes;
+    private final Map<ObjectName, Map<String, Object>> beans = new LinkedHashMap<>();
+    private final Map<ObjectName, Map<String, Object>> beansView = Collections.unmodifiableMap(beans);
+    private long generation = 0;
+    private AdaptiveInterval interval;
+    private boolean fetched = true;
+    private boolean fetchedSinceDiscovery = false;
+    private Set<ObjectName> queriedNames = Collections.emptySet();
+
+    BeanRequest(ObjectName pattern, QueryExp query, CollectionTier tier, String... attributes) {
+        this.pattern = pattern;
+        this.query = query;
+        this.tier = tier;
+        this.queryExp = query == null ? pattern : Query.and(pattern, query);
+        this.attributes = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(attributes)));
+    }
+
+    public Map<ObjectName, Map<String, Object>> getBeans() {
+        return beansView;
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    public Optional<Map<String, Object>> getFirstBean() {
+        if (beans.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(beans.values().iterator().next());
+    }
+
+    public CollectionTier getTier() {
+        return tier;
+    }
+
+    public void setInterval(AdaptiveInterval interval) {
+        this.interval = interval;
+    }
+
+    public boolean isFetched() {
+        return fetched;
+    }
+
+    ObjectName getPattern() {
+        return pattern;
+    }
+
+    Set<String> getAttributes() {
+        return attributes;
+    }
+
+    QueryExp toQueryExp() {
+        return queryExp;
+    }
+
+    boolean hasQuery() {
+        return query != null;
+    }
+
+    void setQueriedNames(Set<ObjectName> queriedNames) {
+        this.queriedNames = queriedNames;
+    }
+
+    // A query needs the MBean server to be evaluated, so its matches come from the names the server returned for it
+    boolean matches(ObjectName name) {
+        return pattern.apply(name) && (query == null || queriedNames.contains(name));
+    }
+
+    void clearBeans() {
+        beans.clear();
+        generation++;
+        fetchedSinceDiscovery = false;
+        if (interval != null) {
+            interval.expedite();
+        }
+    }
+
+    boolean isDue(long nowNanos) {
+        if (tier == CollectionTier.STATIC) {
+            return !fetchedSinceDiscovery;
+        }
+        return interval == null || interval.isDue(nowNanos);
+    }
+
+    void refetchStatic() {
+        fetchedSinceDiscovery = false;
+    }
+
+    void setFetched(boolean fetched) {
+        this.fetched = fetched;
+        fetchedSinceDiscovery |= fetched;
+    }
+
+    void addBean(ObjectName name, Map<String, Object> values) {
+        beans.put(name, values);
+    }
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.tools;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+final class ClassLoaderCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClassLoaderCache.class);
+
+    private static final int MAX_IDLE_LOADERS = Integer.getInteger("zkw.classLoaderCache.maxIdle", 4);
+
+    private static final Map<List<String>, CachedClassLoader> loadersByClasspath = new HashMap<>();
+    private static final Map<URLClassLoader, CachedClassLoader> loadersByInstance = new IdentityHashMap<>();
+    private static final LinkedHashMap<List<String>, CachedClassLoader> idleLoaders = new LinkedHashMap<>();
+    private static long hits = 0;
+    private static long misses = 0;
+    private static long evictions = 0;
+
+    private ClassLoaderCache() {
+    }
+
+    static synchronized URLClassLoader acquire(String vmId, List<URL> classpath) {
+        List<String> key = normalize(classpath);
+        CachedClassLoader cached = loadersByClasspath.get(key);
+        if (cached != null) {
+            hits++;
+            cached.references++;
+            idleLoaders.remove(key);
+            LOGGER.info("Reusing class loader for JVM with PID=[{}], [{}] references", vmId, cached.references);
+            return cached.classLoader;
+        }
+        misses++;
+        URLClassLoader classLoader = new URLClassLoader(classpath.toArray(new URL[classpath.size()]),
+                Thread.currentThread().getContextClassLoader());
+        cached = new CachedClassLoader(key, classLoader);
+        loadersByClasspath.put(key, cached);
+        loadersByInstance.put(classLoader, cached);
+        LOGGER.info("Class loader for JVM with PID=[{}] created, using URLs [{}]", vmId,
+                Arrays.stream(classLoader.getURLs()).map(URL::toExternalForm).collect(Collectors.joining(", ")));
+        return classLoader;
+    }
+
+    static synchronized void release(URLClassLoader classLoader) {
+        CachedClassLoader cached = loadersByInstance.get(classLoader);
+        if (cached == null) {
+            JmxConnectionProvider.safeCloseURLClassloader(classLoader);
+            return;
+        }
+        if (--cached.references > 0) {
+            return;
+        }
+        idleLoaders.put(cached.key, cached);
+        Iterator<CachedClassLoader> eldest = idleLoaders.values().iterator();
+        while (idleLoaders.size() > MAX_IDLE_LOADERS) {
+            CachedClassLoader evicted = eldest.next();
+            eldest.remove();
+            evict(evicted);
+            evictions++;
+        }
+    }
+
+    static synchronized void closeIdle() {
+        idleLoaders.values().forEach(ClassLoaderCache::evict);
+        idleLoaders.clear();
+    }
+
+    static synchronized long getHits() {
+        return hits;
+    }
+
+    static synchronized long getMisses() {
+        return misses;
+    }
+
+    static synchronized long getEvictions() {
+        return evictions;
+    }
+
+    static synchronized int getLoaderCount() {
+        return loadersByClasspath.size();
+    }
+
+    static synchronized int getIdleLoaderCount() {
+        return idleLoaders.size();
+    }
+
+    private static void evict(CachedClassLoader cached) {
+        loadersByClasspath.remove(cached.key);
+        loadersByInstance.remove(cached.classLoader);
+        JmxConnectionProvider.safeCloseURLClassloader(cached.classLoader);
+    }
+
+    private static List<String> normalize(List<URL> classpath) {
+        List<String> key = new ArrayList<>(classpath.size());
+        for (URL url : classpath) {
+            File file;
+            try {
+                file = new File(url.toURI()).getCanonicalFile();
+            } catch (URISyntaxException | IOException | IllegalArgumentException e) {
+                key.add(url.toExternalForm());
+                continue;
+            }
+            key.add(file.getPath() + ":" + file.lastModified() + ":" + file.length());
+        }
+        return key;
+    }
+
+    private static final class CachedClassLoader {
+
+        private final List<String> key;
+        private final URLClassLoader classLoader;
+        private int references = 1;
+
+        private CachedClassLoader(List<String> key, URLClassLoader classLoader) {
+            this.key = key;
+            this.classLoader = classLoader;
+        }
+
+    }
+
+}
@@ -0,0 +1,428 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.tools;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.InstanceNotFoundException;
+import javax.management.InvalidAttributeValueException;
+import javax.management.MBeanException;
+import javax.management.MBeanServerConnection;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.Query;
+import javax.management.QueryExp;
+import javax.management.ReflectionException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public final class CollectionPlan {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CollectionPlan.class);
+
+    private final DiscoveryCache discoveryCache;
+    private final List<BeanRequest> requests = new ArrayList<>();
+    private Map<ObjectName, BeanFetch> fetches = new HashMap<>();
+    private QueryExp requestsQuery;
+    private boolean resolved = false;
+    private long discoveredGeneration;
+    private int roundTrips = 0;
+    private long fetchTimeouts = 0;
+    private long pollDeadlineNanos;
+    private long fetchNanos = 0;
+    private Optional<FetchExecutor> fetchExecutor = Optional.empty();
+    private PollIntervals pollIntervals = PollIntervals.fixed(1);
+
+    public CollectionPlan(DiscoveryCache discoveryCache) {
+        this.discoveryCache = discoveryCache;
+    }
+
+    public void setFetchExecutor(Optional<FetchExecutor> fetchExecutor) {
+        this.fetchExecutor = fetchExecutor;
+    }
+
+    public void setPollIntervals(PollIntervals pollIntervals) {
+        this.pollIntervals = pollIntervals;
+    }
+
+    public PollIntervals getPollIntervals() {
+        return pollIntervals;
+    }
+
+    public BeanRequest request(String name, QueryExp query, String... attributes) {
+        return request(name, query, CollectionTier.HOT, attributes);
+    }
+
+    public BeanRequest request(String name, QueryExp query, CollectionTier tier, String... attributes) {
+        BeanRequest request = new BeanRequest(AttributesHelper.buildObjectName(name), query, tier, attributes);
+        requests.add(request);
+        discoveryCache.addInterest(request.getPattern());
+        requestsQuery = null;
+        resolved = false;
+        return request;
+    }
+
+    public void fetch() {
+        long startedNanos = System.nanoTime();
+        int cacheRoundTrips = discoveryCache.getRoundTrips();
+        roundTrips = 0;
+        fetchExecutor.ifPresent(e -> pollDeadlineNanos = startedNanos + e.getDeadlineNanos());
+        if (!resolved || discoveryCache.getGeneration() != discoveredGeneration) {
+            discover();
+        }
+        for (BeanRequest request : requests) {
+            request.setFetched(request.isDue(startedNanos));
+        }
+        if (fetchExecutor.isPresent()) {
+            fetchBeansInParallel(fetchExecutor.get());
+        } else {
+            for (BeanFetch fetch : fetches.values()) {
+                if (fetch.selectAttributes()) {
+                    fetchBean(fetch);
+                }
+            }
+        }
+        roundTrips += discoveryCache.getRoundTrips() - cacheRoundTrips;
+        fetchNanos = System.nanoTime() - startedNanos;
+    }
+
+    public Set<ObjectName> scanNames(ObjectName pattern) {
+        try {
+            roundTrips++;
+            return discoveryCache.getConnection().queryNames(pattern, null);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public boolean scanAttributes(ObjectName name, String[] attributes, Map<String, Object> values) {
+        values.clear();
+        try {
+            roundTrips++;
+            for (Attribute attribute : discoveryCache.getConnection().getAttributes(name, attributes).asList()) {
+                values.put(attribute.getName(), attribute.getValue());
+            }
+            return true;
+        } catch (InstanceNotFoundException e) {
+            return false;
+        } catch (ReflectionException | IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public Optional<Object> invoke(ObjectName name, String operation) {
+        return invoke(name, operation, null, null);
+    }
+
+    public Optional<Object> invoke(ObjectName name, String operation, Object[] params, String[] signature) {
+        try {
+            roundTrips++;
+            return Optional.ofNullable(discoveryCache.getConnection().invoke(name, operation, params, signature));
+        } catch (InstanceNotFoundException e) {
+            discoveryCache.invalidate(name);
+            resolved = false;
+            return Optional.empty();
+        } catch (MBeanException | ReflectionException | IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public boolean setAttribute(ObjectName name, Attribute attribute) {
+        try {
+            roundTrips++;
+            discoveryCache.getConnection().setAttribute(name, attribute);
+            return true;
+        } catch (InstanceNotFoundException | AttributeNotFoundException | InvalidAttributeValueException
+                | MBeanException | ReflectionException e) {
+            LOGGER.debug("Failed to set [{}] of [{}]", attribute.getName(), name, e);
+            return false;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public boolean addNotificationListener(ObjectName name, NotificationListener listener,
+            NotificationFilter filter)
+    {
+        try {
+            roundTrips++;
+            discoveryCache.getConnection().addNotificationListener(name, listener, filter, null);
+            return true;
+        } catch (InstanceNotFoundException e) {
+            return false;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public MBeanServerConnection getConnection() {
+        return discoveryCache.getConnection();
+    }
+
+    public int getRoundTrips() {
+        return roundTrips;
+    }
+
+    public boolean hasTimeLeft() {
+        return !fetchExecutor.isPresent() || System.nanoTime() - pollDeadlineNanos < 0;
+    }
+
+    public long getFetchTimeouts() {
+        return fetchTimeouts;
+    }
+
+    public boolean isOverBudget() {
+        return fetchNanos > TimeUnit.MILLISECONDS.toNanos(pollIntervals.getBudgetMillis());
+    }
+
+    private void discover() {
+        discoveredGeneration = discoveryCache.getGeneration();
+        Map<ObjectName, BeanFetch> discovered = new HashMap<>();
+        requests.forEach(BeanRequest::clearBeans);
+        requests.stream().filter(BeanRequest::hasQuery)
+                .forEach(r -> r.setQueriedNames(discoveryCache.queryNames(r.toQueryExp())));
+        for (ObjectName name : queryRequestedNames()) {
+            Set<String> requestedAttributes = new HashSet<>();
+            List<BeanRequest> matchedRequests = new ArrayList<>();
+            requests.stream().filter(r -> r.matches(name)).forEach(r -> {
+                requestedAttributes.addAll(r.getAttributes());
+                matchedRequests.add(r);
+            });
+            if (requestedAttributes.isEmpty()) {
+                continue;
+            }
+            BeanFetch fetch = fetches.get(name);
+            if (fetch == null) {
+                Optional<Set<String>> readableAttributes = discoveryCache.getReadableAttributes(name);
+                if (!readableAttributes.isPresent()) {
+                    continue;
+                }
+                fetch = new BeanFetch(name, readableAttributes.get());
+            }
+            fetch.setRequests(matchedRequests);
+            discovered.put(name, fetch);
+            for (BeanRequest request : matchedRequests) {
+                request.addBean(name, fetch.values);
+            }
+        }
+        LOGGER.debug("Discovered {} beans for {} requests", discovered.size(), requests.size());
+        fetches = discovered;
+        resolved = true;
+    }
+
+    private Set<ObjectName> queryRequestedNames() {
+        if (requests.isEmpty()) {
+            return new HashSet<>();
+        }
+        if (requestsQuery == null) {
+            QueryExp query = requests.get(0).toQueryExp();
+            for (int i = 1; i < requests.size(); i++) {
+                query = Query.or(query, requests.get(i).toQueryExp());
+            }
+            requestsQuery = query;
+        }
+        return discoveryCache.queryNames(requestsQuery);
+    }
+
+    private void fetchBean(BeanFetch fetch) {
+        fetch.clearSelectedValues();
+        if (fetch.attributesToQuery.length == 0) {
+            return;
+        }
+        try {
+            roundTrips++;
+            AttributeList receivedAttributes = discoveryCache.getConnection()
+                    .getAttributes(fetch.name, fetch.attributesToQuery);
+            for (Attribute attribute : receivedAttributes.asList()) {
+                fetch.values.put(attribute.getName(), attribute.getValue());
+            }
+        } catch (InstanceNotFoundException e) {
+            discoveryCache.invalidate(fetch.name);
+            resolved = false;
+        } catch (ReflectionException | IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void fetchBeansInParallel(FetchExecutor executor) {
+        long startedNanos = System.nanoTime();
+        MBeanServerConnection connection = discoveryCache.getConnection();
+        for (BeanFetch fetch : fetches.values()) {
+            if (fetch.pending != null && fetch.pending.isDone()) {
+                completeFetch(fetch);
+            }
+            if (!fetch.selectAttributes() || fetch.attributesToQuery.length == 0) {
+                continue;
+            }
+            if (fetch.pending != null) {
+                fetchTimeouts++;
+                fetch.requests.forEach(BeanRequest::refetchStatic);
+                continue;
+            }
+            roundTrips++;
+            String[] attributes = fetch.attributesToQuery;
+            fetch.running = false;
+            fetch.pending = executor.submit(() -> {
+                fetch.runningSinceNanos = System.nanoTime();
+                fetch.running = true;
+                return connection.getAttributes(fetch.name, attributes);
+            });
+            fetch.pendingAttributes = attributes;
+            fetch.pendingSince = startedNanos;
+        }
+        for (BeanFetch fetch : fetches.values()) {
+            if (fetch.pending == null || fetch.pendingSince != startedNanos) {
+                continue;
+            }
+            if (awaitFetch(fetch, executor.getBeanTimeoutNanos())) {
+                completeFetch(fetch);
+            } else {
+                fetchTimeouts++;
+                fetch.requests.forEach(BeanRequest::refetchStatic);
+                LOGGER.debug("Fetching [{}] did not complete in time", fetch.name);
+            }
+        }
+    }
+
+    // The fetch pool is shared by all VMs, so a bean's timeout only starts once its call leaves the queue
+    private boolean awaitFetch(BeanFetch fetch, long beanTimeoutNanos) {
+        while (true) {
+            long now = System.nanoTime();
+            boolean running = fetch.running;
+            long deadlineNanos = running
+                    ? Math.min(fetch.runningSinceNanos + beanTimeoutNanos, pollDeadlineNanos) : pollDeadlineNanos;
+            long waitNanos = running ? deadlineNanos - now : Math.min(deadlineNanos - now, beanTimeoutNanos);
+            if (deadlineNanos - now <= 0) {
+                return fetch.pending.isDone();
+            }
+            try {
+                fetch.pending.get(waitNanos, TimeUnit.NANOSECONDS);
+                return true;
+            } catch (TimeoutException e) {
+                if (running) {
+                    return false;
+                }
+            } catch (ExecutionException e) {
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    // Values of a bean are only replaced when a result arrives, a late one included, so a slow bean keeps its last
+    private void completeFetch(BeanFetch fetch) {
+        Future<AttributeList> completed = fetch.pending;
+        fetch.pending = null;
+        try {
+            AttributeList receivedAttributes = completed.get();
+            for (String attribute : fetch.pendingAttributes) {
+                fetch.values.remove(attribute);
+            }
+            for (Attribute attribute : receivedAttributes.asList()) {
+                fetch.values.put(attribute.getName(), attribute.getValue());
+            }
+        } catch (ExecutionException e) {
+            if (!(e.getCause() instanceof InstanceNotFoundException)) {
+                throw new RuntimeException(e.getCause());
+            }
+            discoveryCache.invalidate(fetch.name);
+            resolved = false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static final class BeanFetch {
+
+        private final ObjectName name;
+        private final Set<String> readableAttributes;
+        private final Map<String, Object> values = new HashMap<>();
+        private String[] attributesToQuery = new String[0];
+        private List<BeanRequest> requests = new ArrayList<>();
+        private long selectedRequests = 0;
+        private Future<AttributeList> pending;
+        private String[] pendingAttributes;
+        private long pendingSince;
+        private volatile long runningSinceNanos;
+        private volatile boolean running;
+
+        private BeanFetch(ObjectName name, Set<String> readableAttributes) {
+            this.name = name;
+            this.readableAttributes = readableAttributes;
+        }
+
+        private void setRequests(List<BeanRequest> requests) {
+            this.requests = requests;
+            selectedRequests = 0;
+        }
+
+        private boolean selectAttributes() {
+            long selected = 0;
+            for (int i = 0; i < requests.size(); i++) {
+                if (requests.get(i).isFetched()) {
+                    selected |= requestBit(i);
+                }
+            }
+            if (selected == 0) {
+                return false;
+            }
+            if (selected != selectedRequests) {
+                Set<String> attributes = new LinkedHashSet<>();
+                for (int i = 0; i < requests.size(); i++) {
+                    if ((selected & requestBit(i)) != 0) {
+                        requests.get(i).getAttributes().stream().filter(readableAttributes::contains)
+                                .forEach(attributes::add);
+                    }
+                }
+                attributesToQuery = attributes.toArray(new String[attributes.size()]);
+                selectedRequests = selected;
+            }
+            return true;
+        }
+
+        private void clearSelectedValues() {
+            for (String attribute : attributesToQuery) {
+                values.remove(attribute);
+            }
+        }
+
+        // Requests beyond the 63rd share the last bit, which may select a few more attributes than needed
+        private static long requestBit(int request) {
+            return 1L << Math.min(request, 63);
+        }
+
+    }
+
+}
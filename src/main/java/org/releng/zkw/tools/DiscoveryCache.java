@@ -0,0 +1,230 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.tools;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.IntrospectionException;
+import javax.management.MBeanServerConnection;
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerNotification;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.QueryExp;
+import javax.management.ReflectionException;
+import javax.management.relation.MBeanServerNotificationFilter;
+import javax.management.remote.JMXConnectionNotification;
+import javax.management.remote.JMXConnector;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class DiscoveryCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DiscoveryCache.class);
+
+    private volatile JMXConnector jmxConnector;
+    private volatile MBeanServerConnection con;
+    private final DelegateNotificationListener delegateListener = new DelegateNotificationListener();
+    private final LostNotificationsListener lostNotificationsListener = new LostNotificationsListener();
+    private final Set<ObjectName> interests = new CopyOnWriteArraySet<>();
+    private final Map<QueryExp, Set<ObjectName>> cachedNames = new ConcurrentHashMap<>();
+    private final Map<ObjectName, Set<String>> cachedReadableAttributes = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicInteger roundTrips = new AtomicInteger();
+    private final Object invalidationLock = new Object();
+    private boolean listening = false;
+
+    private DiscoveryCache(JMXConnector jmxConnector, MBeanServerConnection con) {
+        this.jmxConnector = jmxConnector;
+        this.con = con;
+    }
+
+    static DiscoveryCache open(JMXConnector jmxConnector, MBeanServerConnection con) {
+        DiscoveryCache cache = new DiscoveryCache(jmxConnector, con);
+        addDelegateNotificationListenerUnchecked(con, cache.delegateListener);
+        jmxConnector.addConnectionNotificationListener(cache.lostNotificationsListener, null, null);
+        cache.listening = true;
+        return cache;
+    }
+
+    void close() {
+        if (!listening) {
+            return;
+        }
+        listening = false;
+        safeRemoveConnectionNotificationListener(jmxConnector, lostNotificationsListener);
+        safeRemoveDelegateNotificationListener(con, delegateListener);
+    }
+
+    void reconnect(JMXConnector jmxConnector, MBeanServerConnection con) {
+        close();
+        this.jmxConnector = jmxConnector;
+        this.con = con;
+        addDelegateNotificationListenerUnchecked(con, delegateListener);
+        jmxConnector.addConnectionNotificationListener(lostNotificationsListener, null, null);
+        listening = true;
+        LOGGER.debug("Discovery cache moved to a new connection, invalidating cached names");
+        invalidateNames();
+    }
+
+    public MBeanServerConnection getConnection() {
+        return con;
+    }
+
+    public void addInterest(ObjectName pattern) {
+        if (interests.add(pattern)) {
+            invalidateAll();
+        }
+    }
+
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    public int getRoundTrips() {
+        return roundTrips.get();
+    }
+
+    public Set<ObjectName> queryNames(QueryExp query) {
+        Set<ObjectName> names = cachedNames.get(query);
+        if (names != null) {
+            return names;
+        }
+        long queryGeneration = generation.get();
+        try {
+            roundTrips.incrementAndGet();
+            names = Collections.unmodifiableSet(con.queryNames(null, query));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        synchronized (invalidationLock) {
+            if (generation.get() == queryGeneration) {
+                cachedNames.put(query, names);
+            }
+        }
+        return names;
+    }
+
+    public Optional<Set<String>> getReadableAttributes(ObjectName name) {
+        Set<String> attributes = cachedReadableAttributes.get(name);
+        if (attributes != null) {
+            return Optional.of(attributes);
+        }
+        try {
+            roundTrips.incrementAndGet();
+            attributes = Collections.unmodifiableSet(AttributesHelper.readableAttributes(con.getMBeanInfo(name)));
+        } catch (InstanceNotFoundException e) {
+            return Optional.empty();
+        } catch (IntrospectionException | ReflectionException | IOException e) {
+            throw new RuntimeException(e);
+        }
+        cachedReadableAttributes.put(name, attributes);
+        return Optional.of(attributes);
+    }
+
+    public void invalidate(ObjectName name) {
+        cachedReadableAttributes.remove(name);
+        invalidateNames();
+    }
+
+    public void invalidateAll() {
+        cachedReadableAttributes.clear();
+        invalidateNames();
+    }
+
+    private void invalidateNames() {
+        synchronized (invalidationLock) {
+            cachedNames.clear();
+            generation.incrementAndGet();
+        }
+    }
+
+    private void onRegistrationChange(ObjectName name) {
+        cachedReadableAttributes.remove(name);
+        if (interests.stream().anyMatch(p -> p.apply(name))) {
+            LOGGER.debug("Discovery cache invalidated by registration change of [{}]", name);
+            invalidateNames();
+        }
+    }
+
+    private static void addDelegateNotificationListenerUnchecked(MBeanServerConnection con,
+            DelegateNotificationListener listener)
+    {
+        MBeanServerNotificationFilter filter = new MBeanServerNotificationFilter();
+        filter.enableAllObjectNames();
+        filter.enableType(MBeanServerNotification.REGISTRATION_NOTIFICATION);
+        filter.enableType(MBeanServerNotification.UNREGISTRATION_NOTIFICATION);
+        try {
+            con.addNotificationListener(MBeanServerDelegate.DELEGATE_NAME, listener, filter, null);
+        } catch (InstanceNotFoundException | IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void safeRemoveDelegateNotificationListener(MBeanServerConnection con,
+            DelegateNotificationListener listener)
+    {
+        try {
+            con.removeNotificationListener(MBeanServerDelegate.DELEGATE_NAME, listener);
+        } catch (Exception e) {
+            LOGGER.error("Error removing MBean server delegate notification listener", e);
+        }
+    }
+
+    private static void safeRemoveConnectionNotificationListener(JMXConnector jmxConnector,
+            LostNotificationsListener listener)
+    {
+        try {
+            jmxConnector.removeConnectionNotificationListener(listener, null, null);
+        } catch (Exception e) {
+            LOGGER.error("Error removing connection notification listener", e);
+        }
+    }
+
+    private final class DelegateNotificationListener implements NotificationListener {
+
+        @Override
+        public void handleNotification(Notification notification, Object handback) {
+            if (notification instanceof MBeanServerNotification) {
+                onRegistrationChange(((MBeanServerNotification) notification).getMBeanName());
+            }
+        }
+
+    }
+
+    private final class LostNotificationsListener implements NotificationListener {
+
+        @Override
+        public void handleNotification(Notification notification, Object handback) {
+            if (JMXConnectionNotification.NOTIFS_LOST.equals(notification.getType())) {
+                LOGGER.info("MBean registration notifications were lost, invalidating discovery cache");
+                invalidateAll();
+            }
+        }
+
+    }
+
+}
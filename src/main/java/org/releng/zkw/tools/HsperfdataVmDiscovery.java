@@ -0,0 +1,378 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.tools;
+
+import com.sun.tools.attach.VirtualMachineDescriptor;
+import com.sun.tools.attach.spi.AttachProvider;
+import org.releng.zkw.perfdata.PerfDataFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+public final class HsperfdataVmDiscovery {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HsperfdataVmDiscovery.class);
+
+    private static final String HSPERFDATA_PREFIX = "hsperfdata_";
+    private static final Pattern PID = Pattern.compile("\\d+");
+    private static final long PENDING_RETRY_MILLIS = 100;
+    private static final long PENDING_TIMEOUT_MILLIS = 5000;
+
+    private final Path tmpDir;
+    private final long fullScanPauseMillis;
+    private final Runnable onChange;
+    private final AttachProvider attachProvider;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> watchedDirs = new HashMap<>();
+    private final Map<Path, PerfFile> files = new HashMap<>();
+    private final Map<Path, Long> pendingFiles = new HashMap<>();
+    private final Thread thread;
+    private volatile Set<VirtualMachineDescriptor> watchedVMs = new HashSet<>();
+    private volatile Map<String, Long> vmCreationMillis = new HashMap<>();
+    private volatile Set<VirtualMachineDescriptor> scannedVMs = new HashSet<>();
+    private volatile boolean shutdown = false;
+    private long nextFullScanMillis = 0;
+
+    private HsperfdataVmDiscovery(Path tmpDir, long fullScanPauseMillis, Runnable onChange,
+            AttachProvider attachProvider, WatchService watchService)
+    {
+        this.tmpDir = tmpDir;
+        this.fullScanPauseMillis = fullScanPauseMillis;
+        this.onChange = onChange;
+        this.attachProvider = attachProvider;
+        this.watchService = watchService;
+        this.thread = new Thread(this::run, "zkw-vm-discovery");
+        this.thread.setDaemon(true);
+    }
+
+    public static Optional<HsperfdataVmDiscovery> start(long fullScanPauseMillis, Runnable onChange) {
+        List<AttachProvider> providers = AttachProvider.providers();
+        if (providers.isEmpty()) {
+            LOGGER.warn("No attach provider available, hsperfdata VM discovery is disabled");
+            return Optional.empty();
+        }
+        Path tmpDir = Paths.get(System.getProperty("java.io.tmpdir"));
+        WatchService watchService;
+        try {
+            watchService = tmpDir.getFileSystem().newWatchService();
+        } catch (IOException | UnsupportedOperationException e) {
+            LOGGER.warn("Unable to watch [{}], hsperfdata VM discovery is disabled", tmpDir, e);
+            return Optional.empty();
+        }
+        HsperfdataVmDiscovery discovery = new HsperfdataVmDiscovery(tmpDir, fullScanPauseMillis, onChange,
+                providers.get(0), watchService);
+        if (!discovery.watchDir(tmpDir)) {
+            discovery.safeCloseWatchService();
+            return Optional.empty();
+        }
+        discovery.rescanDirs();
+        discovery.fullScan();
+        discovery.thread.start();
+        LOGGER.info("Watching hsperfdata directories in [{}] for VM changes", tmpDir);
+        return Optional.of(discovery);
+    }
+
+    public Set<VirtualMachineDescriptor> getZkVmDescriptors() {
+        Set<VirtualMachineDescriptor> result = new HashSet<>(watchedVMs);
+        result.addAll(scannedVMs);
+        return result;
+    }
+
+    public Optional<Long> getVmCreationMillis(String pid) {
+        return Optional.ofNullable(vmCreationMillis.get(pid));
+    }
+
+    public void shutdown() {
+        shutdown = true;
+        safeCloseWatchService();
+        try {
+            thread.join(100);
+        } catch (InterruptedException e) {
+        }
+    }
+
+    private void run() {
+        try {
+            while (!shutdown) {
+                long waitMillis = pendingFiles.isEmpty()
+                        ? Math.max(1, nextFullScanMillis - System.currentTimeMillis()) : PENDING_RETRY_MILLIS;
+                WatchKey key = watchService.poll(waitMillis, TimeUnit.MILLISECONDS);
+                boolean changed = false;
+                while (key != null) {
+                    changed |= processEvents(key);
+                    key = watchService.poll();
+                }
+                changed |= retryPendingFiles();
+                if (System.currentTimeMillis() >= nextFullScanMillis) {
+                    changed |= fullScan();
+                }
+                if (changed) {
+                    onChange.run();
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+        } catch (Exception e) {
+            LOGGER.error("hsperfdata VM discovery error", e);
+        }
+    }
+
+    private boolean processEvents(WatchKey key) {
+        Path dir = watchedDirs.get(key);
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                changed |= rescanDirs();
+                continue;
+            }
+            if (dir == null) {
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context());
+            if (dir.equals(tmpDir)) {
+                if (isHsperfdataDir(path) && event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    watchDir(path);
+                    changed |= rescanDir(path);
+                }
+            } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                changed |= removeFile(path);
+            } else {
+                changed |= updateFile(path);
+            }
+        }
+        if (!key.reset()) {
+            watchedDirs.remove(key);
+            if (dir != null && !dir.equals(tmpDir)) {
+                changed |= files.keySet().removeIf(p -> p.startsWith(dir));
+                pendingFiles.keySet().removeIf(p -> p.startsWith(dir));
+                publishWatchedVMs();
+            }
+        }
+        return changed;
+    }
+
+    private boolean rescanDirs() {
+        boolean changed = false;
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(tmpDir, HSPERFDATA_PREFIX + "*")) {
+            for (Path dir : dirs) {
+                if (isHsperfdataDir(dir)) {
+                    if (!watchedDirs.containsValue(dir)) {
+                        watchDir(dir);
+                    }
+                    changed |= rescanDir(dir);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Unable to list [{}]", tmpDir, e);
+        }
+        return changed;
+    }
+
+    private boolean rescanDir(Path dir) {
+        boolean changed = false;
+        Set<Path> present = new HashSet<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path path : entries) {
+                present.add(path);
+                changed |= updateFile(path);
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        for (Iterator<Path> i = files.keySet().iterator(); i.hasNext(); ) {
+            Path path = i.next();
+            if (path.getParent().equals(dir) && !present.contains(path)) {
+                i.remove();
+                changed = true;
+            }
+        }
+        if (changed) {
+            publishWatchedVMs();
+        }
+        return changed;
+    }
+
+    private boolean updateFile(Path path) {
+        String pid = path.getFileName().toString();
+        if (!PID.matcher(pid).matches()) {
+            return false;
+        }
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return removeFile(path);
+        }
+        PerfFile known = files.get(path);
+        long modified = attributes.lastModifiedTime().toMillis();
+        if (known != null && known.modified == modified && known.size == attributes.size()) {
+            return false;
+        }
+        Optional<PerfDataFile> perfData = openPerfData(path);
+        Optional<String> command = perfData.flatMap(f -> f.getString("sun.rt.javaCommand"));
+        if (!command.isPresent()) {
+            pendingFiles.putIfAbsent(path, System.currentTimeMillis());
+            return false;
+        }
+        pendingFiles.remove(path);
+        VirtualMachineDescriptor descriptor = null;
+        long createdMillis = 0;
+        if (ZkVmProvider.isZkVm(command.get()) && isAlive(pid)) {
+            descriptor = new VirtualMachineDescriptor(attachProvider, pid, command.get());
+            createdMillis = perfData.get().getLongCounter("sun.rt.createVmBeginTime")
+                    .map(PerfDataFile.LongCounter::get).orElse(0L);
+        }
+        files.put(path, new PerfFile(modified, attributes.size(), descriptor, createdMillis));
+        publishWatchedVMs();
+        return descriptor != null;
+    }
+
+    private boolean removeFile(Path path) {
+        pendingFiles.remove(path);
+        boolean forgotten = forgetScannedVm(path.getFileName().toString());
+        PerfFile removed = files.remove(path);
+        if (removed == null) {
+            return forgotten;
+        }
+        publishWatchedVMs();
+        return removed.descriptor != null || forgotten;
+    }
+
+    private boolean retryPendingFiles() {
+        boolean changed = false;
+        long now = System.currentTimeMillis();
+        for (Path path : new HashSet<>(pendingFiles.keySet())) {
+            changed |= updateFile(path);
+            Long since = pendingFiles.get(path);
+            if (since != null && now - since > PENDING_TIMEOUT_MILLIS) {
+                LOGGER.debug("Giving up on reading hsperfdata file [{}]", path);
+                pendingFiles.remove(path);
+            }
+        }
+        return changed;
+    }
+
+    private boolean fullScan() {
+        boolean changed = files.values().removeIf(f -> f.descriptor != null && !isAlive(f.descriptor.id()));
+        if (changed) {
+            publishWatchedVMs();
+        }
+        Set<VirtualMachineDescriptor> scanned = new HashSet<>(ZkVmProvider.getZkVmDescriptors());
+        changed |= !scanned.equals(scannedVMs);
+        scannedVMs = scanned;
+        nextFullScanMillis = System.currentTimeMillis() + fullScanPauseMillis;
+        return changed;
+    }
+
+    private void publishWatchedVMs() {
+        Set<VirtualMachineDescriptor> result = new HashSet<>();
+        Map<String, Long> creationMillis = new HashMap<>();
+        files.values().forEach(f -> {
+            if (f.descriptor != null) {
+                result.add(f.descriptor);
+                if (f.createdMillis > 0) {
+                    creationMillis.put(f.descriptor.id(), f.createdMillis);
+                }
+            }
+        });
+        for (VirtualMachineDescriptor previous : watchedVMs) {
+            if (!result.contains(previous)) {
+                forgetScannedVm(previous.id());
+            }
+        }
+        vmCreationMillis = creationMillis;
+        watchedVMs = result;
+    }
+
+    // The last full scan may still list a VM that is gone, it would be reported until the next scan otherwise
+    private boolean forgetScannedVm(String pid) {
+        if (scannedVMs.stream().noneMatch(d -> d.id().equals(pid))) {
+            return false;
+        }
+        Set<VirtualMachineDescriptor> remaining = new HashSet<>(scannedVMs);
+        remaining.removeIf(d -> d.id().equals(pid));
+        scannedVMs = remaining;
+        return true;
+    }
+
+    private boolean watchDir(Path dir) {
+        try {
+            watchedDirs.put(dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), dir);
+            return true;
+        } catch (IOException e) {
+            LOGGER.debug("Unable to watch [{}]", dir, e);
+            return false;
+        }
+    }
+
+    private void safeCloseWatchService() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            LOGGER.error("Error closing watch service", e);
+        }
+    }
+
+    private static Optional<PerfDataFile> openPerfData(Path path) {
+        return PerfDataFile.open(path).filter(PerfDataFile::isAccessible);
+    }
+
+    private static boolean isHsperfdataDir(Path path) {
+        return path.getFileName().toString().startsWith(HSPERFDATA_PREFIX) && Files.isDirectory(path);
+    }
+
+    private static boolean isAlive(String pid) {
+        Path proc = Paths.get("/proc");
+        return !Files.isDirectory(proc) || Files.exists(proc.resolve(pid));
+    }
+
+    private static final class PerfFile {
+
+        private final long modified;
+        private final long size;
+        private final VirtualMachineDescriptor descriptor;
+        private final long createdMillis;
+
+        private PerfFile(long modified, long size, VirtualMachineDescriptor descriptor, long createdMillis) {
+            this.modified = modified;
+            this.size = size;
+            this.descriptor = descriptor;
+            this.createdMillis = createdMillis;
+        }
+
+    }
+
+}
@@ -18,7 +18,6 @@ package org.releng.zkw.tools;
 import com.sun.tools.attach.AgentInitializationException;
 import com.sun.tools.attach.AgentLoadException;
 import com.sun.tools.attach.VirtualMachine;
-import org.releng.zkw.functional.Function1V;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -51,29 +50,7 @@ public final class JmxConnectionProvider {
     private JmxConnectionProvider() {
     }
 
-    public static void withJmxConnector(VirtualMachine virtualMachine, Function1V<JMXConnector> handler) {
-        String connectionAddress = prepareConnectionAddress(virtualMachine);
-        JMXServiceURL jmxServiceURL = prepareJMXServiceURLUnchecked(connectionAddress);
-        URLClassLoader classLoader = buildTargetLocalVmClassloader(virtualMachine);
-        try {
-            JMXConnector jmxConnector = connectToJMXUnchecked(jmxServiceURL, classLoader);
-            try {
-                JmxConnectionNotificationListener jmxConnectionNotificationListener = new JmxConnectionNotificationListener();
-                jmxConnector.addConnectionNotificationListener(jmxConnectionNotificationListener, null, null);
-                try {
-                    handler.apply(jmxConnector);
-                } finally {
-                    safeRemoveConnectionNotificationListener(jmxConnector, jmxConnectionNotificationListener);
-                }
-            } finally {
-                safeCloseJMXConnection(jmxConnector);
-            }
-        } finally {
-            safeCloseURLClassloader(classLoader);
-        }
-    }
-
-    private static String prepareConnectionAddress(VirtualMachine virtualMachine) {
+    static String prepareConnectionAddress(VirtualMachine virtualMachine) {
         String connectorAddress = getAgentPropertiesUnchecked(virtualMachine).getProperty(CONNECTOR_ADDRESS);
         if (connectorAddress != null) {
             return connectorAddress;
@@ -110,7 +87,7 @@ public final class JmxConnectionProvider {
         }
     }
 
-    private static JMXServiceURL prepareJMXServiceURLUnchecked(String connectionAddress) {
+    static JMXServiceURL prepareJMXServiceURLUnchecked(String connectionAddress) {
         try {
             return new JMXServiceURL(connectionAddress);
         } catch (MalformedURLException e) {
@@ -118,7 +95,7 @@ public final class JmxConnectionProvider {
         }
     }
 
-    private static JMXConnector connectToJMXUnchecked(JMXServiceURL jmxServiceURL, ClassLoader classLoader) {
+    static JMXConnector connectToJMXUnchecked(JMXServiceURL jmxServiceURL, ClassLoader classLoader) {
         try {
             LOGGER.info("Establishing JMX connection to [{}]...", jmxServiceURL.toString());
             Map<String, Object> environment = new HashMap<>();
@@ -132,7 +109,7 @@ public final class JmxConnectionProvider {
         }
     }
 
-    private static void safeCloseJMXConnection(JMXConnector jmxConnector) {
+    static void safeCloseJMXConnection(JMXConnector jmxConnector) {
         try {
             String connectionId = safeGetJmxConnectionId(jmxConnector).orElse("<Undefined>");
             LOGGER.info("Closing JMX connection [{}]...", connectionId);
@@ -151,8 +128,14 @@ public final class JmxConnectionProvider {
         }
     }
 
-    private static void safeRemoveConnectionNotificationListener(JMXConnector jmxConnector,
-            JmxConnectionNotificationListener jmxConnectionNotificationListener)
+    static NotificationListener addConnectionNotificationListener(JMXConnector jmxConnector) {
+        JmxConnectionNotificationListener jmxConnectionNotificationListener = new JmxConnectionNotificationListener();
+        jmxConnector.addConnectionNotificationListener(jmxConnectionNotificationListener, null, null);
+        return jmxConnectionNotificationListener;
+    }
+
+    static void safeRemoveConnectionNotificationListener(JMXConnector jmxConnector,
+            NotificationListener jmxConnectionNotificationListener)
     {
         try {
             jmxConnector.removeConnectionNotificationListener(jmxConnectionNotificationListener, null, null);
@@ -170,18 +153,12 @@ public final class JmxConnectionProvider {
 
     }
 
-    private static URLClassLoader buildTargetLocalVmClassloader(VirtualMachine virtualMachine) {
-        LOGGER.info("Creating class loader for JVM with PID=[{}]...", virtualMachine.id());
-        ClassLoader defaultClassLoader = Thread.currentThread().getContextClassLoader();
+    static URLClassLoader acquireTargetLocalVmClassloader(VirtualMachine virtualMachine) {
+        LOGGER.info("Resolving class loader for JVM with PID=[{}]...", virtualMachine.id());
         List<String> classpath = getVmClasspath(virtualMachine);
         List<URL> classloaderURLs = classpath.stream().flatMap(e -> resolveClasspathEntry(e).stream())
                 .distinct().collect(Collectors.toList());
-        URL[] classloaderURLsArray = new URL[classloaderURLs.size()];
-        classloaderURLs.toArray(classloaderURLsArray);
-        URLClassLoader result = new URLClassLoader(classloaderURLsArray, defaultClassLoader);
-        LOGGER.info("Class loader for JVM with PID=[{}] created, using URLs [{}]", virtualMachine.id(),
-                Arrays.stream(result.getURLs()).map(URL::toExternalForm).collect(Collectors.joining(", ")));
-        return result;
+        return ClassLoaderCache.acquire(virtualMachine.id(), classloaderURLs);
     }
 
     private static List<String> getVmClasspath(VirtualMachine virtualMachine) {
@@ -216,8 +193,12 @@ public final class JmxConnectionProvider {
         if (!dir.exists() || !dir.isDirectory()) {
             return new ArrayList<>();
         }
-        return Arrays.stream(dir.list((f, n) -> f.isFile() && n.toLowerCase().endsWith(".jar")))
-                .map(n -> toURL(new File(dir, n))).collect(Collectors.toList());
+        String[] jars = dir.list((f, n) -> new File(f, n).isFile() && n.toLowerCase().endsWith(".jar"));
+        if (jars == null) {
+            return new ArrayList<>();
+        }
+        Arrays.sort(jars);
+        return Arrays.stream(jars).map(n -> toURL(new File(dir, n))).collect(Collectors.toList());
     }
 
     private static URL toURL(File file) {
@@ -228,7 +209,7 @@ public final class JmxConnectionProvider {
         }
     }
 
-    private static void safeCloseURLClassloader(URLClassLoader urlClassLoader) {
+    static void safeCloseURLClassloader(URLClassLoader urlClassLoader) {
         try {
             LOGGER.info("Closing URL class loader...");
             urlClassLoader.close();
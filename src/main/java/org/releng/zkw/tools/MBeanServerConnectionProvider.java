@@ -15,7 +15,6 @@
  */
 package org.releng.zkw.tools;
 
-import org.releng.zkw.functional.Function1V;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,12 +29,7 @@ public final class MBeanServerConnectionProvider {
     private MBeanServerConnectionProvider() {
     }
 
-    public static void withMBeanServerConnection(JMXConnector jmxConnector, Function1V<MBeanServerConnection> handler) {
-        MBeanServerConnection mBeanServerConnection = connectToMBeanServerUnchecked(jmxConnector);
-        handler.apply(mBeanServerConnection);
-    }
-
-    private static MBeanServerConnection connectToMBeanServerUnchecked(JMXConnector jmxConnector) {
+    static MBeanServerConnection connectToMBeanServerUnchecked(JMXConnector jmxConnector) {
         try {
             LOGGER.info("Connecting to MBean server with connection [{}]...", jmxConnector.getConnectionId());
             MBeanServerConnection mBeanServerConnection = jmxConnector.getMBeanServerConnection();
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.tools;
+
+public final class PollIntervals {
+
+    private final long minMillis;
+    private final long initialMillis;
+    private final long maxMillis;
+    private final long budgetMillis;
+    private final long warmFactor;
+
+    public PollIntervals(long minMillis, long initialMillis, long maxMillis, long budgetMillis) {
+        this(minMillis, initialMillis, maxMillis, budgetMillis, 6);
+    }
+
+    public PollIntervals(long minMillis, long initialMillis, long maxMillis, long budgetMillis, long warmFactor) {
+        if (minMillis <= 0 || maxMillis < minMillis) {
+            throw new IllegalArgumentException("Invalid poll interval bounds [" + minMillis + ", " + maxMillis + "]");
+        }
+        this.minMillis = minMillis;
+        this.initialMillis = Math.max(minMillis, Math.min(maxMillis, initialMillis));
+        this.maxMillis = maxMillis;
+        this.budgetMillis = budgetMillis;
+        this.warmFactor = Math.max(1, warmFactor);
+    }
+
+    public static PollIntervals fixed(long intervalMillis) {
+        return new PollIntervals(intervalMillis, intervalMillis, intervalMillis, Long.MAX_VALUE);
+    }
+
+    public long getMinMillis() {
+        return minMillis;
+    }
+
+    public long getInitialMillis() {
+        return initialMillis;
+    }
+
+    public long getMaxMillis() {
+        return maxMillis;
+    }
+
+    public long getBudgetMillis() {
+        return budgetMillis;
+    }
+
+    public PollIntervals getWarmIntervals() {
+        return new PollIntervals(minMillis * warmFactor, initialMillis * warmFactor, maxMillis * warmFactor,
+                budgetMillis, 1);
+    }
+
+    public boolean isAdaptive() {
+        return minMillis < maxMillis;
+    }
+
+    @Override
+    public String toString() {
+        return isAdaptive() ? minMillis + ".." + maxMillis + " ms" : minMillis + " ms";
+    }
+
+}
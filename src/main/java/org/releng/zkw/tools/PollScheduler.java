@@ -0,0 +1,149 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.tools;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public final class PollScheduler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PollScheduler.class);
+
+    // Golden ratio conjugate, successive multiples modulo 1 spread start offsets evenly over the poll period
+    private static final double STAGGER_STEP = 0.6180339887498949;
+
+    private final ScheduledThreadPoolExecutor executor;
+    private final long jitterMillis;
+    private double staggerPosition = 0.0;
+
+    public PollScheduler(int workers, long jitterMillis) {
+        AtomicInteger threadCounter = new AtomicInteger();
+        this.executor = new ScheduledThreadPoolExecutor(workers, r -> {
+            Thread thread = new Thread(r, "zkw-poll-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.setRemoveOnCancelPolicy(true);
+        this.jitterMillis = jitterMillis;
+    }
+
+    public ScheduledPoll schedule(PollTask task, long periodMillis) {
+        long periodNanos = periodNanos(periodMillis);
+        long offsetNanos;
+        synchronized (this) {
+            offsetNanos = (long) (staggerPosition * periodNanos);
+            staggerPosition = (staggerPosition + STAGGER_STEP) % 1.0;
+        }
+        ScheduledPoll poll = new ScheduledPoll(task, periodNanos, System.nanoTime() + offsetNanos);
+        poll.scheduleNext(System.nanoTime());
+        return poll;
+    }
+
+    // A zero period would divide by zero when catching up on missed periods and stop the poll
+    private static long periodNanos(long periodMillis) {
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(1, periodMillis));
+    }
+
+    public void execute(Runnable command) {
+        try {
+            executor.execute(command);
+        } catch (RejectedExecutionException e) {
+            command.run();
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(100, TimeUnit.MILLISECONDS)) {
+                LOGGER.info("Poll scheduler did not terminate in time, some polls are still running");
+            }
+        } catch (InterruptedException e) {
+        }
+    }
+
+    public final class ScheduledPoll implements Runnable {
+
+        private final PollTask task;
+        private volatile long periodNanos;
+        private long deadlineNanos;
+        private long plannedStartNanos;
+        private volatile boolean cancelled = false;
+        private volatile ScheduledFuture<?> future;
+
+        private ScheduledPoll(PollTask task, long periodNanos, long deadlineNanos) {
+            this.task = task;
+            this.periodNanos = periodNanos;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            long startNanos = System.nanoTime();
+            try {
+                task.poll(TimeUnit.NANOSECONDS.toMillis(Math.max(0, startNanos - plannedStartNanos)));
+            } catch (Exception e) {
+                LOGGER.error("Poll task error", e);
+            }
+            long finishNanos = System.nanoTime();
+            long periodNanos = this.periodNanos;
+            deadlineNanos += periodNanos;
+            if (deadlineNanos < finishNanos) {
+                long missedPeriods = (finishNanos - deadlineNanos) / periodNanos + 1;
+                deadlineNanos += missedPeriods * periodNanos;
+            }
+            scheduleNext(finishNanos);
+        }
+
+        public void setPeriodMillis(long periodMillis) {
+            periodNanos = periodNanos(periodMillis);
+        }
+
+        public void cancel() {
+            cancelled = true;
+            ScheduledFuture<?> scheduledFuture = future;
+            if (scheduledFuture != null) {
+                scheduledFuture.cancel(false);
+            }
+        }
+
+        private void scheduleNext(long nowNanos) {
+            if (cancelled) {
+                return;
+            }
+            long jitterNanos = jitterMillis > 0
+                    ? ThreadLocalRandom.current().nextLong(TimeUnit.MILLISECONDS.toNanos(jitterMillis)) : 0;
+            plannedStartNanos = deadlineNanos + jitterNanos;
+            try {
+                future = executor.schedule(this, plannedStartNanos - nowNanos, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                cancelled = true;
+            }
+        }
+
+    }
+
+}
@@ -15,104 +15,357 @@
  */
 package org.releng.zkw.tools;
 
+import com.codahale.metrics.Histogram;
 import com.sun.tools.attach.VirtualMachineDescriptor;
+import org.releng.zkw.functional.Function0V;
+import org.releng.zkw.metrics.CollectorDefinitions;
+import org.releng.zkw.metrics.CounterGauge;
+import org.releng.zkw.metrics.DefinitionsCollector;
+import org.releng.zkw.metrics.GcEventCollector;
 import org.releng.zkw.metrics.JvmMetricsCollector;
+import org.releng.zkw.metrics.MetricGroup;
 import org.releng.zkw.metrics.MetricsCollection;
+import org.releng.zkw.metrics.PerfDataMetricsCollector;
+import org.releng.zkw.metrics.ThreadSamplingCollector;
 import org.releng.zkw.metrics.ZkMetricsCollector;
+import org.releng.zkw.perfdata.PerfDataFile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.management.MBeanServerConnection;
-import javax.management.ObjectName;
 import javax.management.Query;
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
-import static org.releng.zkw.tools.AttributesHelper.getBeanAttributes;
-import static org.releng.zkw.tools.AttributesHelper.queryNames;
-import static org.releng.zkw.tools.JmxConnectionProvider.withJmxConnector;
-import static org.releng.zkw.tools.MBeanServerConnectionProvider.withMBeanServerConnection;
-import static org.releng.zkw.tools.ZkVmProvider.withZkVm;
-
-public class ZkVmListener implements Runnable {
+public class ZkVmListener {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ZkVmListener.class);
 
+    private static final long MIN_RETRY_DELAY_MILLIS = 1000;
+    private static final long MAX_RETRY_DELAY_MILLIS = 60000;
+
     private volatile boolean shutdown = false;
-    private final Object shutdownLock = new Object();
+    private final Object pollLock = new Object();
     private final VirtualMachineDescriptor vmDescriptor;
-    private final long pollPauseMillis;
+    private final PollIntervals pollIntervals;
+    private final PollScheduler pollScheduler;
+    private final boolean jmxEnabled;
+    private final boolean perfDataEnabled;
+    private final Optional<FetchExecutor> fetchExecutor;
+    private volatile PollScheduler.ScheduledPoll scheduledPoll;
+    private long pollPauseMillis;
+    private MetricsCollection metrics;
+    private PerfDataMetricsCollector perfDataMetricsCollector;
+    private boolean perfDataMissingLogged = false;
+    private ZkVmSession session;
+    private CollectionPlan plan;
+    private BeanRequest zkServerPortBeans;
+    private BeanRequest zkReplicatedServerPortBeans;
+    private JvmMetricsCollector jvmMetricsCollector;
+    private ZkMetricsCollector zkMetricsCollector;
+    private GcEventCollector gcEventCollector;
+    private ThreadSamplingCollector threadSamplingCollector;
+    private DefinitionsCollector customMetricsCollector;
     private String prefix;
+    private boolean prefixResolved = false;
+    private MetricGroup zkwMetrics;
+    private boolean connected = false;
+    private int failures = 0;
+    private long nextAttemptMillis = 0;
+    private long collectorErrors = 0;
+    private final Map<String, CollectorStats> collectorStats = new HashMap<>();
+    private Histogram pollTimer;
+    private Histogram fetchTimer;
+    private long pollStartedNanos;
+    private long fetchNanos = -1;
+    private long pollOverruns = 0;
+    private long pollFailures = 0;
 
-    public ZkVmListener(VirtualMachineDescriptor vmDescriptor, long pollPauseMillis) {
+    public ZkVmListener(VirtualMachineDescriptor vmDescriptor, PollIntervals pollIntervals,
+            PollScheduler pollScheduler, Set<CollectionBackend> backends, Optional<FetchExecutor> fetchExecutor)
+    {
         this.vmDescriptor = vmDescriptor;
-        this.pollPauseMillis = pollPauseMillis;
+        this.pollIntervals = pollIntervals;
+        this.pollPauseMillis = pollIntervals.getInitialMillis();
+        this.pollScheduler = pollScheduler;
+        this.jmxEnabled = backends.contains(CollectionBackend.JMX);
+        this.perfDataEnabled = backends.contains(CollectionBackend.PERFDATA);
+        this.fetchExecutor = fetchExecutor;
+    }
+
+    public void start() {
+        LOGGER.info("VM listener is running for VM with PID=[{}]...", vmDescriptor.id());
+        scheduledPoll = pollScheduler.schedule(this::poll, pollPauseMillis);
+    }
+
+    public boolean isStopped() {
+        return shutdown;
     }
 
-    @Override
-    public void run() {
+    public void shutdown() {
+        shutdown = true;
+        if (scheduledPoll != null) {
+            scheduledPoll.cancel();
+        }
+        pollScheduler.execute(this::closeSession);
+    }
+
+    private void poll(long scheduleLagMillis) {
+        synchronized (pollLock) {
+            if (shutdown) {
+                return;
+            }
+            pollStartedNanos = System.nanoTime();
+            boolean jmxReady = jmxEnabled && fetchJmx();
+            if (perfDataEnabled && perfDataMetricsCollector == null) {
+                openPerfData();
+            }
+            if (prefix == null && !jmxReady && perfDataMetricsCollector == null) {
+                return;
+            }
+            String metricsPrefix = getMetricsPrefix(jmxReady);
+            if (metrics == null) {
+                metrics = MetricsCollection.create();
+            }
+            metrics.beginUpdate();
+            try {
+                if (jmxReady) {
+                    collectJmx(metricsPrefix);
+                }
+                if (perfDataMetricsCollector != null) {
+                    safeCollect("perfdata", () -> perfDataMetricsCollector.collectMetrics(metricsPrefix, metrics));
+                }
+                collectZkwMetrics(metricsPrefix, scheduleLagMillis);
+            } finally {
+                metrics.endUpdate();
+            }
+        }
+    }
+
+    private boolean fetchJmx() {
+        if (!connected && System.currentTimeMillis() < nextAttemptMillis) {
+            return false;
+        }
         try {
-            doListen();
+            if (session == null) {
+                openSession();
+            } else if (!connected) {
+                session.reconnect(failures > 1);
+            }
+            connected = true;
+            long fetchStarted = System.nanoTime();
+            plan.fetch();
+            fetchNanos = System.nanoTime() - fetchStarted;
+            return true;
         } catch (Exception e) {
-            LOGGER.error("VM listener error", e);
+            onPollFailure(e);
+            return false;
         }
     }
 
-    private void doListen() {
-        LOGGER.info("VM listener is running for VM with PID=[{}]...", vmDescriptor.id());
-        withZkVm(vmDescriptor, vm -> withJmxConnector(vm, con -> withMBeanServerConnection(con, mbsc -> {
-            MetricsCollection.withMetrics(mc -> {
-                synchronized (shutdownLock) {
-                    while (!shutdown) {
-                        pollVM(mc, mbsc);
-                        try {
-                            shutdownLock.wait(pollPauseMillis);
-                        } catch (InterruptedException e) {
-                        }
-                    }
-                }
-            });
-        })));
-        LOGGER.info("VM listener for VM with PID=[{}] was stopped", vmDescriptor.id());
+    private void collectJmx(String metricsPrefix) {
+        try {
+            safeCollect("JVM", () -> jvmMetricsCollector.collectMetrics(metricsPrefix, metrics));
+            safeCollect("GC", () -> gcEventCollector.collectMetrics(metricsPrefix, metrics));
+            safeCollect("threads", () -> threadSamplingCollector.collectMetrics(metricsPrefix, metrics));
+            safeCollect("ZooKeeper", () -> zkMetricsCollector.collectMetrics(metricsPrefix, metrics));
+            safeCollect("custom", () -> customMetricsCollector.collectMetrics(metricsPrefix, metrics));
+            failures = 0;
+            adaptPollInterval();
+        } catch (Exception e) {
+            onPollFailure(e);
+        }
     }
 
-    public void shutdown() {
-        synchronized (shutdownLock) {
-            shutdown = true;
-            shutdownLock.notifyAll();
+    private void adaptPollInterval() {
+        if (!pollIntervals.isAdaptive()) {
+            return;
+        }
+        long maxMillis = pollIntervals.getMaxMillis();
+        long intervalMillis = Math.min(jvmMetricsCollector.getIntervalMillis(maxMillis),
+                Math.min(zkMetricsCollector.getIntervalMillis(maxMillis),
+                        customMetricsCollector.getIntervalMillis(maxMillis)));
+        intervalMillis = Math.max(pollIntervals.getMinMillis(), intervalMillis);
+        if (intervalMillis != pollPauseMillis) {
+            LOGGER.debug("Polling VM with PID=[{}] every [{}] ms", vmDescriptor.id(), intervalMillis);
+            pollPauseMillis = intervalMillis;
+            scheduledPoll.setPeriodMillis(intervalMillis);
         }
     }
 
-    private void pollVM(MetricsCollection mc, MBeanServerConnection con) {
-        JvmMetricsCollector.collectMetrics(getMetricsPrefix(con), con, mc);
-        ZkMetricsCollector.collectMetrics(getMetricsPrefix(con), con, mc);
+    private void onPollFailure(Exception e) {
+        failures++;
+        pollFailures++;
+        long retryDelayMillis = Math.min(MAX_RETRY_DELAY_MILLIS, MIN_RETRY_DELAY_MILLIS << Math.min(failures - 1, 16));
+        nextAttemptMillis = System.currentTimeMillis() + retryDelayMillis;
+        if (connected) {
+            LOGGER.error("Lost connection to VM with PID=[{}], reconnecting in [{}] ms", vmDescriptor.id(),
+                    retryDelayMillis, e);
+        } else {
+            LOGGER.error("Failed to connect to VM with PID=[{}], retrying in [{}] ms", vmDescriptor.id(),
+                    retryDelayMillis, e);
+        }
+        connected = false;
+    }
+
+    private void openPerfData() {
+        Optional<PerfDataFile> perfData = PerfDataFile.find(vmDescriptor.id());
+        if (perfData.isPresent()) {
+            perfDataMetricsCollector = new PerfDataMetricsCollector(perfData.get());
+            LOGGER.info("Reading perf data counters of VM with PID=[{}] from [{}]", vmDescriptor.id(),
+                    perfData.get().getPath());
+        } else if (!perfDataMissingLogged) {
+            perfDataMissingLogged = true;
+            LOGGER.warn("No perf data file found for VM with PID=[{}]", vmDescriptor.id());
+        }
     }
 
-    private String getMetricsPrefix(MBeanServerConnection con) {
-        if (prefix != null) {
+    private void openSession() {
+        session = ZkVmSession.open(vmDescriptor);
+        plan = new CollectionPlan(session.getDiscoveryCache());
+        plan.setFetchExecutor(fetchExecutor);
+        plan.setPollIntervals(pollIntervals);
+        zkServerPortBeans = plan.request("org.apache.ZooKeeperService:name0=StandaloneServer_port*",
+                Query.isInstanceOf(Query.value("org.apache.zookeeper.server.ZooKeeperServerBean")),
+                CollectionTier.STATIC, "ClientPort");
+        zkReplicatedServerPortBeans = plan.request(
+                "org.apache.ZooKeeperService:name0=ReplicatedServer_id*,name1=replica.*,name2=*",
+                Query.isInstanceOf(Query.value("org.apache.zookeeper.server.ZooKeeperServerBean")),
+                CollectionTier.STATIC, "ClientPort");
+        jvmMetricsCollector = new JvmMetricsCollector(plan);
+        zkMetricsCollector = new ZkMetricsCollector(plan);
+        gcEventCollector = new GcEventCollector(plan);
+        threadSamplingCollector = new ThreadSamplingCollector(plan);
+        customMetricsCollector = new DefinitionsCollector(plan, CollectorDefinitions.getCustomDefinitions());
+    }
+
+    private void closeSession() {
+        synchronized (pollLock) {
+            if (metrics != null) {
+                metrics.close();
+                metrics = null;
+            }
+            perfDataMetricsCollector = null;
+            zkwMetrics = null;
+            collectorStats.clear();
+            if (session != null) {
+                session.close();
+                session = null;
+                plan = null;
+                zkServerPortBeans = null;
+                zkReplicatedServerPortBeans = null;
+                jvmMetricsCollector = null;
+                zkMetricsCollector = null;
+                gcEventCollector = null;
+                threadSamplingCollector = null;
+                customMetricsCollector = null;
+                connected = false;
+            }
+            LOGGER.info("VM listener for VM with PID=[{}] was stopped", vmDescriptor.id());
+        }
+    }
+
+    private void collectZkwMetrics(String metricsPrefix, long scheduleLagMillis) {
+        if (zkwMetrics == null) {
+            zkwMetrics = metrics.metricGroup(metricsPrefix + ".zkw.");
+            pollTimer = metrics.histogram(metricsPrefix + ".zkw.poll.micros");
+            fetchTimer = metrics.histogram(metricsPrefix + ".zkw.fetch.micros");
+        }
+        long pollNanos = System.nanoTime() - pollStartedNanos;
+        if (pollNanos > TimeUnit.MILLISECONDS.toNanos(pollPauseMillis)) {
+            pollOverruns++;
+        }
+        pollTimer.update(TimeUnit.NANOSECONDS.toMicros(pollNanos));
+        if (fetchNanos >= 0) {
+            fetchTimer.update(TimeUnit.NANOSECONDS.toMicros(fetchNanos));
+            fetchNanos = -1;
+        }
+        zkwMetrics.numericGauge("scheduleLagMillis").setValue(scheduleLagMillis);
+        zkwMetrics.numericGauge("pollIntervalMillis").setValue(pollPauseMillis);
+        zkwMetrics.numericGauge("minPollIntervalMillis").setValue(pollIntervals.getMinMillis());
+        zkwMetrics.numericGauge("maxPollIntervalMillis").setValue(pollIntervals.getMaxMillis());
+        zkwMetrics.counterGauge("collectorErrors").setValue(collectorErrors);
+        zkwMetrics.counterGauge("pollOverruns").setValue(pollOverruns);
+        zkwMetrics.counterGauge("pollFailures").setValue(pollFailures);
+        if (!jmxEnabled) {
+            return;
+        }
+        zkwMetrics.numericGauge("connected").setValue(connected ? 1 : 0);
+        if (session != null) {
+            zkwMetrics.numericGauge("jmxRoundTrips").setValue(plan.getRoundTrips());
+            zkwMetrics.counterGauge("fetchTimeouts").setValue(plan.getFetchTimeouts());
+            zkwMetrics.numericGauge("reconnects").setValue(session.getReconnects());
+            zkwMetrics.numericGauge("attachMillis").setValue(session.getAttachMillis());
+            zkwMetrics.numericGauge("connectMillis").setValue(session.getConnectMillis());
+        }
+    }
+
+    private void safeCollect(String collector, Function0V collect) {
+        CollectorStats stats = collectorStats.get(collector);
+        if (stats == null) {
+            stats = new CollectorStats(metrics, prefix + ".zkw.collectors." + collector.toLowerCase());
+            collectorStats.put(collector, stats);
+        }
+        long started = System.nanoTime();
+        try {
+            collect.apply();
+        } catch (RuntimeException e) {
+            if (isConnectionFailure(e)) {
+                throw e;
+            }
+            collectorErrors++;
+            stats.errorCount++;
+            LOGGER.error("[{}] metrics collector error for VM with PID=[{}]", collector, vmDescriptor.id(), e);
+        } finally {
+            stats.timer.update(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - started));
+            stats.errors.setValue(stats.errorCount);
+        }
+    }
+
+    private static boolean isConnectionFailure(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Perf data may be collected before JMX connects, its PID named prefix is only kept until the port is known
+    private String getMetricsPrefix(boolean jmxReady) {
+        if (prefixResolved) {
             return prefix;
         }
         String hostname = getLocalHostName();
-        Optional<String> standaloneZkPort = tryResolveStandaloneZKPort(con);
-        if (standaloneZkPort.isPresent()) {
-            prefix = "one_min." + hostname + ".zookeeper." + standaloneZkPort.get();
-        } else {
-            prefix = "one_min." + hostname + ".zookeeper." + vmDescriptor.id();
+        Optional<String> zkPort = zkServerPortBeans != null ? tryResolveZKPort(zkServerPortBeans) : Optional.empty();
+        if (!zkPort.isPresent() && zkReplicatedServerPortBeans != null) {
+            zkPort = tryResolveZKPort(zkReplicatedServerPortBeans);
         }
+        String resolvedPrefix = "one_min." + hostname + ".zookeeper." + zkPort.orElse(vmDescriptor.id());
+        prefixResolved = zkPort.isPresent() || jmxReady || !jmxEnabled;
+        if (prefix != null && !prefix.equals(resolvedPrefix)) {
+            LOGGER.info("Moving metrics of VM with PID=[{}] from [{}] to [{}]", vmDescriptor.id(), prefix,
+                    resolvedPrefix);
+            metrics.close();
+            metrics = null;
+            zkwMetrics = null;
+            collectorStats.clear();
+        }
+        prefix = resolvedPrefix;
         return prefix;
     }
 
-    private Optional<String> tryResolveStandaloneZKPort(MBeanServerConnection con) {
-        Set<ObjectName> zkServerBeanNames = queryNames(con, "org.apache.ZooKeeperService:name0=StandaloneServer_port*",
-                Query.isInstanceOf(Query.value("org.apache.zookeeper.server.ZooKeeperServerBean")));
-        if (zkServerBeanNames.isEmpty()) {
+    private Optional<String> tryResolveZKPort(BeanRequest portBeans) {
+        Optional<Map<String, Object>> bean = portBeans.getFirstBean();
+        if (!bean.isPresent()) {
             return Optional.empty();
         }
-        ObjectName name = zkServerBeanNames.iterator().next();
-        Map<String, Object> attributes = getBeanAttributes(con, name, "ClientPort");
+        Map<String, Object> attributes = bean.get();
         if(!attributes.containsKey("ClientPort") || attributes.get("ClientPort") == null
                 || ((String) attributes.get("ClientPort")).trim().isEmpty())
         {
@@ -121,7 +374,7 @@ public class ZkVmListener implements Runnable {
         return Optional.of(((String) attributes.get("ClientPort")).replaceAll("\\s", "").replace(".", "_").replace(":", "_"));
     }
 
-    private String getLocalHostName() {
+    public static String getLocalHostName() {
         try {
             return InetAddress.getLocalHost().getHostName();
         } catch (UnknownHostException e) {
@@ -129,4 +382,17 @@ public class ZkVmListener implements Runnable {
         }
     }
 
+    private static final class CollectorStats {
+
+        private final Histogram timer;
+        private final CounterGauge errors;
+        private long errorCount = 0;
+
+        private CollectorStats(MetricsCollection metrics, String namePrefix) {
+            this.timer = metrics.histogram(namePrefix + ".micros");
+            this.errors = metrics.counterGauge(namePrefix + ".errors");
+        }
+
+    }
+
 }
@@ -18,7 +18,6 @@ package org.releng.zkw.tools;
 import com.sun.tools.attach.AttachNotSupportedException;
 import com.sun.tools.attach.VirtualMachine;
 import com.sun.tools.attach.VirtualMachineDescriptor;
-import org.releng.zkw.functional.Function1V;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -34,20 +33,15 @@ public final class ZkVmProvider {
 
     public static List<VirtualMachineDescriptor> getZkVmDescriptors() {
         return VirtualMachine.list().stream()
-                .filter(d -> d.displayName().startsWith(ZK_MAIN))
+                .filter(d -> isZkVm(d.displayName()))
                 .collect(Collectors.toList());
     }
 
-    public static void withZkVm(VirtualMachineDescriptor descriptor, Function1V<VirtualMachine> handler) {
-        VirtualMachine vm = uncheckedAttach(descriptor);
-        try {
-            handler.apply(vm);
-        } finally {
-            safeDetach(vm);
-        }
+    static boolean isZkVm(String displayName) {
+        return displayName.startsWith(ZK_MAIN);
     }
 
-    private static VirtualMachine uncheckedAttach(VirtualMachineDescriptor descriptor) {
+    static VirtualMachine uncheckedAttach(VirtualMachineDescriptor descriptor) {
         try {
             LOGGER.info("Attaching to {} JVM with PID = [{}]...", descriptor.displayName(), descriptor.id());
             VirtualMachine vm = VirtualMachine.attach(descriptor);
@@ -58,7 +52,7 @@ public final class ZkVmProvider {
         }
     }
 
-    private static void safeDetach(VirtualMachine virtualMachine) {
+    static void safeDetach(VirtualMachine virtualMachine) {
         try {
             LOGGER.info("Detaching from JVM with PID = [{}]...", virtualMachine.id());
             virtualMachine.detach();
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.tools;
+
+import com.sun.tools.attach.VirtualMachine;
+import com.sun.tools.attach.VirtualMachineDescriptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServerConnection;
+import javax.management.NotificationListener;
+import javax.management.remote.JMXConnector;
+import java.net.URLClassLoader;
+import java.util.concurrent.TimeUnit;
+
+import static org.releng.zkw.tools.JmxConnectionProvider.acquireTargetLocalVmClassloader;
+import static org.releng.zkw.tools.JmxConnectionProvider.addConnectionNotificationListener;
+import static org.releng.zkw.tools.JmxConnectionProvider.connectToJMXUnchecked;
+import static org.releng.zkw.tools.JmxConnectionProvider.prepareConnectionAddress;
+import static org.releng.zkw.tools.JmxConnectionProvider.prepareJMXServiceURLUnchecked;
+import static org.releng.zkw.tools.JmxConnectionProvider.safeCloseJMXConnection;
+import static org.releng.zkw.tools.JmxConnectionProvider.safeRemoveConnectionNotificationListener;
+import static org.releng.zkw.tools.MBeanServerConnectionProvider.connectToMBeanServerUnchecked;
+import static org.releng.zkw.tools.ZkVmProvider.safeDetach;
+import static org.releng.zkw.tools.ZkVmProvider.uncheckedAttach;
+
+public final class ZkVmSession {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ZkVmSession.class);
+
+    private final VirtualMachineDescriptor descriptor;
+    private VirtualMachine vm;
+    private String connectionAddress;
+    private URLClassLoader classLoader;
+    private JMXConnector jmxConnector;
+    private NotificationListener jmxConnectionNotificationListener;
+    private MBeanServerConnection mBeanServerConnection;
+    private DiscoveryCache discoveryCache;
+    private long attachMillis;
+    private long connectMillis;
+    private int reconnects = 0;
+
+    private ZkVmSession(VirtualMachineDescriptor descriptor) {
+        this.descriptor = descriptor;
+    }
+
+    public static ZkVmSession open(VirtualMachineDescriptor descriptor) {
+        ZkVmSession session = new ZkVmSession(descriptor);
+        try {
+            session.attach();
+            session.classLoader = acquireTargetLocalVmClassloader(session.vm);
+            session.connect();
+            session.discoveryCache = DiscoveryCache.open(session.jmxConnector, session.mBeanServerConnection);
+            return session;
+        } catch (RuntimeException e) {
+            session.close();
+            throw e;
+        }
+    }
+
+    public void reconnect(boolean reattach) {
+        LOGGER.info("Reconnecting to VM with PID=[{}]...", descriptor.id());
+        discoveryCache.close();
+        disconnect();
+        if (reattach || vm == null) {
+            if (vm != null) {
+                safeDetach(vm);
+                vm = null;
+            }
+            attach();
+        }
+        connect();
+        discoveryCache.reconnect(jmxConnector, mBeanServerConnection);
+        reconnects++;
+        LOGGER.info("Reconnected to VM with PID=[{}]", descriptor.id());
+    }
+
+    public long getAttachMillis() {
+        return attachMillis;
+    }
+
+    public long getConnectMillis() {
+        return connectMillis;
+    }
+
+    public int getReconnects() {
+        return reconnects;
+    }
+
+    public DiscoveryCache getDiscoveryCache() {
+        return discoveryCache;
+    }
+
+    public void close() {
+        if (discoveryCache != null) {
+            discoveryCache.close();
+        }
+        disconnect();
+        if (classLoader != null) {
+            ClassLoaderCache.release(classLoader);
+        }
+        if (vm != null) {
+            safeDetach(vm);
+        }
+    }
+
+    private void attach() {
+        long started = System.nanoTime();
+        vm = uncheckedAttach(descriptor);
+        connectionAddress = prepareConnectionAddress(vm);
+        attachMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+    }
+
+    private void connect() {
+        long started = System.nanoTime();
+        jmxConnector = connectToJMXUnchecked(prepareJMXServiceURLUnchecked(connectionAddress), classLoader);
+        jmxConnectionNotificationListener = addConnectionNotificationListener(jmxConnector);
+        mBeanServerConnection = connectToMBeanServerUnchecked(jmxConnector);
+        connectMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+    }
+
+    private void disconnect() {
+        if (jmxConnectionNotificationListener != null) {
+            safeRemoveConnectionNotificationListener(jmxConnector, jmxConnectionNotificationListener);
+            jmxConnectionNotificationListener = null;
+        }
+        if (jmxConnector != null) {
+            safeCloseJMXConnection(jmxConnector);
+            jmxConnector = null;
+        }
+        mBeanServerConnection = null;
+    }
+
+}
@@ -15,14 +15,19 @@
  */
 package org.releng.zkw.tools;
 
+import com.codahale.metrics.Histogram;
 import com.sun.tools.attach.VirtualMachineDescriptor;
+import org.releng.zkw.metrics.MetricGroup;
+import org.releng.zkw.metrics.MetricsCollection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 public class ZkVmWatcher implements Runnable {
 
@@ -32,13 +37,25 @@ public class ZkVmWatcher implements Runnable {
     private final Object shutdownLock = new Object();
     private final Set<VirtualMachineDescriptor> watchedVMs = new HashSet<>();
     private final Map<VirtualMachineDescriptor, ZkVmListener> watchedVmListeners = new HashMap<>();
-    private final Map<VirtualMachineDescriptor, Thread> watchedVmListenerThreads = new HashMap<>();
-    private final long vmPollPauseMillis;
-    private final long vmListPollPauseMillis;
+    private final PollIntervals vmPollIntervals;
+    private final AdaptiveInterval vmListPollInterval;
+    private final long vmFullScanPauseMillis;
+    private final PollScheduler pollScheduler;
+    private final Set<CollectionBackend> backends;
+    private final Optional<FetchExecutor> fetchExecutor;
+    private Optional<HsperfdataVmDiscovery> vmDiscovery = Optional.empty();
+    private Histogram discoveryLatency;
+    private boolean initialScanDone = false;
 
-    public ZkVmWatcher(long vmPollPauseMillis, long vmListPollPauseMillis) {
-        this.vmPollPauseMillis = vmPollPauseMillis;
-        this.vmListPollPauseMillis = vmListPollPauseMillis;
+    public ZkVmWatcher(PollIntervals vmPollIntervals, PollIntervals vmListPollIntervals, long vmFullScanPauseMillis,
+            int pollWorkers, Set<CollectionBackend> backends, Optional<FetchExecutor> fetchExecutor)
+    {
+        this.vmPollIntervals = vmPollIntervals;
+        this.vmListPollInterval = new AdaptiveInterval(vmListPollIntervals);
+        this.vmFullScanPauseMillis = vmFullScanPauseMillis;
+        this.pollScheduler = new PollScheduler(pollWorkers, vmPollIntervals.getMinMillis() / 20);
+        this.backends = backends;
+        this.fetchExecutor = fetchExecutor;
     }
 
     @Override
@@ -52,57 +69,95 @@ public class ZkVmWatcher implements Runnable {
 
     private void doWatch() {
         LOGGER.info("VM watcher is running...");
+        if (vmFullScanPauseMillis > 0) {
+            vmDiscovery = HsperfdataVmDiscovery.start(vmFullScanPauseMillis, this::onVmListChange);
+        }
+        MetricsCollection metrics = MetricsCollection.create();
+        String watcherPrefix = "one_min." + ZkVmListener.getLocalHostName() + ".zkw.";
+        MetricGroup watcherMetrics = metrics.metricGroup(watcherPrefix);
+        Histogram discoveryTimer = metrics.histogram(watcherPrefix + "discovery.micros");
+        discoveryLatency = metrics.histogram(watcherPrefix + "discovery.latencyMillis");
         synchronized (shutdownLock) {
             while (!shutdown) {
-                Set<VirtualMachineDescriptor> machines = new HashSet<>(ZkVmProvider.getZkVmDescriptors());
+                long started = System.nanoTime();
+                Set<VirtualMachineDescriptor> machines = vmDiscovery.isPresent()
+                        ? vmDiscovery.get().getZkVmDescriptors()
+                        : new HashSet<>(ZkVmProvider.getZkVmDescriptors());
+                long discoveryNanos = System.nanoTime() - started;
+                discoveryTimer.update(TimeUnit.NANOSECONDS.toMicros(discoveryNanos));
+                boolean changed = !machines.equals(watchedVMs);
                 machines.forEach(m -> {
                     if (!watchedVMs.contains(m)) {
                         watchVm(m);
                     }
                 });
-                watchedVMs.forEach(m -> {
-                    if (!machines.contains(m)) {
-                        unwatchVM(m);
-                    }
-                });
-                watchedVMs.forEach(m -> {
-                    if (!watchedVmListenerThreads.get(m).isAlive()) {
+                new HashSet<>(watchedVMs).forEach(m -> {
+                    if (!machines.contains(m) || watchedVmListeners.get(m).isStopped()) {
                         unwatchVM(m);
                     }
                 });
+                initialScanDone = true;
+                vmListPollInterval.update(System.nanoTime(), changed ? 1 : 0, discoveryNanos
+                        > TimeUnit.MILLISECONDS.toNanos(vmListPollInterval.getBounds().getBudgetMillis()));
+                updateWatcherMetrics(metrics, watcherMetrics);
                 try {
-                    shutdownLock.wait(vmListPollPauseMillis);
+                    shutdownLock.wait(vmListPollInterval.getMillis());
                 } catch (InterruptedException e) {
                 }
             }
-            watchedVMs.forEach(this::unwatchVM);
+            new HashSet<>(watchedVMs).forEach(this::unwatchVM);
         }
+        vmDiscovery.ifPresent(HsperfdataVmDiscovery::shutdown);
+        pollScheduler.shutdown();
+        fetchExecutor.ifPresent(FetchExecutor::shutdown);
+        ClassLoaderCache.closeIdle();
+        metrics.close();
         LOGGER.info("VM watcher was stopped");
     }
 
+    private void updateWatcherMetrics(MetricsCollection metrics, MetricGroup watcherMetrics) {
+        metrics.beginUpdate();
+        try {
+            watcherMetrics.numericGauge("watchedVms").setValue(watchedVMs.size());
+            watcherMetrics.numericGauge("discovery.intervalMillis").setValue(vmListPollInterval.getMillis());
+            watcherMetrics.numericGauge("poll.minIntervalMillis").setValue(vmPollIntervals.getMinMillis());
+            watcherMetrics.numericGauge("poll.maxIntervalMillis").setValue(vmPollIntervals.getMaxMillis());
+            watcherMetrics.counterGauge("classLoaderCache.hits").setValue(ClassLoaderCache.getHits());
+            watcherMetrics.counterGauge("classLoaderCache.misses").setValue(ClassLoaderCache.getMisses());
+            watcherMetrics.counterGauge("classLoaderCache.evictions").setValue(ClassLoaderCache.getEvictions());
+            watcherMetrics.numericGauge("classLoaderCache.loaders").setValue(ClassLoaderCache.getLoaderCount());
+            watcherMetrics.numericGauge("classLoaderCache.idleLoaders").setValue(ClassLoaderCache.getIdleLoaderCount());
+        } finally {
+            metrics.endUpdate();
+        }
+    }
+
     private void watchVm(VirtualMachineDescriptor m) {
-        ZkVmListener listener = new ZkVmListener(m, vmPollPauseMillis);
-        Thread listenerThread = new Thread(listener);
-        listenerThread.setDaemon(true);
-        listenerThread.start();
+        // Discovery latency is only known in watch mode, which read the VM creation time with its hsperfdata file
+        if (initialScanDone) {
+            vmDiscovery.flatMap(d -> d.getVmCreationMillis(m.id()))
+                    .ifPresent(created -> discoveryLatency.update(System.currentTimeMillis() - created));
+        }
+        ZkVmListener listener = new ZkVmListener(m, vmPollIntervals, pollScheduler, backends, fetchExecutor);
+        listener.start();
         watchedVMs.add(m);
         watchedVmListeners.put(m, listener);
-        watchedVmListenerThreads.put(m, listenerThread);
         LOGGER.info("Watching VM with PID=[{}]", m.id());
     }
 
     private void unwatchVM(VirtualMachineDescriptor m) {
         watchedVmListeners.get(m).shutdown();
-        try {
-            watchedVmListenerThreads.get(m).join(100);
-        } catch (InterruptedException e) {
-        }
         watchedVmListeners.remove(m);
-        watchedVmListenerThreads.remove(m);
         watchedVMs.remove(m);
         LOGGER.info("No longer watching VM with PID=[{}]", m.id());
     }
 
+    private void onVmListChange() {
+        synchronized (shutdownLock) {
+            shutdownLock.notifyAll();
+        }
+    }
+
     public void shutdown() {
         synchronized (shutdownLock) {
             shutdown = true;
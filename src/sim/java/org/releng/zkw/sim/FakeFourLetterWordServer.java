@@ -0,0 +1,196 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.sim;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class FakeFourLetterWordServer implements Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FakeFourLetterWordServer.class);
+
+    private final String mode;
+    private final int connections;
+    private final ServerSocket serverSocket;
+    private final AtomicLong requests = new AtomicLong();
+    private final Thread thread;
+
+    public FakeFourLetterWordServer(String mode, int connections) {
+        this.mode = mode;
+        this.connections = connections;
+        try {
+            this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        this.thread = new Thread(this, "zkw-sim-flw-" + serverSocket.getLocalPort());
+        this.thread.setDaemon(true);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    public void stop() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            LOGGER.error("Error closing fake four letter word server", e);
+        }
+    }
+
+    @Override
+    public void run() {
+        while (!serverSocket.isClosed()) {
+            try (Socket socket = serverSocket.accept()) {
+                answer(socket);
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    LOGGER.error("Fake four letter word server error", e);
+                }
+            }
+        }
+    }
+
+    private void answer(Socket socket) throws IOException {
+        InputStream input = socket.getInputStream();
+        byte[] command = new byte[4];
+        int read = 0;
+        while (read < command.length) {
+            int n = input.read(command, read, command.length - read);
+            if (n < 0) {
+                return;
+            }
+            read += n;
+        }
+        long request = requests.incrementAndGet();
+        String word = new String(command, StandardCharsets.US_ASCII);
+        String response;
+        switch (word) {
+            case "mntr":
+                response = mntr(request);
+                break;
+            case "stat":
+                response = stat(request);
+                break;
+            case "wchs":
+                response = connections + " connections watching " + (connections * 3) + " paths\nTotal watches:"
+                        + (connections * 4) + "\n";
+                break;
+            case "cons":
+                response = cons(request);
+                break;
+            case "GET ":
+                skipHttpHeaders(input);
+                response = monitor(request);
+                break;
+            default:
+                response = word + " is not executed because it is not in the whitelist.\n";
+        }
+        OutputStream output = socket.getOutputStream();
+        output.write(response.getBytes(StandardCharsets.US_ASCII));
+        output.flush();
+    }
+
+    private static void skipHttpHeaders(InputStream input) throws IOException {
+        int matched = 0;
+        while (matched < 4) {
+            int b = input.read();
+            if (b < 0) {
+                return;
+            }
+            matched = b == "\r\n\r\n".charAt(matched) ? matched + 1 : (b == '\r' ? 1 : 0);
+        }
+    }
+
+    private String mntr(long request) {
+        return "zk_version\t3.4.14-4c25d480e66aadd371de8bd2fd8da255ac140bcf, built on 03/06/2019 16:18 GMT\n"
+                + "zk_avg_latency\t" + (request % 7) + "\n"
+                + "zk_max_latency\t" + (request % 100) + "\n"
+                + "zk_min_latency\t0\n"
+                + "zk_packets_received\t" + (request * 10) + "\n"
+                + "zk_packets_sent\t" + (request * 9) + "\n"
+                + "zk_num_alive_connections\t" + connections + "\n"
+                + "zk_outstanding_requests\t" + (request % 3) + "\n"
+                + "zk_server_state\t" + mode + "\n"
+                + "zk_znode_count\t" + (1000 + request % 10) + "\n"
+                + "zk_watch_count\t" + (connections * 4) + "\n"
+                + "zk_ephemerals_count\t" + connections + "\n"
+                + "zk_approximate_data_size\t123456\n"
+                + "zk_open_file_descriptor_count\t" + (connections + 30) + "\n"
+                + "zk_max_file_descriptor_count\t65536\n";
+    }
+
+    private String stat(long request) {
+        StringBuilder builder = new StringBuilder("Zookeeper version: 3.4.14-4c25d480e66aadd371de8bd2fd8da255ac140bcf,"
+                + " built on 03/06/2019 16:18 GMT\nClients:\n");
+        for (int i = 0; i < connections; i++) {
+            builder.append(" /127.0.0.1:").append(40000 + i).append("[1](queued=0,recved=").append(request)
+                    .append(",sent=").append(request).append(")\n");
+        }
+        return builder.append("\nLatency min/avg/max: 0/").append(request % 7).append('/').append(request % 100)
+                .append("\nReceived: ").append(request * 10).append("\nSent: ").append(request * 9)
+                .append("\nConnections: ").append(connections).append("\nOutstanding: ").append(request % 3)
+                .append("\nZxid: 0x10000").append(Long.toHexString(request)).append("\nMode: ").append(mode)
+                .append("\nNode count: ").append(1000 + request % 10).append('\n').toString();
+    }
+
+    private String cons(long request) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < connections; i++) {
+            builder.append(" /127.0.0.1:").append(40000 + i).append("[1](queued=").append(i % 2).append(",recved=")
+                    .append(request).append(",sent=").append(request).append(",sid=0x16b0000000").append(i)
+                    .append(",lop=PING,est=1560000000000,to=30000,lcxid=0x").append(Long.toHexString(request))
+                    .append(",lzxid=0xffffffffffffffff,lresp=1560000000000,llat=0,minlat=0,avglat=")
+                    .append(i % 5).append(",maxlat=").append(i).append(")\n");
+        }
+        return builder.append('\n').toString();
+    }
+
+    private String monitor(long request) {
+        String body = "{\n  \"version\" : \"3.5.5-390fe37ea45dee01bf87dc1c042b5e3dcce88653\",\n"
+                + "  \"avg_latency\" : " + (request % 7) + ".5,\n"
+                + "  \"max_latency\" : " + (request % 100) + ",\n"
+                + "  \"packets_received\" : " + (request * 10) + ",\n"
+                + "  \"packets_sent\" : " + (request * 9) + ",\n"
+                + "  \"num_alive_connections\" : " + connections + ",\n"
+                + "  \"server_state\" : \"" + mode + "\",\n"
+                + "  \"znode_count\" : " + (1000 + request % 10) + ",\n"
+                + "  \"last_client_response_size\" : -1,\n"
+                + "  \"command\" : \"monitor\",\n"
+                + "  \"error\" : null\n}";
+        return "HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nContent-Length: " + body.length()
+                + "\r\n\r\n" + body;
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.sim;
+
+import javax.management.MBeanServer;
+import javax.management.RuntimeOperationsException;
+import javax.management.remote.MBeanServerForwarder;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+final class FaultInjector implements InvocationHandler {
+
+    private static final Set<String> REMOTE_CALLS = new HashSet<>(Arrays.asList("getAttribute", "getAttributes",
+            "queryNames", "queryMBeans", "getMBeanInfo", "invoke", "isInstanceOf"));
+
+    private final long latencyMillis;
+    private final long jitterMillis;
+    private final double failureRate;
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile MBeanServer server;
+
+    FaultInjector(long latencyMillis, long jitterMillis, double failureRate) {
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        this.failureRate = failureRate;
+    }
+
+    MBeanServerForwarder newForwarder() {
+        return (MBeanServerForwarder) Proxy.newProxyInstance(MBeanServerForwarder.class.getClassLoader(),
+                new Class<?>[]{MBeanServerForwarder.class}, this);
+    }
+
+    long getCalls() {
+        return calls.get();
+    }
+
+    long getFailures() {
+        return failures.get();
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            return method.invoke(this, args);
+        }
+        switch (method.getName()) {
+            case "getMBeanServer":
+                return server;
+            case "setMBeanServer":
+                server = (MBeanServer) args[0];
+                return null;
+            default:
+                break;
+        }
+        if (REMOTE_CALLS.contains(method.getName())) {
+            calls.incrementAndGet();
+            delay();
+            if (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+                failures.incrementAndGet();
+                throw new RuntimeOperationsException(new IllegalStateException("Injected failure"),
+                        "Injected failure in " + method.getName());
+            }
+        }
+        try {
+            return method.invoke(server, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void delay() throws InterruptedException {
+        long delayMillis = latencyMillis + (jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(jitterMillis) : 0);
+        if (delayMillis > 0) {
+            Thread.sleep(delayMillis);
+        }
+    }
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.sim;
+
+import com.sun.tools.attach.AttachNotSupportedException;
+import com.sun.tools.attach.VirtualMachine;
+import com.sun.tools.attach.VirtualMachineDescriptor;
+import com.sun.tools.attach.spi.AttachProvider;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class SimulatedAttachProvider extends AttachProvider {
+
+    @Override
+    public String name() {
+        return "zkw-simulator";
+    }
+
+    @Override
+    public String type() {
+        return "jmx";
+    }
+
+    @Override
+    public VirtualMachine attachVirtualMachine(String id) throws AttachNotSupportedException {
+        SimulatedTarget target = Simulator.get(id);
+        if (target == null || !target.isRunning()) {
+            throw new AttachNotSupportedException("No running simulated VM " + id);
+        }
+        return new SimulatedVirtualMachine(this, target);
+    }
+
+    @Override
+    public List<VirtualMachineDescriptor> listVirtualMachines() {
+        return Simulator.getTargets().stream().filter(SimulatedTarget::isRunning)
+                .map(t -> new VirtualMachineDescriptor(this, t.getId(), t.getDisplayName()))
+                .collect(Collectors.toList());
+    }
+
+}
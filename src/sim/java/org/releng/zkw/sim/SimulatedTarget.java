@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.sim;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXServiceURL;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.PlatformManagedObject;
+
+public final class SimulatedTarget {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SimulatedTarget.class);
+
+    private final String id;
+    private final int port;
+    private final int connections;
+    private final FaultInjector faultInjector;
+    private MBeanServer server;
+    private JMXConnectorServer connectorServer;
+
+    public SimulatedTarget(String id, int port, int connections, long latencyMillis, long jitterMillis,
+            double failureRate)
+    {
+        this.id = id;
+        this.port = port;
+        this.connections = connections;
+        this.faultInjector = new FaultInjector(latencyMillis, jitterMillis, failureRate);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getDisplayName() {
+        return "org.apache.zookeeper.server.quorum.QuorumPeerMain /simulated/zoo-" + port + ".cfg";
+    }
+
+    public synchronized boolean isRunning() {
+        return connectorServer != null;
+    }
+
+    public synchronized String getConnectorAddress() throws IOException {
+        if (connectorServer == null) {
+            throw new IOException("Simulated VM " + id + " is not running");
+        }
+        return connectorServer.getAddress().toString();
+    }
+
+    public long getCalls() {
+        return faultInjector.getCalls();
+    }
+
+    public long getFailures() {
+        return faultInjector.getFailures();
+    }
+
+    public synchronized void start() {
+        server = MBeanServerFactory.newMBeanServer();
+        registerJvmBeans(server);
+        SyntheticZooKeeper.registerStandalone(server, port, connections);
+        startConnector();
+    }
+
+    public synchronized void restart() {
+        LOGGER.info("Restarting connector of simulated VM [{}]", id);
+        stopConnector();
+        startConnector();
+    }
+
+    public synchronized void stop() {
+        stopConnector();
+        server = null;
+    }
+
+    private void startConnector() {
+        try {
+            connectorServer = JMXConnectorServerFactory.newJMXConnectorServer(new JMXServiceURL("service:jmx:rmi://"),
+                    null, server);
+            connectorServer.setMBeanServerForwarder(faultInjector.newForwarder());
+            connectorServer.start();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void stopConnector() {
+        if (connectorServer == null) {
+            return;
+        }
+        try {
+            connectorServer.stop();
+        } catch (IOException e) {
+            LOGGER.error("Error stopping connector of simulated VM [{}]", id, e);
+        }
+        connectorServer = null;
+    }
+
+    private static void registerJvmBeans(MBeanServer server) {
+        for (Class<? extends PlatformManagedObject> type : ManagementFactory.getPlatformManagementInterfaces()) {
+            for (PlatformManagedObject bean : ManagementFactory.getPlatformMXBeans(type)) {
+                try {
+                    server.registerMBean(bean, bean.getObjectName());
+                } catch (InstanceAlreadyExistsException e) {
+                    continue;
+                } catch (JMException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.sim;
+
+import com.sun.tools.attach.AgentLoadException;
+import com.sun.tools.attach.VirtualMachine;
+import com.sun.tools.attach.spi.AttachProvider;
+
+import java.io.IOException;
+import java.util.Properties;
+
+final class SimulatedVirtualMachine extends VirtualMachine {
+
+    private static final String CONNECTOR_ADDRESS = "com.sun.management.jmxremote.localConnectorAddress";
+
+    private final SimulatedTarget target;
+
+    SimulatedVirtualMachine(AttachProvider provider, SimulatedTarget target) {
+        super(provider, target.getId());
+        this.target = target;
+    }
+
+    @Override
+    public void detach() {
+    }
+
+    @Override
+    public void loadAgentLibrary(String agentLibrary, String options) throws AgentLoadException {
+        throw new AgentLoadException("Agents are not supported by simulated VMs");
+    }
+
+    @Override
+    public void loadAgentPath(String agentPath, String options) throws AgentLoadException {
+        throw new AgentLoadException("Agents are not supported by simulated VMs");
+    }
+
+    @Override
+    public void loadAgent(String agent, String options) throws AgentLoadException {
+        throw new AgentLoadException("Agents are not supported by simulated VMs");
+    }
+
+    @Override
+    public Properties getSystemProperties() throws IOException {
+        target.getConnectorAddress();
+        Properties properties = new Properties();
+        properties.setProperty("java.class.path", "");
+        properties.setProperty("path.separator", System.getProperty("path.separator"));
+        properties.setProperty("java.home", System.getProperty("java.home"));
+        return properties;
+    }
+
+    @Override
+    public Properties getAgentProperties() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(CONNECTOR_ADDRESS, target.getConnectorAddress());
+        return properties;
+    }
+
+    @Override
+    public void startManagementAgent(Properties agentProperties) {
+        throw new UnsupportedOperationException("Management agents are not supported by simulated VMs");
+    }
+
+    @Override
+    public String startLocalManagementAgent() throws IOException {
+        return target.getConnectorAddress();
+    }
+
+}
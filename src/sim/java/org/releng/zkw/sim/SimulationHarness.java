@@ -0,0 +1,244 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.sim;
+
+import ch.qos.logback.classic.Level;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import org.releng.zkw.Main;
+import org.releng.zkw.flw.FourLetterWordCollector;
+import org.releng.zkw.flw.FourLetterWordServer;
+import org.releng.zkw.metrics.MetricsRegistryHolder;
+import org.releng.zkw.tools.CollectionBackend;
+import org.releng.zkw.tools.PollIntervals;
+import org.releng.zkw.tools.ZkVmListener;
+import org.releng.zkw.tools.ZkVmWatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+public class SimulationHarness {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SimulationHarness.class);
+
+    private static final int FIRST_PORT = 20000;
+
+    private final int targets = Integer.getInteger("sim.targets", 200);
+    private final int connections = Integer.getInteger("sim.connections", 50);
+    private final long latencyMillis = Long.getLong("sim.latencyMillis", 0);
+    private final long jitterMillis = Long.getLong("sim.jitterMillis", 0);
+    private final double failureRate = Double.parseDouble(System.getProperty("sim.failureRate", "0"));
+    private final long restartEverySeconds = Long.getLong("sim.restartEverySeconds", 0);
+    private final long churnEverySeconds = Long.getLong("sim.churnEverySeconds", 0);
+    private final long durationSeconds = Long.getLong("sim.durationSeconds", 300);
+    private final long reportEverySeconds = Long.getLong("sim.reportEverySeconds", 10);
+    private final long pollPauseMillis = Long.getLong("sim.pollPauseMillis", 10000);
+    private final long minPollPauseMillis = Long.getLong("sim.minPollPauseMillis", pollPauseMillis);
+    private final long maxPollPauseMillis = Long.getLong("sim.maxPollPauseMillis", pollPauseMillis);
+    private final int flwServers = Integer.getInteger("sim.flwServers", 0);
+    private final int pollWorkers = Integer.getInteger("sim.pollWorkers", Runtime.getRuntime().availableProcessors());
+    private int nextTarget = 0;
+    private long lastPolls = 0;
+    private long lastReportNanos;
+
+    public static void main(String[] args) {
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger("org.releng.zkw"))
+                .setLevel(Level.toLevel(System.getProperty("sim.logLevel", "WARN")));
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(SimulationHarness.class)).setLevel(Level.INFO);
+        new SimulationHarness().run();
+        System.exit(0);
+    }
+
+    private void run() {
+        long baselineHeap = usedHeapAfterGc();
+        LOGGER.info("Starting [{}] simulated ZooKeeper VMs with [{}] connections each, latency [{}+{}] ms, "
+                + "failure rate [{}]", targets, connections, latencyMillis, jitterMillis, failureRate);
+        long started = System.nanoTime();
+        for (int i = 0; i < targets; i++) {
+            addTarget();
+        }
+        long targetsHeap = usedHeapAfterGc();
+        LOGGER.info("Started simulated VMs in [{}] ms, they use [{}] KiB of heap",
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started), (targetsHeap - baselineHeap) / 1024);
+        PollIntervals pollIntervals = new PollIntervals(minPollPauseMillis, pollPauseMillis, maxPollPauseMillis,
+                Long.getLong("zkw.poll.budgetMillis", 2000));
+        ZkVmWatcher watcher = new ZkVmWatcher(pollIntervals, PollIntervals.fixed(1000), 0, pollWorkers,
+                EnumSet.of(CollectionBackend.JMX), Main.createFetchExecutor());
+        Thread watcherThread = new Thread(watcher, "zkw-sim-watcher");
+        watcherThread.setDaemon(true);
+        watcherThread.start();
+        List<FakeFourLetterWordServer> fakeServers = new ArrayList<>();
+        Optional<FourLetterWordCollector> flwCollector = startFourLetterWordCollector(fakeServers);
+        lastReportNanos = System.nanoTime();
+        long deadlineNanos = lastReportNanos + TimeUnit.SECONDS.toNanos(durationSeconds);
+        long nextRestartNanos = nextEventNanos(restartEverySeconds);
+        long nextChurnNanos = nextEventNanos(churnEverySeconds);
+        long nextReportNanos = nextEventNanos(reportEverySeconds);
+        while (System.nanoTime() - deadlineNanos < 0) {
+            sleep(100);
+            long now = System.nanoTime();
+            if (restartEverySeconds > 0 && now - nextRestartNanos >= 0) {
+                randomTarget().ifPresent(SimulatedTarget::restart);
+                nextRestartNanos = nextEventNanos(restartEverySeconds);
+            }
+            if (churnEverySeconds > 0 && now - nextChurnNanos >= 0) {
+                randomTarget().ifPresent(t -> {
+                    LOGGER.info("Replacing simulated VM [{}]", t.getId());
+                    Simulator.remove(t);
+                    addTarget();
+                });
+                nextChurnNanos = nextEventNanos(churnEverySeconds);
+            }
+            if (reportEverySeconds > 0 && now - nextReportNanos >= 0) {
+                report(targetsHeap);
+                nextReportNanos = nextEventNanos(reportEverySeconds);
+            }
+        }
+        report(targetsHeap);
+        flwCollector.ifPresent(FourLetterWordCollector::shutdown);
+        fakeServers.forEach(FakeFourLetterWordServer::stop);
+        watcher.shutdown();
+        try {
+            watcherThread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+        }
+        Simulator.getTargets().forEach(Simulator::remove);
+        LOGGER.info("Simulation finished");
+    }
+
+    private Optional<FourLetterWordCollector> startFourLetterWordCollector(List<FakeFourLetterWordServer> fakeServers) {
+        if (flwServers <= 0) {
+            return Optional.empty();
+        }
+        List<FourLetterWordServer> servers = new ArrayList<>();
+        for (int i = 0; i < flwServers; i++) {
+            FakeFourLetterWordServer fakeServer = new FakeFourLetterWordServer(i % 3 == 0 ? "leader" : "follower",
+                    connections);
+            fakeServer.start();
+            fakeServers.add(fakeServer);
+            servers.add(new FourLetterWordServer("127.0.0.1", fakeServer.getPort(),
+                    i % 2 == 0 ? fakeServer.getPort() : 0));
+        }
+        LOGGER.info("Started [{}] fake four letter word servers", flwServers);
+        FourLetterWordCollector collector = new FourLetterWordCollector(servers, ZkVmListener.getLocalHostName(),
+                pollPauseMillis, Long.getLong("zkw.flw.timeoutMillis", 5000));
+        collector.start();
+        return Optional.of(collector);
+    }
+
+    private void addTarget() {
+        int index = nextTarget++;
+        Simulator.add(new SimulatedTarget("sim-" + index, FIRST_PORT + index, connections, latencyMillis,
+                jitterMillis, failureRate));
+    }
+
+    private void report(long targetsHeap) {
+        MetricRegistry registry = MetricsRegistryHolder.getRegistry();
+        long now = System.nanoTime();
+        long polls = 0;
+        List<Long> pollMicros = new ArrayList<>();
+        for (Map.Entry<String, Histogram> entry : registry.getHistograms().entrySet()) {
+            if (entry.getKey().endsWith(".zkw.poll.micros")) {
+                polls += entry.getValue().getCount();
+                for (long value : entry.getValue().getSnapshot().getValues()) {
+                    pollMicros.add(value);
+                }
+            }
+        }
+        long connected = sum(gaugeValues(registry, ".zkw.connected"));
+        long failures = sum(gaugeValues(registry, ".zkw.pollFailures"));
+        long errors = sum(gaugeValues(registry, ".zkw.collectorErrors"));
+        long reconnects = sum(gaugeValues(registry, ".zkw.reconnects"));
+        List<Long> lags = gaugeValues(registry, ".zkw.scheduleLagMillis");
+        List<Long> flwUp = gaugeValues(registry, ".zkw.flw.up");
+        long injectedFailures = Simulator.getTargets().stream().mapToLong(SimulatedTarget::getFailures).sum();
+        long jmxCalls = Simulator.getTargets().stream().mapToLong(SimulatedTarget::getCalls).sum();
+        double pollsPerSecond = (polls - lastPolls) * 1e9 / Math.max(1, now - lastReportNanos);
+        lastPolls = polls;
+        lastReportNanos = now;
+        long heap = usedHeapAfterGc();
+        LOGGER.info("Polls [{}/s], poll p50/p99/max [{}/{}/{}] ms, schedule lag p50/p99/max [{}/{}/{}] ms, "
+                        + "connected [{}/{}], failures [{}], collector errors [{}], reconnects [{}], "
+                        + "JMX calls [{}], injected failures [{}], flw up [{}/{}], gauges [{}], zkw heap [{}] KiB",
+                String.format("%.1f", pollsPerSecond), percentile(pollMicros, 0.5) / 1000,
+                percentile(pollMicros, 0.99) / 1000, percentile(pollMicros, 1.0) / 1000, percentile(lags, 0.5),
+                percentile(lags, 0.99), percentile(lags, 1.0), connected, Simulator.getTargets().size(), failures,
+                errors, reconnects, jmxCalls, injectedFailures, sum(flwUp), flwUp.size(), registry.getGauges().size(),
+                (heap - targetsHeap) / 1024);
+    }
+
+    private static List<Long> gaugeValues(MetricRegistry registry, String suffix) {
+        List<Long> values = new ArrayList<>();
+        registry.getGauges().forEach((name, gauge) -> {
+            Object value = gauge.getValue();
+            if (name.endsWith(suffix) && value instanceof Number) {
+                values.add(((Number) value).longValue());
+            }
+        });
+        return values;
+    }
+
+    private static long sum(List<Long> values) {
+        return values.stream().mapToLong(Long::longValue).sum();
+    }
+
+    private static long percentile(List<Long> values, double quantile) {
+        if (values.isEmpty()) {
+            return 0;
+        }
+        values.sort(Long::compare);
+        return values.get(Math.max(0, (int) Math.ceil(quantile * values.size()) - 1));
+    }
+
+    private static Optional<SimulatedTarget> randomTarget() {
+        List<SimulatedTarget> running = Simulator.getTargets();
+        return running.isEmpty() ? Optional.empty()
+                : Optional.of(running.get(ThreadLocalRandom.current().nextInt(running.size())));
+    }
+
+    private static long nextEventNanos(long everySeconds) {
+        return System.nanoTime() + TimeUnit.SECONDS.toNanos(everySeconds);
+    }
+
+    private static long usedHeapAfterGc() {
+        System.gc();
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getCollectionUsage() != null) {
+                used += pool.getCollectionUsage().getUsed();
+            }
+        }
+        return used;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+        }
+    }
+
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.sim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+public final class Simulator {
+
+    private static final Map<String, SimulatedTarget> targets = new ConcurrentSkipListMap<>();
+
+    private Simulator() {
+    }
+
+    public static void add(SimulatedTarget target) {
+        target.start();
+        targets.put(target.getId(), target);
+    }
+
+    public static void remove(SimulatedTarget target) {
+        targets.remove(target.getId());
+        target.stop();
+    }
+
+    public static SimulatedTarget get(String id) {
+        return targets.get(id);
+    }
+
+    public static List<SimulatedTarget> getTargets() {
+        return new ArrayList<>(targets.values());
+    }
+
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.sim;
+
+import javax.management.JMException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.NotCompliantMBeanException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class SyntheticZooKeeper {
+
+    private SyntheticZooKeeper() {
+    }
+
+    public static ObjectName registerStandalone(MBeanServer server, int port, int connections) {
+        try {
+            ObjectName serverName = new ObjectName("org.apache.ZooKeeperService:name0=StandaloneServer_port" + port);
+            register(server, new Server(port, connections), ServerMBean.class,
+                    "org.apache.zookeeper.server.ZooKeeperServerBean", serverName);
+            register(server, new DataTree(), DataTreeMBean.class, "org.apache.zookeeper.server.DataTreeBean",
+                    new ObjectName(serverName + ",name1=InMemoryDataTree"));
+            for (int i = 0; i < connections; i++) {
+                String ip = "10.0." + (i / 250) + "." + (i % 250 + 1);
+                ObjectName connectionName = new ObjectName(serverName + ",name1=Connections,name2=" + ip
+                        + ",name3=0x" + Long.toHexString(i));
+                register(server, new Connection(ip, i), ConnectionMBean.class,
+                        "org.apache.zookeeper.server.ConnectionBean", connectionName);
+            }
+            return serverName;
+        } catch (JMException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static void unregister(MBeanServer server, ObjectName serverName) {
+        try {
+            for (ObjectName name : server.queryNames(new ObjectName(serverName + ",*"), null)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static <T> void register(MBeanServer server, T bean, Class<T> type, String className, ObjectName name)
+            throws JMException
+    {
+        server.registerMBean(new NamedStandardMBean<>(bean, type, className), name);
+    }
+
+    private static final class NamedStandardMBean<T> extends StandardMBean {
+
+        private final String className;
+
+        private NamedStandardMBean(T bean, Class<T> type, String className) throws NotCompliantMBeanException {
+            super(bean, type);
+            this.className = className;
+        }
+
+        @Override
+        protected String getClassName(MBeanInfo info) {
+            return className;
+        }
+
+    }
+
+    public interface ServerMBean {
+
+        String getClientPort();
+
+        int getNumAliveConnections();
+
+        long getOutstandingRequests();
+
+        long getPacketsReceived();
+
+        long getPacketsSent();
+
+        long getMinRequestLatency();
+
+        long getAvgRequestLatency();
+
+        long getMaxRequestLatency();
+
+    }
+
+    public interface DataTreeMBean {
+
+        int getNodeCount();
+
+        int getWatchCount();
+
+    }
+
+    public interface ConnectionMBean {
+
+        String getSourceIP();
+
+        String getSessionId();
+
+        long getOutstandingRequests();
+
+        long getPacketsReceived();
+
+        long getPacketsSent();
+
+        long getAvgLatency();
+
+        long getMaxLatency();
+
+    }
+
+    private static final class Server implements ServerMBean {
+
+        private final int port;
+        private final int connections;
+        private final AtomicLong packets = new AtomicLong();
+
+        private Server(int port, int connections) {
+            this.port = port;
+            this.connections = connections;
+        }
+
+        @Override
+        public String getClientPort() {
+            return "0.0.0.0:" + port;
+        }
+
+        @Override
+        public int getNumAliveConnections() {
+            return connections;
+        }
+
+        @Override
+        public long getOutstandingRequests() {
+            return ThreadLocalRandom.current().nextInt(16);
+        }
+
+        @Override
+        public long getPacketsReceived() {
+            return packets.addAndGet(connections);
+        }
+
+        @Override
+        public long getPacketsSent() {
+            return packets.get();
+        }
+
+        @Override
+        public long getMinRequestLatency() {
+            return 0;
+        }
+
+        @Override
+        public long getAvgRequestLatency() {
+            return 1;
+        }
+
+        @Override
+        public long getMaxRequestLatency() {
+            return ThreadLocalRandom.current().nextInt(100);
+        }
+
+    }
+
+    private static final class DataTree implements DataTreeMBean {
+
+        @Override
+        public int getNodeCount() {
+            return 10000;
+        }
+
+        @Override
+        public int getWatchCount() {
+            return 2500;
+        }
+
+    }
+
+    private static final class Connection implements ConnectionMBean {
+
+        private final String sourceIp;
+        private final long sessionId;
+        private final AtomicLong packets = new AtomicLong();
+
+        private Connection(String sourceIp, long sessionId) {
+            this.sourceIp = sourceIp;
+            this.sessionId = sessionId;
+        }
+
+        @Override
+        public String getSourceIP() {
+            return sourceIp + ":" + (40000 + sessionId % 20000);
+        }
+
+        @Override
+        public String getSessionId() {
+            return "0x" + Long.toHexString(sessionId);
+        }
+
+        @Override
+        public long getOutstandingRequests() {
+            return ThreadLocalRandom.current().nextInt(4);
+        }
+
+        @Override
+        public long getPacketsReceived() {
+            return packets.incrementAndGet();
+        }
+
+        @Override
+        public long getPacketsSent() {
+            return packets.get();
+        }
+
+        @Override
+        public long getAvgLatency() {
+            return 1;
+        }
+
+        @Override
+        public long getMaxLatency() {
+            return ThreadLocalRandom.current().nextInt(50);
+        }
+
+    }
+
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.flw;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.releng.zkw.flw.ServerMetricsFixture.everyByte;
+import static org.releng.zkw.flw.ServerMetricsFixture.parse;
+import static org.releng.zkw.flw.ServerMetricsFixture.values;
+
+public class ConsParserTest {
+
+    private static final String RESPONSE = " /127.0.0.1:40000[1](queued=1,recved=10,sent=9,sid=0x16b00000000,"
+            + "lop=PING,est=1560000000000,to=30000,lcxid=0x5,lzxid=0xffffffffffffffff,lresp=1560000000000,llat=0,"
+            + "minlat=0,avglat=1,maxlat=12)\n"
+            + " /127.0.0.1:40001[1](queued=2,recved=20,sent=19,sid=0x16b00000001,lop=GETD,est=1560000000000,"
+            + "to=30000,lcxid=0x7,lzxid=0x100000005,lresp=1560000000000,llat=3,minlat=0,avglat=2,maxlat=40)\n"
+            + " /127.0.0.1:40002[0](queued=0,recved=1,sent=0)\n"
+            + "\n";
+
+    private static final Map<String, Object> EXPECTED = values("cons.count", 3L, "cons.queued", 3L,
+            "cons.received", 31L, "cons.sent", 28L, "cons.maxLatency", 40L);
+
+    @Test
+    public void parsesResponse() {
+        assertEquals(EXPECTED, parse("cons", RESPONSE));
+    }
+
+    @Test
+    public void parsesResponseSplitAtAnyByte() {
+        for (int split = 1; split < RESPONSE.length(); split++) {
+            assertEquals("split at " + split, EXPECTED, parse("cons", RESPONSE, split));
+        }
+        assertEquals(EXPECTED, parse("cons", RESPONSE, everyByte(RESPONSE)));
+    }
+
+    @Test
+    public void skipsTotalsOfTruncatedResponse() {
+        assertEquals(values(), parse("cons", RESPONSE.substring(0, RESPONSE.indexOf("maxlat=40") + 8)));
+        assertEquals(values(), parse("cons", RESPONSE.substring(0, RESPONSE.indexOf(" /127.0.0.1:40002"))));
+    }
+
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.flw;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.releng.zkw.metrics.MetricsRegistryHolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FourLetterWordCollectorTest {
+
+    private static final long TIMEOUT_MILLIS = 500;
+
+    private final Map<String, String> responses = new ConcurrentHashMap<>();
+    private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+    private ServerSocket stub;
+    private FourLetterWordCollector collector;
+    private String prefix;
+
+    @Before
+    public void setUp() throws IOException {
+        stub = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        prefix = "one_min.test.zookeeper." + stub.getLocalPort();
+        Thread thread = new Thread(this::accept, "test-flw-stub");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (collector != null) {
+            collector.shutdown();
+        }
+        stub.close();
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void timesOutSilentServer() throws Exception {
+        long started = System.nanoTime();
+        startCollector();
+        awaitValue("zkw.flw.errors", 4L);
+        assertTrue(System.nanoTime() - started >= TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS));
+        assertEquals(0L, value("zkw.flw.up"));
+        assertEquals(0L, value("zkw.flw.commands"));
+    }
+
+    @Test
+    public void keepsCompleteLinesOfStalledResponse() throws Exception {
+        responses.put("mntr", "zk_packets_received\t1234\nzk_server_state\tleader\nzk_packets_sent\t12");
+        startCollector();
+        awaitValue("zkw.flw.errors", 4L);
+        assertEquals(1234L, value("flw.mntr.packets_received"));
+        assertEquals(2L, value("flw.role"));
+        assertNull(value("flw.mntr.packets_sent"));
+        assertEquals(0L, value("zkw.flw.up"));
+    }
+
+    @Test
+    public void collectsAnsweringServer() throws Exception {
+        responses.put("mntr", "zk_packets_received\t1234\nzk_server_state\tleader\n");
+        responses.put("stat", "Latency min/avg/max: 0/3/97\n");
+        responses.put("wchs", "2 connections watching 6 paths\nTotal watches:8\n");
+        responses.put("cons", " /127.0.0.1:40000[1](queued=0,recved=5,sent=4)\n\n");
+        startCollector();
+        awaitValue("zkw.flw.commands", 4L);
+        assertEquals(1L, value("zkw.flw.up"));
+        assertEquals(0L, value("zkw.flw.errors"));
+        assertEquals(97L, value("flw.stat.latency.max"));
+        assertEquals(8L, value("flw.wchs.total"));
+        assertEquals(5L, value("flw.cons.received"));
+    }
+
+    private void startCollector() {
+        collector = new FourLetterWordCollector(Collections.singletonList(new FourLetterWordServer("127.0.0.1",
+                stub.getLocalPort(), 0)), "test", TimeUnit.MINUTES.toMillis(1), TIMEOUT_MILLIS);
+        collector.start();
+    }
+
+    private void awaitValue(String name, Object expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!expected.equals(value(name)) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, value(name));
+    }
+
+    private Object value(String name) {
+        return MetricsRegistryHolder.getRegistry().getGauges().containsKey(prefix + "." + name)
+                ? MetricsRegistryHolder.getRegistry().getGauges().get(prefix + "." + name).getValue() : null;
+    }
+
+    private void accept() {
+        while (!stub.isClosed()) {
+            try {
+                Socket socket = stub.accept();
+                sockets.add(socket);
+                answer(socket);
+            } catch (IOException e) {
+                // closed by tearDown
+            }
+        }
+    }
+
+    private void answer(Socket socket) throws IOException {
+        InputStream input = socket.getInputStream();
+        byte[] command = new byte[4];
+        int read = 0;
+        while (read < command.length) {
+            int n = input.read(command, read, command.length - read);
+            if (n < 0) {
+                return;
+            }
+            read += n;
+        }
+        String response = responses.get(new String(command, StandardCharsets.US_ASCII));
+        if (response == null) {
+            return;
+        }
+        socket.getOutputStream().write(response.getBytes(StandardCharsets.US_ASCII));
+        // A response without a final newline stalls, so the collector has to time it out
+        if (response.endsWith("\n")) {
+            socket.close();
+        }
+    }
+
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.flw;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.releng.zkw.flw.ServerMetricsFixture.everyByte;
+import static org.releng.zkw.flw.ServerMetricsFixture.parse;
+import static org.releng.zkw.flw.ServerMetricsFixture.values;
+
+public class MntrParserTest {
+
+    private static final String RESPONSE = "zk_version\t3.4.14-4c25d480e66aadd371de8bd2fd8da255ac140bcf, built on"
+            + " 03/06/2019 16:18 GMT\n"
+            + "zk_avg_latency\t3\n"
+            + "zk_max_latency\t97\n"
+            + "zk_packets_received\t1234\n"
+            + "zk_server_state\tleader\n"
+            + "zk_approximate_data_size\t123456\n";
+
+    private static final Map<String, Object> EXPECTED = values("mntr.avg_latency", 3L, "mntr.max_latency", 97L,
+            "mntr.packets_received", 1234L, "mntr.approximate_data_size", 123456L, "role", 2L);
+
+    @Test
+    public void parsesResponse() {
+        assertEquals(EXPECTED, parse("mntr", RESPONSE));
+    }
+
+    @Test
+    public void parsesResponseSplitAtAnyByte() {
+        for (int split = 1; split < RESPONSE.length(); split++) {
+            assertEquals("split at " + split, EXPECTED, parse("mntr", RESPONSE, split));
+        }
+        assertEquals(EXPECTED, parse("mntr", RESPONSE, everyByte(RESPONSE)));
+    }
+
+    @Test
+    public void dropsLineOfTruncatedResponse() {
+        String truncated = RESPONSE.substring(0, RESPONSE.indexOf("1234") + 2);
+        assertEquals(values("mntr.avg_latency", 3L, "mntr.max_latency", 97L), parse("mntr", truncated));
+    }
+
+    @Test
+    public void skipsOverlongLine() {
+        StringBuilder response = new StringBuilder("zk_version\t");
+        for (int i = 0; i < 5000; i++) {
+            response.append('9');
+        }
+        response.append("\nzk_avg_latency\t3\n");
+        assertEquals(values("mntr.avg_latency", 3L), parse("mntr", response.toString(), 4096, 4097));
+    }
+
+}
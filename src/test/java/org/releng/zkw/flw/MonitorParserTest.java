@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.flw;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.releng.zkw.flw.ServerMetricsFixture.everyByte;
+import static org.releng.zkw.flw.ServerMetricsFixture.parse;
+import static org.releng.zkw.flw.ServerMetricsFixture.values;
+
+public class MonitorParserTest {
+
+    private static final String BODY = "{\n"
+            + "  \"version\" : \"3.5.5-390fe37ea45dee01bf87dc1c042b5e3dcce88653, built on 05/03/2019 12:07 GMT\",\n"
+            + "  \"avg_latency\" : 3.5,\n"
+            + "  \"max_latency\" : 97,\n"
+            + "  \"packets_received\" : 1234,\n"
+            + "  \"server_state\" : \"observer\",\n"
+            + "  \"last_client_response_size\" : -1,\n"
+            + "  \"quorum_size\" : {\"voting\" : 3},\n"
+            + "  \"command\" : \"monitor\",\n"
+            + "  \"error\" : null\n"
+            + "}";
+    private static final String RESPONSE = "HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nContent-Length: "
+            + BODY.length() + "\r\n\r\n" + BODY;
+
+    private static final Map<String, Object> EXPECTED = values("monitor.avg_latency", 3.5, "monitor.max_latency",
+            97L, "monitor.packets_received", 1234L, "monitor.last_client_response_size", -1L, "role", 3L);
+
+    @Test
+    public void parsesResponse() {
+        assertEquals(EXPECTED, parse("monitor", RESPONSE));
+    }
+
+    @Test
+    public void parsesResponseSplitAtAnyByte() {
+        for (int split = 1; split < RESPONSE.length(); split++) {
+            assertEquals("split at " + split, EXPECTED, parse("monitor", RESPONSE, split));
+        }
+        assertEquals(EXPECTED, parse("monitor", RESPONSE, everyByte(RESPONSE)));
+    }
+
+    @Test
+    public void dropsValueOfTruncatedResponse() {
+        String truncated = RESPONSE.substring(0, RESPONSE.indexOf("1234") + 2);
+        assertEquals(values("monitor.avg_latency", 3.5, "monitor.max_latency", 97L), parse("monitor", truncated));
+        assertEquals(values(), parse("monitor", RESPONSE.substring(0, RESPONSE.indexOf("\r\n\r\n") + 2)));
+    }
+
+    @Test
+    public void ignoresErrorResponse() {
+        assertEquals(values(), parse("monitor", "HTTP/1.1 404 Not Found\r\nContent-Length: " + BODY.length()
+                + "\r\n\r\n" + BODY));
+    }
+
+}
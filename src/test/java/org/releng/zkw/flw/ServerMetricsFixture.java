@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.flw;
+
+import org.releng.zkw.metrics.MetricsRegistryHolder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+final class ServerMetricsFixture {
+
+    private static final String[] CLIENT_PORT_COMMANDS = {"mntr", "stat", "wchs", "cons"};
+    private static final AtomicInteger nextPort = new AtomicInteger(20000);
+
+    private final ServerMetrics server;
+    private final String prefix;
+
+    private ServerMetricsFixture() {
+        int port = nextPort.incrementAndGet();
+        this.prefix = "test.fixture." + port;
+        this.server = new ServerMetrics(new FourLetterWordServer("127.0.0.1", port, port), prefix);
+    }
+
+    static Map<String, Object> parse(String command, String response, int... splits) {
+        ServerMetricsFixture fixture = new ServerMetricsFixture();
+        try {
+            fixture.server.beginCycle();
+            fixture.server.started();
+            fixture.feed(command, response.getBytes(StandardCharsets.US_ASCII), splits);
+            fixture.server.completed();
+            return fixture.publish();
+        } finally {
+            fixture.server.close();
+        }
+    }
+
+    static int[] everyByte(String response) {
+        int[] splits = new int[Math.max(0, response.length() - 1)];
+        for (int i = 0; i < splits.length; i++) {
+            splits[i] = i + 1;
+        }
+        return splits;
+    }
+
+    static Map<String, Object> values(Object... namesAndValues) {
+        Map<String, Object> values = new TreeMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            values.put((String) namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return values;
+    }
+
+    private void feed(String command, byte[] response, int[] splits) {
+        ResponseParser parser = "monitor".equals(command) ? server.getMonitorParser()
+                : server.getClientPortParsers()[Arrays.asList(CLIENT_PORT_COMMANDS).indexOf(command)];
+        parser.begin();
+        int offset = 0;
+        for (int split : splits) {
+            // Chunks are copied, so a parser reading past the end of a read fails instead of peeking ahead
+            byte[] chunk = Arrays.copyOfRange(response, offset, split);
+            parser.parse(chunk, 0, chunk.length);
+            offset = split;
+        }
+        byte[] chunk = Arrays.copyOfRange(response, offset, response.length);
+        parser.parse(chunk, 0, chunk.length);
+        parser.end();
+    }
+
+    private Map<String, Object> publish() {
+        server.publish(0);
+        Map<String, Object> values = new TreeMap<>();
+        String flwPrefix = prefix + ".flw.";
+        MetricsRegistryHolder.getRegistry().getGauges().forEach((name, gauge) -> {
+            if (name.startsWith(flwPrefix)) {
+                values.put(name.substring(flwPrefix.length()), gauge.getValue());
+            }
+        });
+        return values;
+    }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.flw;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.releng.zkw.flw.ServerMetricsFixture.everyByte;
+import static org.releng.zkw.flw.ServerMetricsFixture.parse;
+import static org.releng.zkw.flw.ServerMetricsFixture.values;
+
+public class StatParserTest {
+
+    private static final String RESPONSE = "Zookeeper version: 3.4.14-4c25d480e66aadd371de8bd2fd8da255ac140bcf,"
+            + " built on 03/06/2019 16:18 GMT\n"
+            + "Clients:\n"
+            + " /127.0.0.1:40000[1](queued=0,recved=5,sent=5)\n"
+            + " /127.0.0.1:40001[0](queued=0,recved=1,sent=0)\n"
+            + "\n"
+            + "Latency min/avg/max: 0/3/97\n"
+            + "Received: 1234\n"
+            + "Sent: 1200\n"
+            + "Connections: 2\n"
+            + "Outstanding: 0\n"
+            + "Zxid: 0x100000005\n"
+            + "Mode: follower\n"
+            + "Node count: 1005\n";
+
+    private static final Map<String, Object> EXPECTED = values("stat.latency.min", 0L, "stat.latency.avg", 3L,
+            "stat.latency.max", 97L, "stat.Received", 1234L, "stat.Sent", 1200L, "stat.Connections", 2L,
+            "stat.Outstanding", 0L, "stat.Zxid", 0x100000005L, "stat.Node_count", 1005L, "role", 1L);
+
+    @Test
+    public void parsesResponse() {
+        assertEquals(EXPECTED, parse("stat", RESPONSE));
+    }
+
+    @Test
+    public void parsesResponseSplitAtAnyByte() {
+        for (int split = 1; split < RESPONSE.length(); split++) {
+            assertEquals("split at " + split, EXPECTED, parse("stat", RESPONSE, split));
+        }
+        assertEquals(EXPECTED, parse("stat", RESPONSE, everyByte(RESPONSE)));
+    }
+
+    @Test
+    public void dropsLineOfTruncatedResponse() {
+        String truncated = RESPONSE.substring(0, RESPONSE.indexOf("0/3/97") + 4);
+        assertEquals(values(), parse("stat", truncated));
+        truncated = RESPONSE.substring(0, RESPONSE.indexOf("Mode: fol") + 9);
+        Map<String, Object> values = parse("stat", truncated);
+        assertEquals(0x100000005L, values.get("stat.Zxid"));
+        assertEquals(null, values.get("role"));
+    }
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class CounterRatesTest {
+
+    @Test
+    public void reusesReleasedSlots() {
+        CounterRates rates = new CounterRates();
+        int first = rates.allocate();
+        rates.allocate();
+        rates.release(first);
+        assertEquals(first, rates.allocate());
+        assertEquals(2, rates.size());
+    }
+
+    @Test
+    public void keepsSizeUnderRegistrationChurn() {
+        CounterRates rates = new CounterRates();
+        int[] slots = new int[500];
+        for (int cycle = 0; cycle < 50; cycle++) {
+            for (int i = 0; i < slots.length; i++) {
+                slots[i] = rates.allocate();
+            }
+            for (int slot : slots) {
+                rates.release(slot);
+            }
+        }
+        assertEquals(slots.length, rates.size());
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.metrics;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class GaugeStoreTest {
+
+    @Test
+    public void reusesReleasedSlots() {
+        GaugeStore store = new GaugeStore();
+        int first = store.allocate("a", false);
+        int second = store.allocate("b", true);
+        store.release(first);
+        assertEquals(first, store.allocate("c", false));
+        assertEquals(2, store.size());
+        assertEquals(second + 1, store.allocate("d", false));
+    }
+
+    @Test
+    public void clearsReusedSlotValue() {
+        GaugeStore store = new GaugeStore();
+        int slot = store.allocate("a", false);
+        store.setLong(slot, 42);
+        store.release(slot);
+        assertEquals(slot, store.allocate("b", true));
+        assertEquals(0.0, store.getDouble(slot), 0.0);
+        assertEquals(0.0, visit(store).get("b"), 0.0);
+        assertFalse(visit(store).containsKey("a"));
+    }
+
+    @Test
+    public void ignoresRepeatedRelease() {
+        GaugeStore store = new GaugeStore();
+        int slot = store.allocate("a", false);
+        store.release(slot);
+        store.release(slot);
+        assertEquals(slot, store.allocate("b", false));
+        assertEquals(slot + 1, store.allocate("c", false));
+    }
+
+    @Test
+    public void keepsSizeUnderRegistrationChurn() {
+        GaugeStore store = new GaugeStore();
+        int[] slots = new int[1000];
+        for (int cycle = 0; cycle < 50; cycle++) {
+            for (int i = 0; i < slots.length; i++) {
+                slots[i] = store.allocate("gauge" + i, i % 2 == 0);
+            }
+            for (int slot : slots) {
+                store.release(slot);
+            }
+        }
+        assertEquals(slots.length, store.size());
+    }
+
+    private static Map<String, Double> visit(GaugeStore store) {
+        Map<String, Double> values = new HashMap<>();
+        store.visit(new GaugeStore.GaugeVisitor() {
+            @Override
+            public void numeric(String name, long value) {
+                values.put(name, (double) value);
+            }
+
+            @Override
+            public void floating(String name, double value) {
+                values.put(name, value);
+            }
+        }, new long[0]);
+        return values;
+    }
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.metrics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class MetricsCollectionTest {
+
+    private MetricsCollection metrics;
+    private GaugeStore store;
+
+    @Before
+    public void setUp() {
+        Set<GaugeStore> existing = new HashSet<>(MetricsRegistryHolder.getGaugeStores());
+        metrics = MetricsCollection.create();
+        Set<GaugeStore> created = new HashSet<>(MetricsRegistryHolder.getGaugeStores());
+        created.removeAll(existing);
+        store = created.iterator().next();
+    }
+
+    @After
+    public void tearDown() {
+        metrics.close();
+    }
+
+    @Test
+    public void keepsStoreSizeUnderGaugeChurn() {
+        register(0);
+        int size = store.size();
+        for (int cycle = 1; cycle < 100; cycle++) {
+            metrics.removeGauges("test.churn.");
+            register(cycle);
+            assertEquals(size, store.size());
+        }
+    }
+
+    private void register(int cycle) {
+        metrics.beginUpdate();
+        MetricGroup group = metrics.metricGroup("test.churn.");
+        for (int i = 0; i < 10; i++) {
+            group.numericGauge("top.client" + (cycle + i) + ".connections").setValue(i);
+            group.floatingGauge("top.client" + (cycle + i) + ".packetsPerSecond").setValue(i);
+            group.counterGauge("pools.pool" + (cycle + i) + ".cpuTimeMillis").setValue(cycle);
+        }
+        metrics.endUpdate();
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.perfdata;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PerfDataFileTest {
+
+    private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private Process child;
+    private PerfDataFile file;
+
+    @Before
+    public void setUp() throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        child = new ProcessBuilder(java, "-XX:+UsePerfData", "-cp", System.getProperty("java.class.path"),
+                ChildVm.class.getName()).redirectErrorStream(true).start();
+        String pid = new BufferedReader(new InputStreamReader(child.getInputStream(), StandardCharsets.UTF_8))
+                .readLine();
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        Optional<PerfDataFile> found = PerfDataFile.find(pid);
+        while ((!found.isPresent() || !found.get().isAccessible()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            found = PerfDataFile.find(pid);
+        }
+        assertTrue("No accessible perf data file for child VM " + pid, found.isPresent());
+        file = found.get();
+        assertEquals(pid, file.getPath().getFileName().toString());
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        child.destroy();
+        child.waitFor();
+    }
+
+    @Test
+    public void readsHighResolutionTimerFrequency() {
+        Optional<PerfDataFile.LongCounter> frequency = file.getLongCounter("sun.os.hrt.frequency");
+        assertTrue(frequency.isPresent());
+        assertTrue(frequency.get().get() > 0);
+        assertFalse(frequency.get().isTicks());
+    }
+
+    @Test
+    public void readsTicksCounter() throws InterruptedException {
+        Optional<PerfDataFile.LongCounter> ticks = file.getLongCounter("sun.os.hrt.ticks");
+        assertTrue(ticks.isPresent());
+        assertTrue(ticks.get().isTicks());
+        long first = ticks.get().get();
+        assertTrue(first > 0);
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (ticks.get().get() == first && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertTrue(ticks.get().get() > first);
+    }
+
+    @Test
+    public void readsByteArrayStrings() {
+        Optional<String> command = file.getString("sun.rt.javaCommand");
+        assertTrue(command.isPresent());
+        assertEquals(ChildVm.class.getName(), command.get());
+        assertEquals(System.getProperty("java.vm.name"), file.getString("java.property.java.vm.name").get());
+    }
+
+    @Test
+    public void rejectsMissingAndMistypedEntries() {
+        assertFalse(file.getLongCounter("zkw.missing.counter").isPresent());
+        assertFalse(file.getString("zkw.missing.string").isPresent());
+        assertFalse(file.getLongCounter("sun.rt.javaCommand").isPresent());
+        assertFalse(file.getString("sun.os.hrt.frequency").isPresent());
+        assertTrue(file.getEntryCount() > 0);
+    }
+
+    public static final class ChildVm {
+
+        public static void main(String[] args) throws IOException, InterruptedException {
+            String name = ManagementFactory.getRuntimeMXBean().getName();
+            System.out.println(name.substring(0, name.indexOf('@')));
+            System.out.flush();
+            Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+        }
+
+    }
+
+}
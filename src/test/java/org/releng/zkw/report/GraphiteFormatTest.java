@@ -0,0 +1,78 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.report;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class GraphiteFormatTest {
+
+    private static final long TIMESTAMP = 1400000000L;
+
+    @Test
+    public void encodesPlaintextLines() {
+        Map<String, String> samples = new LinkedHashMap<>();
+        samples.put("one_min.host.zookeeper.2181.a", "1");
+        samples.put("one_min.host.zookeeper.2181.b", "2.5");
+        assertEquals("one_min.host.zookeeper.2181.a 1 1400000000\none_min.host.zookeeper.2181.b 2.5 1400000000\n",
+                string(GraphiteFormat.PLAINTEXT.encode(samples, TIMESTAMP)));
+    }
+
+    @Test
+    public void encodesEmptyPlaintextBatch() {
+        assertEquals(0, GraphiteFormat.PLAINTEXT.encode(new LinkedHashMap<>(), TIMESTAMP).remaining());
+    }
+
+    @Test
+    public void framesPickleWithPayloadLength() {
+        Map<String, String> samples = new LinkedHashMap<>();
+        samples.put("a.b", "1");
+        samples.put("c.d", "2.5");
+        ByteBuffer batch = GraphiteFormat.PICKLE.encode(samples, TIMESTAMP);
+        int length = batch.getInt();
+        assertEquals(batch.remaining(), length);
+        assertEquals("(l(S'a.b'\n(L1400000000L\nS'1'\ntta(S'c.d'\n(L1400000000L\nS'2.5'\ntta.", string(batch));
+    }
+
+    @Test
+    public void escapesPickleStrings() {
+        Map<String, String> samples = new LinkedHashMap<>();
+        samples.put("it's\\x", "1");
+        ByteBuffer batch = GraphiteFormat.PICKLE.encode(samples, TIMESTAMP);
+        assertEquals(batch.remaining() - 4, batch.getInt());
+        assertEquals("(l(S'it\\'s\\\\x'\n(L1400000000L\nS'1'\ntta.", string(batch));
+    }
+
+    @Test
+    public void framesEmptyPickleBatch() {
+        ByteBuffer batch = GraphiteFormat.PICKLE.encode(new LinkedHashMap<>(), TIMESTAMP);
+        assertEquals(3, batch.getInt());
+        assertEquals("(l.", string(batch));
+    }
+
+    private static String string(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
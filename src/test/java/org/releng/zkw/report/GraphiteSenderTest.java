@@ -0,0 +1,140 @@
+/*
+ * Copyright 2014 rel-eng
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.releng.zkw.report;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GraphiteSenderTest {
+
+    private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private ServerSocket stub;
+    private GraphiteSender sender;
+
+    @Before
+    public void setUp() throws IOException {
+        stub = new ServerSocket();
+        stub.setReceiveBufferSize(4096);
+        stub.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (sender != null) {
+            sender.close();
+        }
+        stub.close();
+    }
+
+    @Test
+    public void writesBatchesInOrder() throws IOException {
+        sender = new GraphiteSender(stub.getInetAddress().getHostAddress(), stub.getLocalPort(), 1024);
+        sender.send(bytes("a 1 1\n"), 1000);
+        sender.send(bytes("b 2 1\n"), 1000);
+        try (Socket socket = stub.accept()) {
+            assertTrue(sender.isConnected());
+            assertEquals(0, sender.getPendingBytes());
+            assertEquals("a 1 1\nb 2 1\n", new String(read(socket.getInputStream(), 12), StandardCharsets.UTF_8));
+        }
+        assertEquals(1, sender.getConnections());
+    }
+
+    @Test
+    public void resendsPartiallyWrittenBatchAfterReconnect() throws Exception {
+        byte[] payload = new byte[16 * 1024 * 1024];
+        new Random(42).nextBytes(payload);
+        sender = new GraphiteSender(stub.getInetAddress().getHostAddress(), stub.getLocalPort(), payload.length);
+        sender.send(ByteBuffer.wrap(payload), 100);
+        try (Socket socket = stub.accept()) {
+            assertTrue(sender.isConnected());
+            assertTrue(sender.getPendingBytes() > 0);
+            socket.setSoLinger(true, 0);
+        }
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (sender.flushPending(100) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(sender.isConnected());
+        assertEquals(payload.length, sender.getPendingBytes());
+        Thread resend = new Thread(() -> {
+            while (sender.getPendingBytes() > 0 && System.currentTimeMillis() < deadline) {
+                sender.flushPending(100);
+            }
+        });
+        resend.start();
+        try (Socket socket = stub.accept()) {
+            assertArrayEquals(payload, read(socket.getInputStream(), payload.length));
+        }
+        resend.join(TIMEOUT_MILLIS);
+        assertEquals(0, sender.getPendingBytes());
+        assertEquals(2, sender.getConnections());
+        assertEquals(0, sender.getDroppedBatches());
+    }
+
+    @Test
+    public void dropsOldestBatchesWhileDisconnected() throws IOException {
+        int port = stub.getLocalPort();
+        stub.close();
+        sender = new GraphiteSender(InetAddress.getLoopbackAddress().getHostAddress(), port, 100);
+        sender.send(ByteBuffer.wrap(new byte[40]), 100);
+        sender.send(ByteBuffer.wrap(new byte[40]), 100);
+        sender.send(ByteBuffer.wrap(new byte[40]), 100);
+        assertFalse(sender.isConnected());
+        assertEquals(80, sender.getPendingBytes());
+        assertEquals(1, sender.getDroppedBatches());
+        sender.send(ByteBuffer.wrap(new byte[101]), 100);
+        assertEquals(80, sender.getPendingBytes());
+        assertEquals(2, sender.getDroppedBatches());
+    }
+
+    private static ByteBuffer bytes(String value) {
+        return ByteBuffer.wrap(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] read(InputStream input, int length) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream(length);
+        byte[] buffer = new byte[65536];
+        while (result.size() < length) {
+            int read = input.read(buffer, 0, Math.min(buffer.length, length - result.size()));
+            if (read < 0) {
+                break;
+            }
+            result.write(buffer, 0, read);
+        }
+        return Arrays.copyOf(result.toByteArray(), result.size());
+    }
+
+}